@@ -20,6 +20,7 @@ import android.graphics.ColorFilter;
 import android.util.DisplayMetrics;
 import com.android.internal.app.AlertActivity;
 import com.android.internal.app.AlertController;
+import com.android.settings.applications.AppIconCache;
 
 import android.app.Activity;
 import android.content.Context;
@@ -237,7 +238,7 @@ public class ActivityPicker extends AlertActivity implements
                     label = resolveInfo.activityInfo.name;
                 }
 
-                icon = getResizer(context).createIconThumbnail(resolveInfo.loadIcon(pm));
+                icon = AppIconCache.getInstance(context).getIcon(resolveInfo);
                 packageName = resolveInfo.activityInfo.applicationInfo.packageName;
                 className = resolveInfo.activityInfo.name;
             }
@@ -22,6 +22,7 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 
+import com.android.settings.applications.AppIconCache;
 import com.android.settings.applications.AppViewHolder;
 
 import android.app.ActivityManagerNative;
@@ -82,10 +83,12 @@ public class AppPicker extends ListActivity {
     public class AppListAdapter extends ArrayAdapter<MyApplicationInfo> {
         private final List<MyApplicationInfo> mPackageInfoList = new ArrayList<MyApplicationInfo>();
         private final LayoutInflater mInflater;
+        private final AppIconCache mIconCache;
 
         public AppListAdapter(Context context) {
             super(context, 0);
             mInflater = (LayoutInflater)context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
+            mIconCache = AppIconCache.getInstance(context);
             List<ApplicationInfo> pkgs = context.getPackageManager().getInstalledApplications(0);
             for (int i=0; i<pkgs.size(); i++) {
                 ApplicationInfo ai = pkgs.get(i);
@@ -120,7 +123,7 @@ public class AppPicker extends ListActivity {
             MyApplicationInfo info = getItem(position);
             holder.appName.setText(info.label);
             if (info.info != null) {
-                holder.appIcon.setImageDrawable(info.info.loadIcon(getPackageManager()));
+                mIconCache.bindIcon(holder.appIcon, info.info);
                 holder.appSize.setText(info.info.packageName);
             } else {
                 holder.appIcon.setImageDrawable(null);
@@ -38,8 +38,6 @@ import static android.net.NetworkTemplate.buildTemplateMobileAll;
 import static android.net.NetworkTemplate.buildTemplateWifiWildcard;
 import static android.net.TrafficStats.GB_IN_BYTES;
 import static android.net.TrafficStats.MB_IN_BYTES;
-import static android.net.TrafficStats.UID_REMOVED;
-import static android.net.TrafficStats.UID_TETHERING;
 import static android.telephony.TelephonyManager.SIM_STATE_READY;
 import static android.text.format.DateUtils.FORMAT_ABBREV_MONTH;
 import static android.text.format.DateUtils.FORMAT_SHOW_DATE;
@@ -73,13 +71,14 @@ import android.net.INetworkStatsService;
 import android.net.INetworkStatsSession;
 import android.net.NetworkPolicy;
 import android.net.NetworkPolicyManager;
-import android.net.NetworkStats;
 import android.net.NetworkStatsHistory;
 import android.net.NetworkTemplate;
 import android.net.TrafficStats;
 import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Environment;
+import android.os.Handler;
 import android.os.INetworkManagementService;
 import android.os.Parcel;
 import android.os.Parcelable;
@@ -96,7 +95,6 @@ import android.text.format.DateUtils;
 import android.text.format.Formatter;
 import android.text.format.Time;
 import android.util.Log;
-import android.util.SparseArray;
 import android.util.SparseBooleanArray;
 import android.view.LayoutInflater;
 import android.view.Menu;
@@ -127,23 +125,29 @@ import android.widget.TabHost.TabContentFactory;
 import android.widget.TabHost.TabSpec;
 import android.widget.TabWidget;
 import android.widget.TextView;
+import android.widget.Toast;
 
 import com.android.internal.telephony.PhoneConstants;
 import com.android.settings.drawable.InsetBoundsDrawable;
+import com.android.settings.net.AppUsageModel;
 import com.android.settings.net.ChartData;
 import com.android.settings.net.ChartDataLoader;
 import com.android.settings.net.DataUsageMeteredSettings;
 import com.android.settings.net.NetworkPolicyEditor;
+import com.android.settings.net.NetworkOverviewLoader;
+import com.android.settings.net.NetworkStatsCache;
+import com.android.settings.net.NetworkStatsExporter;
 import com.android.settings.net.SummaryForAllUidLoader;
 import com.android.settings.net.UidDetail;
+import com.android.settings.net.UidDetailLoader;
 import com.android.settings.net.UidDetailProvider;
 import com.android.settings.widget.ChartDataUsageView;
 import com.android.settings.widget.ChartDataUsageView.DataUsageChartListener;
 import com.android.settings.widget.PieChartView;
 import com.google.android.collect.Lists;
 
+import java.io.File;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
 
@@ -184,6 +188,10 @@ public class DataUsageSummary extends Fragment {
 
     private static final int LOADER_CHART_DATA = 2;
     private static final int LOADER_SUMMARY = 3;
+    private static final int LOADER_OVERVIEW = 4;
+
+    /** Delay used to coalesce stats update notifications. */
+    private static final long RELOAD_DELAY = 250;
 
     private INetworkManagementService mNetworkService;
     private INetworkStatsService mStatsService;
@@ -191,10 +199,14 @@ public class DataUsageSummary extends Fragment {
     private ConnectivityManager mConnService;
 
     private INetworkStatsSession mStatsSession;
+    private NetworkStatsCache mStatsCache;
 
     private static final String PREF_FILE = "data_usage";
     private static final String PREF_SHOW_WIFI = "show_wifi";
     private static final String PREF_SHOW_ETHERNET = "show_ethernet";
+    private static final String PREF_SHOW_OVERVIEW = "show_overview";
+
+    private static final String EXPORT_DIR = "DataUsage";
 
     private SharedPreferences mPrefs;
 
@@ -223,6 +235,7 @@ public class DataUsageSummary extends Fragment {
     private ChartDataUsageView mChart;
     private TextView mUsageSummary;
     private TextView mEmpty;
+    private LinearLayout mOverview;
 
     private View mAppDetail;
     private ImageView mAppIcon;
@@ -238,6 +251,13 @@ public class DataUsageSummary extends Fragment {
 
     private boolean mShowWifi = false;
     private boolean mShowEthernet = false;
+    private boolean mShowOverview = false;
+
+    /** Result of {@link #hasEthernet(Context)} as of the last {@link #updateTabs()}. */
+    private boolean mHasEthernet = false;
+
+    /** Labels of the networks currently shown in {@link #mOverview}. */
+    private CharSequence[] mOverviewLabels;
 
     private NetworkTemplate mTemplate;
     private ChartData mChartData;
@@ -258,7 +278,10 @@ public class DataUsageSummary extends Fragment {
     /** Flag used to ignore listeners during binding. */
     private boolean mBinding;
 
+    private final Handler mHandler = new Handler();
+
     private UidDetailProvider mUidDetailProvider;
+    private UidDetailLoader mUidDetailLoader;
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -271,6 +294,7 @@ public class DataUsageSummary extends Fragment {
                 ServiceManager.getService(Context.NETWORK_STATS_SERVICE));
         mPolicyManager = NetworkPolicyManager.from(context);
         mConnService = ConnectivityManager.from(context);
+        mStatsCache = NetworkStatsCache.getInstance(context);
 
         mPrefs = getActivity().getSharedPreferences(PREF_FILE, Context.MODE_PRIVATE);
 
@@ -279,6 +303,7 @@ public class DataUsageSummary extends Fragment {
 
         mShowWifi = mPrefs.getBoolean(PREF_SHOW_WIFI, false);
         mShowEthernet = mPrefs.getBoolean(PREF_SHOW_ETHERNET, false);
+        mShowOverview = mPrefs.getBoolean(PREF_SHOW_OVERVIEW, false);
 
         // override preferences when no mobile radio
         if (!hasReadyMobileRadio(context)) {
@@ -297,6 +322,7 @@ public class DataUsageSummary extends Fragment {
         final View view = inflater.inflate(R.layout.data_usage_summary, container, false);
 
         mUidDetailProvider = new UidDetailProvider(context);
+        mUidDetailLoader = new UidDetailLoader(mUidDetailProvider);
 
         try {
             mStatsSession = mStatsService.openSession();
@@ -395,8 +421,9 @@ public class DataUsageSummary extends Fragment {
 
         mUsageSummary = (TextView) mHeader.findViewById(R.id.usage_summary);
         mEmpty = (TextView) mHeader.findViewById(android.R.id.empty);
+        mOverview = (LinearLayout) mHeader.findViewById(R.id.overview);
 
-        mAdapter = new DataUsageAdapter(mUidDetailProvider, mInsetSide);
+        mAdapter = new DataUsageAdapter(mUidDetailLoader, mInsetSide);
         mListView.setOnItemClickListener(mListListener);
         mListView.setAdapter(mAdapter);
 
@@ -415,29 +442,57 @@ public class DataUsageSummary extends Fragment {
         // selected network, and binds chart, cycles and detail list.
         updateTabs();
 
-        // kick off background task to update stats
-        new AsyncTask<Void, Void, Void>() {
-            @Override
-            protected Void doInBackground(Void... params) {
-                try {
-                    // wait a few seconds before kicking off
-                    Thread.sleep(2 * DateUtils.SECOND_IN_MILLIS);
-                    mStatsService.forceUpdate();
-                } catch (InterruptedException e) {
-                } catch (RemoteException e) {
+        // reload whenever the stats service persists new stats, and ask it
+        // to do so now unless it just did; no need to hold back the initial
+        // load for that, it is refreshed once the update lands.
+        mStatsCache.registerListener(mStatsListener);
+        if (!mStatsCache.isFresh()) {
+            new AsyncTask<Void, Void, Void>() {
+                @Override
+                protected Void doInBackground(Void... params) {
+                    try {
+                        mStatsService.forceUpdate();
+                        mStatsCache.invalidate();
+                    } catch (RemoteException e) {
+                    }
+                    return null;
                 }
-                return null;
-            }
+            }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        }
+    }
 
-            @Override
-            protected void onPostExecute(Void result) {
-                if (isAdded()) {
-                    updateBody();
-                }
-            }
-        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    @Override
+    public void onPause() {
+        super.onPause();
+        mPolicyEditor.flush();
+        mStatsCache.unregisterListener(mStatsListener);
+        mHandler.removeCallbacks(mReloadChartData);
     }
 
+    private final NetworkStatsCache.Listener mStatsListener = new NetworkStatsCache.Listener() {
+        @Override
+        public void onStatsUpdated() {
+            // forceUpdate() returning and the service's broadcast usually
+            // arrive together; only reload once for both.
+            mHandler.removeCallbacks(mReloadChartData);
+            mHandler.postDelayed(mReloadChartData, RELOAD_DELAY);
+        }
+    };
+
+    /**
+     * Reload only the chart data for what's currently shown; its callbacks
+     * recompute cycles and restart the summary loader when needed, leaving
+     * the rest of the body alone.
+     */
+    private final Runnable mReloadChartData = new Runnable() {
+        @Override
+        public void run() {
+            if (!isAdded() || mTemplate == null || mBinding) return;
+            getLoaderManager().restartLoader(LOADER_CHART_DATA,
+                    ChartDataLoader.buildArgs(mTemplate, mCurrentApp), mChartDataCallbacks);
+        }
+    };
+
     @Override
     public void onCreateOptionsMenu(Menu menu, MenuInflater inflater) {
         inflater.inflate(R.menu.data_usage, menu);
@@ -482,6 +537,15 @@ public class DataUsageSummary extends Fragment {
             showEthernet.setVisible(false);
         }
 
+        final boolean canExport = !appDetailMode && mTemplate != null
+                && Environment.MEDIA_MOUNTED.equals(Environment.getExternalStorageState());
+        menu.findItem(R.id.data_usage_menu_export).setVisible(canExport);
+        menu.findItem(R.id.data_usage_menu_export_csv).setVisible(canExport);
+
+        final MenuItem showOverview = menu.findItem(R.id.data_usage_menu_show_overview);
+        showOverview.setVisible(!appDetailMode);
+        showOverview.setChecked(mShowOverview);
+
         final MenuItem metered = menu.findItem(R.id.data_usage_menu_metered);
         if (hasReadyMobileRadio(context) || hasWifiRadio(context)) {
             metered.setVisible(!appDetailMode);
@@ -546,6 +610,23 @@ public class DataUsageSummary extends Fragment {
                 updateTabs();
                 return true;
             }
+            case R.id.data_usage_menu_show_overview: {
+                mShowOverview = !item.isChecked();
+                mPrefs.edit().putBoolean(PREF_SHOW_OVERVIEW, mShowOverview).apply();
+                item.setChecked(mShowOverview);
+                if (mChartData != null) {
+                    updateOverview(mChart.getInspectStart(), mChart.getInspectEnd());
+                }
+                return true;
+            }
+            case R.id.data_usage_menu_export: {
+                exportHistory(NetworkStatsExporter.FORMAT_BINARY);
+                return true;
+            }
+            case R.id.data_usage_menu_export_csv: {
+                exportHistory(NetworkStatsExporter.FORMAT_CSV);
+                return true;
+            }
             case R.id.data_usage_menu_metered: {
                 final PreferenceActivity activity = (PreferenceActivity) getActivity();
                 activity.startPreferencePanel(DataUsageMeteredSettings.class.getCanonicalName(), null,
@@ -569,6 +650,8 @@ public class DataUsageSummary extends Fragment {
         mDataEnabledView = null;
         mDisableAtLimitView = null;
 
+        mUidDetailLoader.cancelAll();
+        mUidDetailLoader = null;
         mUidDetailProvider.clearCache();
         mUidDetailProvider = null;
 
@@ -628,7 +711,10 @@ public class DataUsageSummary extends Fragment {
         if (mShowWifi && hasWifiRadio(context)) {
             mTabHost.addTab(buildTabSpec(TAB_WIFI, R.string.data_usage_tab_wifi));
         }
-        if (mShowEthernet && hasEthernet(context)) {
+        // asks the stats service for all-time ethernet usage, so remember
+        // the answer for updateOverview() instead of asking on every rebind
+        mHasEthernet = hasEthernet(context);
+        if (mShowEthernet && mHasEthernet) {
             mTabHost.addTab(buildTabSpec(TAB_ETHERNET, R.string.data_usage_tab_ethernet));
         }
 
@@ -1171,6 +1257,8 @@ public class DataUsageSummary extends Fragment {
             entry = mChartData.detail.getValues(start, end, now, null);
 
             getLoaderManager().destroyLoader(LOADER_SUMMARY);
+            getLoaderManager().destroyLoader(LOADER_OVERVIEW);
+            mOverview.setVisibility(View.GONE);
 
         } else {
             if (mChartData != null) {
@@ -1180,6 +1268,8 @@ public class DataUsageSummary extends Fragment {
             // kick off loader for detailed stats
             getLoaderManager().restartLoader(LOADER_SUMMARY,
                     SummaryForAllUidLoader.buildArgs(mTemplate, start, end), mSummaryCallbacks);
+
+            updateOverview(start, end);
         }
 
         final long totalBytes = entry != null ? entry.rxBytes + entry.txBytes : 0;
@@ -1200,6 +1290,116 @@ public class DataUsageSummary extends Fragment {
         ensureLayoutTransitions();
     }
 
+    /**
+     * Write the history of the current network and its apps to external
+     * storage in the background, telling the user where it went.
+     */
+    private void exportHistory(int format) {
+        final Context context = getActivity().getApplicationContext();
+        final NetworkStatsExporter exporter = new NetworkStatsExporter(
+                mStatsService, mTemplate, format);
+        final File dir = new File(Environment.getExternalStorageDirectory(), EXPORT_DIR);
+        final File file = new File(dir, "datausage-" + mCurrentTab + "-"
+                + System.currentTimeMillis()
+                + (format == NetworkStatsExporter.FORMAT_CSV ? ".csv" : ".nsh"));
+
+        new AsyncTask<Void, Void, Boolean>() {
+            @Override
+            protected Boolean doInBackground(Void... params) {
+                dir.mkdirs();
+                return exporter.export(file);
+            }
+
+            @Override
+            protected void onPostExecute(Boolean success) {
+                if (success) {
+                    Toast.makeText(context, context.getString(
+                            R.string.data_usage_export_done, file.getPath()),
+                            Toast.LENGTH_LONG).show();
+                } else {
+                    Toast.makeText(context, R.string.data_usage_export_failed,
+                            Toast.LENGTH_SHORT).show();
+                }
+            }
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Show the usage of every available network over the given range side
+     * by side when {@link #mShowOverview}, loading them all in one go.
+     */
+    private void updateOverview(long start, long end) {
+        if (!mShowOverview) {
+            getLoaderManager().destroyLoader(LOADER_OVERVIEW);
+            mOverview.setVisibility(View.GONE);
+            return;
+        }
+
+        final Context context = getActivity();
+        final ArrayList<NetworkTemplate> templates = Lists.newArrayList();
+        final ArrayList<CharSequence> labels = Lists.newArrayList();
+        if (hasReadyMobileRadio(context)) {
+            final String subscriberId = getActiveSubscriberId(context);
+            templates.add(buildTemplateMobileAll(subscriberId));
+            labels.add(getText(R.string.data_usage_tab_mobile));
+            if (hasReadyMobile4gRadio(context)) {
+                templates.add(buildTemplateMobile3gLower(subscriberId));
+                labels.add(getText(R.string.data_usage_tab_3g));
+                templates.add(buildTemplateMobile4g(subscriberId));
+                labels.add(getText(R.string.data_usage_tab_4g));
+            }
+        }
+        if (hasWifiRadio(context)) {
+            templates.add(buildTemplateWifiWildcard());
+            labels.add(getText(R.string.data_usage_tab_wifi));
+        }
+        if (mHasEthernet) {
+            templates.add(buildTemplateEthernet());
+            labels.add(getText(R.string.data_usage_tab_ethernet));
+        }
+
+        mOverviewLabels = labels.toArray(new CharSequence[labels.size()]);
+        getLoaderManager().restartLoader(LOADER_OVERVIEW, NetworkOverviewLoader.buildArgs(
+                templates.toArray(new NetworkTemplate[templates.size()]), start, end),
+                mOverviewCallbacks);
+    }
+
+    private final LoaderCallbacks<long[]> mOverviewCallbacks = new LoaderCallbacks<long[]>() {
+        @Override
+        public Loader<long[]> onCreateLoader(int id, Bundle args) {
+            return new NetworkOverviewLoader(getActivity(), mStatsSession, args);
+        }
+
+        @Override
+        public void onLoadFinished(Loader<long[]> loader, long[] data) {
+            mOverview.removeAllViews();
+            if (data == null || data.length < 2 || mOverviewLabels == null
+                    || mOverviewLabels.length != data.length) {
+                // nothing to compare against
+                mOverview.setVisibility(View.GONE);
+                return;
+            }
+
+            final Context context = getActivity();
+            final LayoutInflater inflater = LayoutInflater.from(context);
+            for (int i = 0; i < data.length; i++) {
+                final View item = inflater.inflate(
+                        R.layout.data_usage_overview_item, mOverview, false);
+                ((TextView) item.findViewById(android.R.id.text1)).setText(mOverviewLabels[i]);
+                ((TextView) item.findViewById(android.R.id.text2)).setText(
+                        Formatter.formatFileSize(context, data[i]));
+                mOverview.addView(item);
+            }
+            mOverview.setVisibility(View.VISIBLE);
+        }
+
+        @Override
+        public void onLoaderReset(Loader<long[]> loader) {
+            mOverview.removeAllViews();
+            mOverview.setVisibility(View.GONE);
+        }
+    };
+
     private final LoaderCallbacks<ChartData> mChartDataCallbacks = new LoaderCallbacks<
             ChartData>() {
         @Override
@@ -1231,24 +1431,22 @@ public class DataUsageSummary extends Fragment {
         }
     };
 
-    private final LoaderCallbacks<NetworkStats> mSummaryCallbacks = new LoaderCallbacks<
-            NetworkStats>() {
+    private final LoaderCallbacks<AppUsageModel> mSummaryCallbacks = new LoaderCallbacks<
+            AppUsageModel>() {
         @Override
-        public Loader<NetworkStats> onCreateLoader(int id, Bundle args) {
+        public Loader<AppUsageModel> onCreateLoader(int id, Bundle args) {
             return new SummaryForAllUidLoader(getActivity(), mStatsSession, args);
         }
 
         @Override
-        public void onLoadFinished(Loader<NetworkStats> loader, NetworkStats data) {
-            final int[] restrictedUids = mPolicyManager.getUidsWithPolicy(
-                    POLICY_REJECT_METERED_BACKGROUND);
-            mAdapter.bindStats(data, restrictedUids);
+        public void onLoadFinished(Loader<AppUsageModel> loader, AppUsageModel data) {
+            mAdapter.bindModel(data);
             updateEmptyVisible();
         }
 
         @Override
-        public void onLoaderReset(Loader<NetworkStats> loader) {
-            mAdapter.bindStats(null, new int[0]);
+        public void onLoaderReset(Loader<AppUsageModel> loader) {
+            mAdapter.bindModel(null);
             updateEmptyVisible();
         }
 
@@ -1477,88 +1675,45 @@ public class DataUsageSummary extends Fragment {
      * Adapter of applications, sorted by total usage descending.
      */
     public static class DataUsageAdapter extends BaseAdapter {
-        private final UidDetailProvider mProvider;
+        private final UidDetailLoader mLoader;
         private final int mInsetSide;
 
-        private ArrayList<AppItem> mItems = Lists.newArrayList();
-        private long mLargest;
+        private AppUsageModel mModel = AppUsageModel.EMPTY;
 
-        public DataUsageAdapter(UidDetailProvider provider, int insetSide) {
-            mProvider = checkNotNull(provider);
+        public DataUsageAdapter(UidDetailLoader loader, int insetSide) {
+            mLoader = checkNotNull(loader);
             mInsetSide = insetSide;
         }
 
         /**
-         * Bind the given {@link NetworkStats}, or {@code null} to clear list.
+         * Bind the given {@link AppUsageModel}, or {@code null} to clear list.
          */
-        public void bindStats(NetworkStats stats, int[] restrictedUids) {
-            mItems.clear();
-
-            final int currentUserId = ActivityManager.getCurrentUser();
-            final SparseArray<AppItem> knownItems = new SparseArray<AppItem>();
-
-            NetworkStats.Entry entry = null;
-            final int size = stats != null ? stats.size() : 0;
-            for (int i = 0; i < size; i++) {
-                entry = stats.getValues(i, entry);
-
-                // Decide how to collapse items together
-                final int uid = entry.uid;
-                final int collapseKey;
-                if (UserHandle.isApp(uid)) {
-                    if (UserHandle.getUserId(uid) == currentUserId) {
-                        collapseKey = uid;
-                    } else {
-                        collapseKey = UidDetailProvider.buildKeyForUser(UserHandle.getUserId(uid));
-                    }
-                } else if (uid == UID_REMOVED || uid == UID_TETHERING) {
-                    collapseKey = uid;
-                } else {
-                    collapseKey = android.os.Process.SYSTEM_UID;
-                }
-
-                AppItem item = knownItems.get(collapseKey);
-                if (item == null) {
-                    item = new AppItem(collapseKey);
-                    mItems.add(item);
-                    knownItems.put(item.key, item);
-                }
-                item.addUid(uid);
-                item.total += entry.rxBytes + entry.txBytes;
-            }
-
-            for (int uid : restrictedUids) {
-                // Only splice in restricted state for current user
-                if (UserHandle.getUserId(uid) != currentUserId) continue;
+        public void bindModel(AppUsageModel model) {
+            mModel = model != null ? model : AppUsageModel.EMPTY;
+            notifyDataSetChanged();
 
-                AppItem item = knownItems.get(uid);
-                if (item == null) {
-                    item = new AppItem(uid);
-                    item.total = -1;
-                    mItems.add(item);
-                    knownItems.put(item.key, item);
-                }
-                item.restricted = true;
+            // warm up details for rows further down the list
+            final int count = mModel.getCount();
+            final int[] keys = new int[count];
+            for (int i = 0; i < count; i++) {
+                keys[i] = mModel.getItem(i).key;
             }
-
-            Collections.sort(mItems);
-            mLargest = (mItems.size() > 0) ? mItems.get(0).total : 0;
-            notifyDataSetChanged();
+            mLoader.prefetch(keys);
         }
 
         @Override
         public int getCount() {
-            return mItems.size();
+            return mModel.getCount();
         }
 
         @Override
         public Object getItem(int position) {
-            return mItems.get(position);
+            return mModel.getItem(position);
         }
 
         @Override
         public long getItemId(int position) {
-            return mItems.get(position).key;
+            return mModel.getItem(position).key;
         }
 
         @Override
@@ -1579,8 +1734,8 @@ public class DataUsageSummary extends Fragment {
                     android.R.id.progress);
 
             // kick off async load of app details
-            final AppItem item = mItems.get(position);
-            UidDetailTask.bindView(mProvider, item, convertView);
+            final AppItem item = mModel.getItem(position);
+            mLoader.bindView(item.key, convertView);
 
             if (item.restricted && item.total <= 0) {
                 text1.setText(R.string.data_usage_app_restricted);
@@ -1590,7 +1745,8 @@ public class DataUsageSummary extends Fragment {
                 progress.setVisibility(View.VISIBLE);
             }
 
-            final int percentTotal = mLargest != 0 ? (int) (item.total * 100 / mLargest) : 0;
+            final long largest = mModel.getLargest();
+            final int percentTotal = largest != 0 ? (int) (item.total * 100 / largest) : 0;
             progress.setProgress(percentTotal);
 
             return convertView;
@@ -2135,66 +2291,6 @@ public class DataUsageSummary extends Fragment {
         }
     }
 
-    /**
-     * Background task that loads {@link UidDetail}, binding to
-     * {@link DataUsageAdapter} row item when finished.
-     */
-    private static class UidDetailTask extends AsyncTask<Void, Void, UidDetail> {
-        private final UidDetailProvider mProvider;
-        private final AppItem mItem;
-        private final View mTarget;
-
-        private UidDetailTask(UidDetailProvider provider, AppItem item, View target) {
-            mProvider = checkNotNull(provider);
-            mItem = checkNotNull(item);
-            mTarget = checkNotNull(target);
-        }
-
-        public static void bindView(
-                UidDetailProvider provider, AppItem item, View target) {
-            final UidDetailTask existing = (UidDetailTask) target.getTag();
-            if (existing != null) {
-                existing.cancel(false);
-            }
-
-            final UidDetail cachedDetail = provider.getUidDetail(item.key, false);
-            if (cachedDetail != null) {
-                bindView(cachedDetail, target);
-            } else {
-                target.setTag(new UidDetailTask(provider, item, target).executeOnExecutor(
-                        AsyncTask.THREAD_POOL_EXECUTOR));
-            }
-        }
-
-        private static void bindView(UidDetail detail, View target) {
-            final ImageView icon = (ImageView) target.findViewById(android.R.id.icon);
-            final TextView title = (TextView) target.findViewById(android.R.id.title);
-
-            if (detail != null) {
-                icon.setImageDrawable(detail.icon);
-                title.setText(detail.label);
-            } else {
-                icon.setImageDrawable(null);
-                title.setText(null);
-            }
-        }
-
-        @Override
-        protected void onPreExecute() {
-            bindView(null, mTarget);
-        }
-
-        @Override
-        protected UidDetail doInBackground(Void... params) {
-            return mProvider.getUidDetail(mItem.key, true);
-        }
-
-        @Override
-        protected void onPostExecute(UidDetail result) {
-            bindView(result, mTarget);
-        }
-    }
-
     /**
      * Test if device has a mobile data radio with SIM in ready state.
      */
@@ -0,0 +1,309 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Compact on-disk snapshot of the label, size and list-sized icon of every
+ * {@link ApplicationsState.AppEntry}, so that a cold process can show the
+ * application list before the package manager has been asked for anything.
+ *
+ * <p>Records are keyed by package name and the modification time of the
+ * package's apk; a record whose stamp no longer matches is simply ignored.
+ * The file is memory-mapped and only its index is parsed up front, icon
+ * bytes are decoded when a row actually needs them.
+ */
+final class AppEntrySnapshot {
+    static final String TAG = "AppEntrySnapshot";
+    static final boolean DEBUG = false;
+
+    static final String FILE_NAME = "app_entries.snapshot";
+
+    private static final int MAGIC = 0x41505053; // "APPS"
+    private static final int VERSION = 1;
+
+    static final class Record {
+        final long stamp;
+        final String label;
+        final String normalizedLabel;
+        final long size;
+        final long internalSize;
+        final long externalSize;
+        final long cacheSize;
+        final long codeSize;
+        final long dataSize;
+        final long externalCodeSize;
+        final long externalDataSize;
+        final long externalCacheSize;
+
+        // Location of the PNG encoded icon inside the mapped file, if any.
+        final ByteBuffer buffer;
+        final int iconOffset;
+        final int iconLength;
+
+        Record(ByteBuffer in) {
+            stamp = in.getLong();
+            label = readString(in);
+            normalizedLabel = readString(in);
+            size = in.getLong();
+            internalSize = in.getLong();
+            externalSize = in.getLong();
+            cacheSize = in.getLong();
+            codeSize = in.getLong();
+            dataSize = in.getLong();
+            externalCodeSize = in.getLong();
+            externalDataSize = in.getLong();
+            externalCacheSize = in.getLong();
+            iconLength = in.getInt();
+            iconOffset = in.position();
+            buffer = in;
+            in.position(iconOffset + iconLength);
+        }
+
+        boolean hasIcon() {
+            return iconLength > 0;
+        }
+
+        byte[] getIconBytes() {
+            byte[] bytes = new byte[iconLength];
+            ByteBuffer dup = buffer.duplicate();
+            dup.position(iconOffset);
+            dup.get(bytes);
+            return bytes;
+        }
+
+        Drawable loadIcon(Resources res) {
+            if (iconLength <= 0) {
+                return null;
+            }
+            byte[] bytes = getIconBytes();
+            Bitmap bitmap = BitmapFactory.decodeByteArray(bytes, 0, bytes.length);
+            return bitmap != null ? new BitmapDrawable(res, bitmap) : null;
+        }
+    }
+
+    private final AtomicFile mFile;
+
+    // Protected by "this".
+    private final HashMap<String, Record> mRecords = new HashMap<String, Record>();
+
+    AppEntrySnapshot(File dir) {
+        mFile = new AtomicFile(new File(dir, FILE_NAME));
+    }
+
+    /**
+     * Maps the snapshot file and indexes its records.  Anything written for a
+     * different locale or density is discarded, since labels and icons would
+     * no longer match what the package manager returns.
+     */
+    synchronized void load(Resources res) {
+        mRecords.clear();
+        final File file = mFile.getBaseFile();
+        if (!file.exists()) {
+            return;
+        }
+        FileInputStream fis = null;
+        try {
+            fis = mFile.openRead();
+            final FileChannel channel = fis.getChannel();
+            final ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+                if (DEBUG) Log.i(TAG, "Ignoring snapshot with unknown version");
+                return;
+            }
+            if (!configKey(res).equals(readString(in))) {
+                if (DEBUG) Log.i(TAG, "Ignoring snapshot written for another configuration");
+                return;
+            }
+            final int N = in.getInt();
+            for (int i=0; i<N; i++) {
+                String pkgName = readString(in);
+                mRecords.put(pkgName, new Record(in));
+            }
+            if (DEBUG) Log.i(TAG, "Loaded " + N + " records from snapshot");
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to read snapshot", e);
+            mRecords.clear();
+        } catch (BufferUnderflowException e) {
+            Log.w(TAG, "Truncated snapshot", e);
+            mRecords.clear();
+        } finally {
+            if (fis != null) {
+                try {
+                    fis.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the record for the given package if it was written for the
+     * same apk, otherwise null.
+     */
+    synchronized Record get(String pkgName, long stamp) {
+        Record rec = mRecords.get(pkgName);
+        if (rec != null && rec.stamp == stamp && stamp != 0) {
+            return rec;
+        }
+        return null;
+    }
+
+    /**
+     * Forget a package, e.g. because the package manager told us it changed.
+     */
+    synchronized void invalidate(String pkgName) {
+        mRecords.remove(pkgName);
+    }
+
+    /**
+     * Writes a new snapshot holding the given entries.  Must not be called
+     * with the ApplicationsState lock held, as loading and encoding icons is
+     * slow.  Icons come from the previous snapshot or the icon cache where
+     * possible and are otherwise loaded without being kept around.  Once
+     * written, every entry is pointed at its new record, so its icon is
+     * copied over as is next time instead of being encoded again.
+     */
+    void write(Context context, List<ApplicationsState.AppEntry> entries,
+            AppIconCache iconCache) {
+        final Resources res = context.getResources();
+        final PackageManager pm = context.getPackageManager();
+        final ByteArrayOutputStream iconOut = new ByteArrayOutputStream();
+        FileOutputStream fos = null;
+        try {
+            fos = mFile.startWrite();
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(fos));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeString(out, configKey(res));
+            out.writeInt(entries.size());
+            for (int i=0; i<entries.size(); i++) {
+                ApplicationsState.AppEntry entry = entries.get(i);
+                synchronized (entry) {
+                    writeString(out, entry.info.packageName);
+                    out.writeLong(entry.stamp);
+                    writeString(out, entry.label);
+                    writeString(out, entry.getNormalizedLabel());
+                    out.writeLong(entry.size);
+                    out.writeLong(entry.internalSize);
+                    out.writeLong(entry.externalSize);
+                    out.writeLong(entry.cacheSize);
+                    out.writeLong(entry.codeSize);
+                    out.writeLong(entry.dataSize);
+                    out.writeLong(entry.externalCodeSize);
+                    out.writeLong(entry.externalDataSize);
+                    out.writeLong(entry.externalCacheSize);
+                }
+                final Record rec = entry.snapshot;
+                if (rec != null) {
+                    // Same apk as the one last written; keep its icon as is.
+                    if (rec.hasIcon()) {
+                        byte[] bytes = rec.getIconBytes();
+                        out.writeInt(bytes.length);
+                        out.write(bytes);
+                    } else {
+                        out.writeInt(0);
+                    }
+                    continue;
+                }
+                Bitmap bitmap = iconCache.getCachedBitmap(entry.info.packageName);
+                boolean recycle = false;
+                if (bitmap == null) {
+                    Drawable icon = entry.info.loadIcon(pm);
+                    if (icon != null) {
+                        bitmap = AppIconCache.createIconBitmap(icon, iconCache.getIconSize());
+                        recycle = true;
+                    }
+                }
+                if (bitmap != null) {
+                    iconOut.reset();
+                    bitmap.compress(Bitmap.CompressFormat.PNG, 100, iconOut);
+                    if (recycle) {
+                        bitmap.recycle();
+                    }
+                    out.writeInt(iconOut.size());
+                    iconOut.writeTo(out);
+                } else {
+                    out.writeInt(0);
+                }
+            }
+            out.flush();
+            mFile.finishWrite(fos);
+            if (DEBUG) Log.i(TAG, "Wrote " + entries.size() + " records to snapshot");
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to write snapshot", e);
+            if (fos != null) {
+                mFile.failWrite(fos);
+            }
+            return;
+        }
+
+        load(res);
+        for (int i=0; i<entries.size(); i++) {
+            ApplicationsState.AppEntry entry = entries.get(i);
+            Record rec = get(entry.info.packageName, entry.stamp);
+            if (rec != null) {
+                entry.snapshot = rec;
+            }
+        }
+    }
+
+    private static String configKey(Resources res) {
+        return res.getConfiguration().locale + "/" + res.getDisplayMetrics().densityDpi;
+    }
+
+    private static String readString(ByteBuffer in) {
+        final int len = in.getInt();
+        byte[] bytes = new byte[len];
+        in.get(bytes);
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String str) throws IOException {
+        byte[] bytes = str.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
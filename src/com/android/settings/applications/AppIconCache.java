@@ -0,0 +1,306 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Process-wide, size-bounded cache of application icons, pre-scaled to the
+ * size of an icon in a list row.  Screens that list applications bind their
+ * rows through here instead of keeping every full size icon around.
+ */
+public final class AppIconCache implements ComponentCallbacks2 {
+    static final String TAG = "AppIconCache";
+    static final boolean DEBUG = false;
+
+    /**
+     * Produces the full size icon for a cache key, on the loader thread.
+     */
+    interface Loader {
+        Drawable loadIcon();
+    }
+
+    private static final Object sLock = new Object();
+    private static AppIconCache sInstance;
+
+    public static AppIconCache getInstance(Context context) {
+        synchronized (sLock) {
+            if (sInstance == null) {
+                sInstance = new AppIconCache(context.getApplicationContext());
+            }
+            return sInstance;
+        }
+    }
+
+    private final PackageManager mPm;
+    private final Resources mResources;
+    private final int mIconSize;
+    private final LruCache<String, Bitmap> mCache;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final HandlerThread mThread;
+    private final Handler mLoaderHandler;
+
+    // Keys currently being loaded.  Only touched by the loader thread.
+    private final HashSet<String> mLoading = new HashSet<String>();
+
+    // Which key each bound view is waiting for.  Only touched by the main thread.
+    private final WeakHashMap<ImageView, String> mBoundViews = new WeakHashMap<ImageView, String>();
+
+    private AppIconCache(Context context) {
+        mPm = context.getPackageManager();
+        mResources = context.getResources();
+        mIconSize = mResources.getDimensionPixelSize(android.R.dimen.app_icon_size);
+
+        // Use 1/16th of the memory class, which is a few hundred list icons on
+        // a typical device and far less than holding every full size icon.
+        final int memoryClass = ((ActivityManager) context.getSystemService(
+                Context.ACTIVITY_SERVICE)).getMemoryClass();
+        mCache = new LruCache<String, Bitmap>(memoryClass * 1024 * 1024 / 16) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getByteCount();
+            }
+        };
+
+        mThread = new HandlerThread("AppIconCache.Loader", Process.THREAD_PRIORITY_BACKGROUND);
+        mThread.start();
+        mLoaderHandler = new Handler(mThread.getLooper());
+
+        context.registerComponentCallbacks(this);
+    }
+
+    /**
+     * Returns the cached icon for the given key, or null.
+     */
+    Drawable getCachedIcon(String key) {
+        Bitmap bitmap = mCache.get(key);
+        return bitmap != null ? new BitmapDrawable(mResources, bitmap) : null;
+    }
+
+    Bitmap getCachedBitmap(String key) {
+        return mCache.get(key);
+    }
+
+    /**
+     * Returns the icon for the given key, loading it on the calling thread if
+     * it isn't cached yet.
+     */
+    Drawable getIcon(String key, Loader loader) {
+        Bitmap bitmap = mCache.get(key);
+        if (bitmap == null) {
+            bitmap = load(key, loader);
+        }
+        return bitmap != null ? new BitmapDrawable(mResources, bitmap) : null;
+    }
+
+    public Drawable getIcon(ApplicationInfo info) {
+        return getIcon(keyFor(info), loaderFor(info));
+    }
+
+    public Drawable getIcon(ResolveInfo info) {
+        return getIcon(keyFor(info), loaderFor(info));
+    }
+
+    /**
+     * Shows the icon for the given key in view, loading it in the background
+     * if needed.  Must be called from the main thread.
+     */
+    void bindIcon(ImageView view, String key, Loader loader) {
+        Bitmap bitmap = mCache.get(key);
+        if (bitmap != null) {
+            mBoundViews.remove(view);
+            view.setImageDrawable(new BitmapDrawable(mResources, bitmap));
+            return;
+        }
+        view.setImageDrawable(null);
+        mBoundViews.put(view, key);
+        mLoaderHandler.post(new LoadRequest(key, loader));
+    }
+
+    /**
+     * Stops delivering a pending icon to view, e.g. because the row is being
+     * used for something that has no cached icon.
+     */
+    void unbindIcon(ImageView view) {
+        mBoundViews.remove(view);
+    }
+
+    public void bindIcon(ImageView view, ApplicationInfo info) {
+        bindIcon(view, keyFor(info), loaderFor(info));
+    }
+
+    public void bindIcon(ImageView view, ResolveInfo info) {
+        bindIcon(view, keyFor(info), loaderFor(info));
+    }
+
+    /**
+     * Drops every icon belonging to the given package.
+     */
+    public void invalidate(String packageName) {
+        final String prefix = packageName + "/";
+        for (String key : mCache.snapshot().keySet()) {
+            if (key.equals(packageName) || key.startsWith(prefix)) {
+                mCache.remove(key);
+            }
+        }
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (DEBUG) Log.i(TAG, "onTrimMemory " + level + ", holding " + mCache.size() + " bytes");
+        if (level >= TRIM_MEMORY_MODERATE || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+            mCache.evictAll();
+        } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            // Keep what the visible list is likely to need again.
+            mCache.trimToSize(mCache.maxSize() / 2);
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        mCache.evictAll();
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+
+    private Bitmap load(String key, Loader loader) {
+        Drawable icon = loader.loadIcon();
+        if (icon == null) {
+            return null;
+        }
+        Bitmap bitmap = createIconBitmap(icon, mIconSize);
+        mCache.put(key, bitmap);
+        return bitmap;
+    }
+
+    private final class LoadRequest implements Runnable {
+        final String mKey;
+        final Loader mLoader;
+
+        LoadRequest(String key, Loader loader) {
+            mKey = key;
+            mLoader = loader;
+        }
+
+        @Override
+        public void run() {
+            if (mCache.get(mKey) == null && mLoading.add(mKey)) {
+                try {
+                    load(mKey, mLoader);
+                } finally {
+                    mLoading.remove(mKey);
+                }
+            }
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    deliver(mKey);
+                }
+            });
+        }
+    }
+
+    private void deliver(String key) {
+        final Bitmap bitmap = mCache.get(key);
+        if (bitmap == null) {
+            return;
+        }
+        final Iterator<Map.Entry<ImageView, String>> it = mBoundViews.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<ImageView, String> e = it.next();
+            ImageView view = e.getKey();
+            if (view != null && key.equals(e.getValue())) {
+                view.setImageDrawable(new BitmapDrawable(mResources, bitmap));
+                it.remove();
+            }
+        }
+    }
+
+    private static String keyFor(ApplicationInfo info) {
+        return info.packageName;
+    }
+
+    private static String keyFor(ResolveInfo info) {
+        return info.activityInfo.packageName + "/" + info.activityInfo.name;
+    }
+
+    private Loader loaderFor(final ApplicationInfo info) {
+        return new Loader() {
+            @Override
+            public Drawable loadIcon() {
+                return info.loadIcon(mPm);
+            }
+        };
+    }
+
+    private Loader loaderFor(final ResolveInfo info) {
+        return new Loader() {
+            @Override
+            public Drawable loadIcon() {
+                return info.loadIcon(mPm);
+            }
+        };
+    }
+
+    /**
+     * Draws icon into a new size x size bitmap.
+     */
+    static Bitmap createIconBitmap(Drawable icon, int size) {
+        final Bitmap.Config config = icon.getOpacity() != PixelFormat.OPAQUE
+                ? Bitmap.Config.ARGB_8888 : Bitmap.Config.RGB_565;
+        final Bitmap bitmap = Bitmap.createBitmap(size, size, config);
+        final Canvas canvas = new Canvas(bitmap);
+        final Rect oldBounds = new Rect(icon.getBounds());
+        icon.setBounds(0, 0, size, size);
+        icon.draw(canvas);
+        icon.setBounds(oldBounds);
+        canvas.setBitmap(null);
+        return bitmap;
+    }
+
+    int getIconSize() {
+        return mIconSize;
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import com.android.settings.applications.ApplicationsState.AppEntry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Word-prefix index over the labels and package names of a list of app
+ * entries, used to filter the application list as the user types.
+ *
+ * <p>Every word of an entry's normalized label, its package name and each
+ * dot-separated part of the package name is a token.  A query matches an
+ * entry when each of its words is a prefix of one of the entry's tokens.
+ * When nothing matches that way, entries whose label or package name
+ * contains the query's characters in order are returned instead.
+ *
+ * <p>Typing usually only appends to the query, so each lookup narrows the
+ * previous result rather than walking the whole list again.
+ */
+final class AppLabelIndex {
+    private static final class Tokens {
+        final String label;
+        final String[] tokens;
+
+        Tokens(String label, String[] tokens) {
+            this.label = label;
+            this.tokens = tokens;
+        }
+    }
+
+    // All tokens, and the entries that have them.
+    private final TreeMap<String, ArrayList<AppEntry>> mTokens
+            = new TreeMap<String, ArrayList<AppEntry>>();
+    private final HashMap<AppEntry, Tokens> mEntries = new HashMap<AppEntry, Tokens>();
+
+    // The last lookup, to narrow down from when the query grows.
+    private List<AppEntry> mLastSource;
+    private String mLastQuery;
+    private ArrayList<AppEntry> mLastResult;
+    private boolean mLastFuzzy;
+
+    /**
+     * Brings the index in line with the given entries, only touching the
+     * ones that were added, removed or relabeled since the last call.
+     */
+    synchronized void update(List<AppEntry> entries) {
+        final HashSet<AppEntry> current = new HashSet<AppEntry>(entries);
+        final Iterator<Map.Entry<AppEntry, Tokens>> it = mEntries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<AppEntry, Tokens> e = it.next();
+            if (!current.contains(e.getKey()) || e.getValue().label != e.getKey().label) {
+                removeTokens(e.getKey(), e.getValue().tokens);
+                it.remove();
+            }
+        }
+        for (int i=0; i<entries.size(); i++) {
+            AppEntry entry = entries.get(i);
+            if (!mEntries.containsKey(entry)) {
+                Tokens tokens = new Tokens(entry.label, tokenize(entry));
+                mEntries.put(entry, tokens);
+                addTokens(entry, tokens.tokens);
+            }
+        }
+        mLastResult = null;
+    }
+
+    /**
+     * Returns the entries of source matching query, in the order of source.
+     */
+    synchronized ArrayList<AppEntry> filter(String query, ArrayList<AppEntry> source) {
+        final String q = ApplicationsState.normalize(query).trim();
+        if (q.length() == 0) {
+            return source;
+        }
+        final boolean narrowing = mLastResult != null && mLastSource == source
+                && q.startsWith(mLastQuery);
+
+        // Each query word must be a prefix of at least one token.
+        final String[] words = q.split("\\s+");
+        ArrayList<AppEntry> result = new ArrayList<AppEntry>();
+        boolean fuzzy = false;
+        if (narrowing && !mLastFuzzy) {
+            // Anything matching the longer query matched the shorter one,
+            // so only the last result needs checking, against its own
+            // tokens rather than the whole index.
+            for (int i=0; i<mLastResult.size(); i++) {
+                AppEntry entry = mLastResult.get(i);
+                if (hasPrefixes(mEntries.get(entry), words)) {
+                    result.add(entry);
+                }
+            }
+        } else {
+            HashSet<AppEntry> matches = null;
+            for (String word : words) {
+                HashSet<AppEntry> wordMatches = new HashSet<AppEntry>();
+                SortedMap<String, ArrayList<AppEntry>> range
+                        = mTokens.subMap(word, word + Character.MAX_VALUE);
+                for (ArrayList<AppEntry> owners : range.values()) {
+                    wordMatches.addAll(owners);
+                }
+                if (matches == null) {
+                    matches = wordMatches;
+                } else {
+                    matches.retainAll(wordMatches);
+                }
+            }
+            if (!matches.isEmpty()) {
+                for (int i=0; i<source.size(); i++) {
+                    AppEntry entry = source.get(i);
+                    if (matches.contains(entry)) {
+                        result.add(entry);
+                    }
+                }
+            }
+        }
+        if (result.isEmpty()) {
+            fuzzy = true;
+            final String chars = q.replace(" ", "");
+            final List<AppEntry> from = narrowing && mLastFuzzy ? mLastResult : source;
+            for (int i=0; i<from.size(); i++) {
+                AppEntry entry = from.get(i);
+                if (isSubsequence(chars, entry.getNormalizedLabel())
+                        || isSubsequence(chars, entry.info.packageName.toLowerCase())) {
+                    result.add(entry);
+                }
+            }
+        }
+
+        mLastSource = source;
+        mLastQuery = q;
+        mLastResult = result;
+        mLastFuzzy = fuzzy;
+        return result;
+    }
+
+    private static boolean hasPrefixes(Tokens entryTokens, String[] words) {
+        if (entryTokens == null) {
+            return false;
+        }
+        for (String word : words) {
+            boolean found = false;
+            for (String token : entryTokens.tokens) {
+                if (token.startsWith(word)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void addTokens(AppEntry entry, String[] tokens) {
+        for (String token : tokens) {
+            ArrayList<AppEntry> owners = mTokens.get(token);
+            if (owners == null) {
+                owners = new ArrayList<AppEntry>(1);
+                mTokens.put(token, owners);
+            }
+            if (!owners.contains(entry)) {
+                owners.add(entry);
+            }
+        }
+    }
+
+    private void removeTokens(AppEntry entry, String[] tokens) {
+        for (String token : tokens) {
+            ArrayList<AppEntry> owners = mTokens.get(token);
+            if (owners != null) {
+                owners.remove(entry);
+                if (owners.isEmpty()) {
+                    mTokens.remove(token);
+                }
+            }
+        }
+    }
+
+    private static String[] tokenize(AppEntry entry) {
+        final ArrayList<String> tokens = new ArrayList<String>();
+        for (String word : entry.getNormalizedLabel().split("\\s+")) {
+            if (word.length() > 0) {
+                tokens.add(word);
+            }
+        }
+        final String pkgName = entry.info.packageName.toLowerCase();
+        tokens.add(pkgName);
+        for (String part : pkgName.split("\\.")) {
+            if (part.length() > 0) {
+                tokens.add(part);
+            }
+        }
+        return tokens.toArray(new String[tokens.size()]);
+    }
+
+    private static boolean isSubsequence(String chars, String str) {
+        int pos = 0;
+        for (int i=0; i<chars.length(); i++) {
+            pos = str.indexOf(chars.charAt(i), pos);
+            if (pos < 0) {
+                return false;
+            }
+            pos++;
+        }
+        return true;
+    }
+}
@@ -21,15 +21,19 @@ import android.os.SystemClock;
 import android.os.UserHandle;
 import android.text.format.Formatter;
 import android.util.Log;
+import android.widget.ImageView;
 
 import java.io.File;
+import java.text.CollationKey;
 import java.text.Collator;
 import java.text.Normalizer;
 import java.text.Normalizer.Form;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.regex.Pattern;
 
@@ -46,8 +50,7 @@ public class ApplicationsState {
         public void onRunningStateChanged(boolean running);
         public void onPackageListChanged();
         public void onRebuildComplete(ArrayList<AppEntry> apps);
-        public void onPackageIconChanged();
-        public void onPackageSizeChanged(String packageName);
+        public void onPackageSizesChanged(ArrayList<String> packageNames);
         public void onAllSizesComputed();
     }
 
@@ -59,9 +62,29 @@ public class ApplicationsState {
     static final int SIZE_UNKNOWN = -1;
     static final int SIZE_INVALID = -2;
 
+    // Maximum number of getPackageSizeInfo() calls we keep outstanding.
+    static final int MAX_SIZE_REQUESTS = 4;
+    // A size request that hasn't come back after this long is retried.
+    static final long SIZE_REQUEST_TIMEOUT = 20*1000;
+    // Size changes are reported to the UI at most this often.
+    static final long SIZE_CHANGED_BATCH_DELAY = 50;
+    // Past this many changed packages a session re-sorts from scratch rather
+    // than patching its previous result.
+    static final int MAX_INCREMENTAL_CHANGES = 32;
+
     static final Pattern REMOVE_DIACRITICALS_PATTERN
             = Pattern.compile("\\p{InCombiningDiacriticalMarks}+");
 
+    // Collator behind AppEntry.labelKey; replaced when the locale changes.
+    static volatile Collator sCollator = Collator.getInstance();
+
+    static CollationKey getCollationKey(String str) {
+        final Collator collator = sCollator;
+        synchronized (collator) {
+            return collator.getCollationKey(str);
+        }
+    }
+
     public static String normalize(String str) {
         String tmp = Normalizer.normalize(str, Form.NFD);
         return REMOVE_DIACRITICALS_PATTERN.matcher(tmp)
@@ -89,7 +112,13 @@ public class ApplicationsState {
     public static class AppEntry extends SizeInfo {
         final File apkFile;
         final long id;
+        // Modification time of apkFile when this entry was created; used to
+        // match the entry against the on-disk snapshot.
+        final long stamp;
         String label;
+        // Collation key of label, so sorting never has to go through the
+        // collator itself.
+        CollationKey labelKey;
         long size;
         long internalSize;
         long externalSize;
@@ -106,22 +135,59 @@ public class ApplicationsState {
 
         // Need to synchronize on 'this' for the following.
         ApplicationInfo info;
-        Drawable icon;
         String sizeStr;
         String internalSizeStr;
         String externalSizeStr;
         boolean sizeStale;
         long sizeLoadStart;
 
+        // Whether this entry is sitting in mSizeQueue.  Synchronize on mEntriesMap.
+        boolean sizeQueued;
+
         String normalizedLabel;
 
-        AppEntry(Context context, ApplicationInfo info, long id) {
+        // Snapshot record for this entry's apk: the one it was restored
+        // from, or the one last written for it.
+        volatile AppEntrySnapshot.Record snapshot;
+
+        AppEntry(Context context, ApplicationInfo info, long id, AppEntrySnapshot snapshot) {
             apkFile = new File(info.sourceDir);
             this.id = id;
             this.info = info;
+            this.stamp = apkFile.lastModified();
             this.size = SIZE_UNKNOWN;
             this.sizeStale = true;
-            ensureLabel(context);
+            AppEntrySnapshot.Record rec = snapshot != null
+                    ? snapshot.get(info.packageName, this.stamp) : null;
+            if (rec != null) {
+                restoreFromSnapshot(context, rec);
+            } else {
+                ensureLabel(context);
+            }
+        }
+
+        private void restoreFromSnapshot(Context context, AppEntrySnapshot.Record rec) {
+            this.snapshot = rec;
+            this.mounted = true;
+            this.label = rec.label;
+            this.labelKey = getCollationKey(rec.label);
+            this.normalizedLabel = rec.normalizedLabel;
+            if (rec.size != SIZE_UNKNOWN) {
+                // Show the last known sizes right away; they stay stale so
+                // the size pass will still refresh them.
+                this.size = rec.size;
+                this.internalSize = rec.internalSize;
+                this.externalSize = rec.externalSize;
+                this.cacheSize = rec.cacheSize;
+                this.codeSize = rec.codeSize;
+                this.dataSize = rec.dataSize;
+                this.externalCodeSize = rec.externalCodeSize;
+                this.externalDataSize = rec.externalDataSize;
+                this.externalCacheSize = rec.externalCacheSize;
+                this.sizeStr = getSizeStr(context, this.size);
+                this.internalSizeStr = getSizeStr(context, this.internalSize);
+                this.externalSizeStr = getSizeStr(context, this.externalSize);
+            }
         }
         
         void ensureLabel(Context context) {
@@ -131,37 +197,34 @@ public class ApplicationsState {
                     this.label = info.packageName;
                 } else {
                     this.mounted = true;
-                    CharSequence label = info.loadLabel(context.getPackageManager());
-                    this.label = label != null ? label.toString() : info.packageName;
+                    this.label = UidLabelResolver.getInstance(context).getLabel(info).toString();
                 }
+                this.labelKey = getCollationKey(this.label);
+                this.normalizedLabel = null;
             }
         }
         
-        boolean ensureIconLocked(Context context, PackageManager pm) {
-            if (this.icon == null) {
-                if (this.apkFile.exists()) {
-                    this.icon = this.info.loadIcon(pm);
-                    return true;
-                } else {
-                    this.mounted = false;
-                    this.icon = context.getResources().getDrawable(
-                            com.android.internal.R.drawable.sym_app_on_sd_unavailable_icon);
-                }
-            } else if (!this.mounted) {
-                // If the app wasn't mounted but is now mounted, reload
-                // its icon.
-                if (this.apkFile.exists()) {
-                    this.mounted = true;
-                    this.icon = this.info.loadIcon(pm);
-                    return true;
+        // Loads the full icon for AppIconCache, preferring the one saved in
+        // the snapshot.
+        AppIconCache.Loader newIconLoader(final Context context) {
+            final AppEntrySnapshot.Record rec = this.snapshot;
+            final ApplicationInfo info = this.info;
+            return new AppIconCache.Loader() {
+                @Override
+                public Drawable loadIcon() {
+                    if (rec != null && rec.hasIcon()) {
+                        Drawable icon = rec.loadIcon(context.getResources());
+                        if (icon != null) {
+                            return icon;
+                        }
+                    }
+                    return info.loadIcon(context.getPackageManager());
                 }
-            }
-            return false;
+            };
         }
     }
 
     public static final Comparator<AppEntry> ALPHA_COMPARATOR = new Comparator<AppEntry>() {
-        private final Collator sCollator = Collator.getInstance();
         @Override
         public int compare(AppEntry object1, AppEntry object2) {
             final boolean normal1 = object1.info.enabled
@@ -171,40 +234,37 @@ public class ApplicationsState {
             if (normal1 != normal2) {
                 return normal1 ? -1 : 1;
             }
-            return sCollator.compare(object1.label, object2.label);
+            return object1.labelKey.compareTo(object2.labelKey);
         }
     };
 
     public static final Comparator<AppEntry> SIZE_COMPARATOR
             = new Comparator<AppEntry>() {
-        private final Collator sCollator = Collator.getInstance();
         @Override
         public int compare(AppEntry object1, AppEntry object2) {
             if (object1.size < object2.size) return 1;
             if (object1.size > object2.size) return -1;
-            return sCollator.compare(object1.label, object2.label);
+            return object1.labelKey.compareTo(object2.labelKey);
         }
     };
 
     public static final Comparator<AppEntry> INTERNAL_SIZE_COMPARATOR
             = new Comparator<AppEntry>() {
-        private final Collator sCollator = Collator.getInstance();
         @Override
         public int compare(AppEntry object1, AppEntry object2) {
             if (object1.internalSize < object2.internalSize) return 1;
             if (object1.internalSize > object2.internalSize) return -1;
-            return sCollator.compare(object1.label, object2.label);
+            return object1.labelKey.compareTo(object2.labelKey);
         }
     };
 
     public static final Comparator<AppEntry> EXTERNAL_SIZE_COMPARATOR
             = new Comparator<AppEntry>() {
-        private final Collator sCollator = Collator.getInstance();
         @Override
         public int compare(AppEntry object1, AppEntry object2) {
             if (object1.externalSize < object2.externalSize) return 1;
             if (object1.externalSize > object2.externalSize) return -1;
-            return sCollator.compare(object1.label, object2.label);
+            return object1.labelKey.compareTo(object2.labelKey);
         }
     };
 
@@ -242,6 +302,10 @@ public class ApplicationsState {
     final int mRetrieveFlags;
     PackageIntentReceiver mPackageIntentReceiver;
 
+    final AppEntrySnapshot mSnapshot;
+    final AppIconCache mIconCache;
+    final UidLabelResolver mUidResolver;
+
     boolean mResumed;
 
     // Information about all applications.  Synchronize on mEntriesMap
@@ -253,8 +317,19 @@ public class ApplicationsState {
     final ArrayList<AppEntry> mAppEntries = new ArrayList<AppEntry>();
     List<ApplicationInfo> mApplications = new ArrayList<ApplicationInfo>();
     long mCurId = 1;
-    String mCurComputingSizePkg;
     boolean mSessionsChanged;
+    // Set when mAppEntries no longer matches what was last written to mSnapshot.
+    boolean mSnapshotDirty;
+
+    // Entries whose size needs to be (re)computed, in request order.  Synchronize
+    // on mEntriesMap.
+    final ArrayDeque<AppEntry> mSizeQueue = new ArrayDeque<AppEntry>();
+    // Entries with a getPackageSizeInfo() call outstanding, at most
+    // MAX_SIZE_REQUESTS.  Synchronize on mEntriesMap.
+    final ArrayList<AppEntry> mSizeInFlight = new ArrayList<AppEntry>();
+    // Packages whose size changed since the last MSG_PACKAGE_SIZE_CHANGED was
+    // dispatched.  Synchronize on mEntriesMap.
+    final ArrayList<String> mSizeChangedPackages = new ArrayList<String>();
 
     // Temporary for dispatching session callbacks.  Only touched by main thread.
     final ArrayList<Session> mActiveSessions = new ArrayList<Session>();
@@ -334,7 +409,6 @@ public class ApplicationsState {
     class MainHandler extends Handler {
         static final int MSG_REBUILD_COMPLETE = 1;
         static final int MSG_PACKAGE_LIST_CHANGED = 2;
-        static final int MSG_PACKAGE_ICON_CHANGED = 3;
         static final int MSG_PACKAGE_SIZE_CHANGED = 4;
         static final int MSG_ALL_SIZES_COMPUTED = 5;
         static final int MSG_RUNNING_STATE_CHANGED = 6;
@@ -354,15 +428,17 @@ public class ApplicationsState {
                         mActiveSessions.get(i).mCallbacks.onPackageListChanged();
                     }
                 } break;
-                case MSG_PACKAGE_ICON_CHANGED: {
-                    for (int i=0; i<mActiveSessions.size(); i++) {
-                        mActiveSessions.get(i).mCallbacks.onPackageIconChanged();
-                    }
-                } break;
                 case MSG_PACKAGE_SIZE_CHANGED: {
+                    ArrayList<String> packageNames;
+                    synchronized (mEntriesMap) {
+                        if (mSizeChangedPackages.size() == 0) {
+                            break;
+                        }
+                        packageNames = new ArrayList<String>(mSizeChangedPackages);
+                        mSizeChangedPackages.clear();
+                    }
                     for (int i=0; i<mActiveSessions.size(); i++) {
-                        mActiveSessions.get(i).mCallbacks.onPackageSizeChanged(
-                                (String)msg.obj);
+                        mActiveSessions.get(i).mCallbacks.onPackageSizesChanged(packageNames);
                     }
                 } break;
                 case MSG_ALL_SIZES_COMPUTED: {
@@ -403,6 +479,13 @@ public class ApplicationsState {
                 Process.THREAD_PRIORITY_BACKGROUND);
         mThread.start();
         mBackgroundHandler = new BackgroundHandler(mThread.getLooper());
+        mSnapshotThread = new HandlerThread("ApplicationsState.Snapshot",
+                Process.THREAD_PRIORITY_BACKGROUND);
+        mSnapshotThread.start();
+        mSnapshotHandler = new SnapshotHandler(mSnapshotThread.getLooper());
+        mSnapshot = new AppEntrySnapshot(app.getCacheDir());
+        mIconCache = AppIconCache.getInstance(app);
+        mUidResolver = UidLabelResolver.getInstance(app);
 
         // Only the owner can see all apps.
         if (UserHandle.myUserId() == 0) {
@@ -447,6 +530,18 @@ public class ApplicationsState {
         ArrayList<AppEntry> mRebuildResult;
         ArrayList<AppEntry> mLastAppList;
 
+        // The filtered and sorted list from the last rebuild, and what it was
+        // built with.  Only touched by the background thread.
+        AppFilter mCachedFilter;
+        Comparator<AppEntry> mCachedComparator;
+        ArrayList<AppEntry> mCachedList;
+        final HashMap<String, AppEntry> mCachedEntries = new HashMap<String, AppEntry>();
+
+        // What happened since mCachedList was built.  Synchronize on mEntriesMap.
+        boolean mCacheInvalid = true;
+        final HashSet<String> mChangedPackages = new HashSet<String>();
+        final HashSet<String> mResizedPackages = new HashSet<String>();
+
         Session(Callbacks callbacks) {
             mCallbacks = callbacks;
         }
@@ -530,6 +625,39 @@ public class ApplicationsState {
 
             Process.setThreadPriority(Process.THREAD_PRIORITY_FOREGROUND);
 
+            ArrayList<AppEntry> sortedApps = null;
+            if (mCachedList != null && filter == mCachedFilter
+                    && comparator == mCachedComparator) {
+                sortedApps = updateCachedList(filter, comparator);
+            }
+            if (sortedApps == null) {
+                sortedApps = buildCachedList(filter, comparator);
+            }
+
+            // The cached list keeps being patched in place, so hand out a copy.
+            ArrayList<AppEntry> filteredApps = new ArrayList<AppEntry>(sortedApps);
+
+            synchronized (mRebuildSync) {
+                if (!mRebuildRequested) {
+                    mLastAppList = filteredApps;
+                    if (!mRebuildAsync) {
+                        mRebuildResult = filteredApps;
+                        mRebuildSync.notifyAll();
+                    } else {
+                        if (!mMainHandler.hasMessages(MainHandler.MSG_REBUILD_COMPLETE, this)) {
+                            Message msg = mMainHandler.obtainMessage(
+                                    MainHandler.MSG_REBUILD_COMPLETE, this);
+                            mMainHandler.sendMessage(msg);
+                        }
+                    }
+                }
+            }
+
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        }
+
+        private ArrayList<AppEntry> buildCachedList(AppFilter filter,
+                Comparator<AppEntry> comparator) {
             if (filter != null) {
                 filter.init();
             }
@@ -537,9 +665,13 @@ public class ApplicationsState {
             List<ApplicationInfo> apps;
             synchronized (mEntriesMap) {
                 apps = new ArrayList<ApplicationInfo>(mApplications);
+                mCacheInvalid = false;
+                mChangedPackages.clear();
+                mResizedPackages.clear();
             }
 
             ArrayList<AppEntry> filteredApps = new ArrayList<AppEntry>();
+            mCachedEntries.clear();
             if (DEBUG) Log.i(TAG, "Rebuilding...");
             for (int i=0; i<apps.size(); i++) {
                 ApplicationInfo info = apps.get(i);
@@ -550,6 +682,7 @@ public class ApplicationsState {
                         entry.ensureLabel(mContext);
                         if (DEBUG) Log.i(TAG, "Using " + info.packageName + ": " + entry);
                         filteredApps.add(entry);
+                        mCachedEntries.put(info.packageName, entry);
                         if (DEBUG_LOCKING) Log.v(TAG, "rebuild releasing lock");
                     }
                 }
@@ -557,23 +690,75 @@ public class ApplicationsState {
 
             Collections.sort(filteredApps, comparator);
 
-            synchronized (mRebuildSync) {
-                if (!mRebuildRequested) {
-                    mLastAppList = filteredApps;
-                    if (!mRebuildAsync) {
-                        mRebuildResult = filteredApps;
-                        mRebuildSync.notifyAll();
-                    } else {
-                        if (!mMainHandler.hasMessages(MainHandler.MSG_REBUILD_COMPLETE, this)) {
-                            Message msg = mMainHandler.obtainMessage(
-                                    MainHandler.MSG_REBUILD_COMPLETE, this);
-                            mMainHandler.sendMessage(msg);
+            mCachedFilter = filter;
+            mCachedComparator = comparator;
+            mCachedList = filteredApps;
+            return filteredApps;
+        }
+
+        /**
+         * Patches mCachedList with the packages that changed since it was
+         * built, using binary search to place each one.  Returns null if a
+         * full rebuild is needed instead.
+         */
+        private ArrayList<AppEntry> updateCachedList(AppFilter filter,
+                Comparator<AppEntry> comparator) {
+            ArrayList<String> changed;
+            synchronized (mEntriesMap) {
+                if (mCacheInvalid) {
+                    return null;
+                }
+                changed = new ArrayList<String>(mChangedPackages);
+                if (comparator != ALPHA_COMPARATOR) {
+                    // Only the alphabetical order is independent of sizes.
+                    for (String pkgName : mResizedPackages) {
+                        if (!mChangedPackages.contains(pkgName)) {
+                            changed.add(pkgName);
                         }
                     }
                 }
+                if (changed.size() > MAX_INCREMENTAL_CHANGES) {
+                    return null;
+                }
+                mChangedPackages.clear();
+                mResizedPackages.clear();
             }
 
-            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            if (DEBUG) Log.i(TAG, "Updating " + changed.size() + " entries...");
+            if (changed.size() > 0 && filter != null) {
+                filter.init();
+            }
+            final ArrayList<AppEntry> list = mCachedList;
+            for (int i=0; i<changed.size(); i++) {
+                final String pkgName = changed.get(i);
+                AppEntry oldEntry = mCachedEntries.remove(pkgName);
+                if (oldEntry != null) {
+                    // Its sort key may have already changed, so we can't
+                    // binary search for it.
+                    list.remove(oldEntry);
+                }
+                ApplicationInfo info;
+                AppEntry entry;
+                synchronized (mEntriesMap) {
+                    int idx = indexOfApplicationInfoLocked(pkgName);
+                    if (idx < 0) {
+                        continue;
+                    }
+                    info = mApplications.get(idx);
+                    if (filter != null && !filter.filterApp(info)) {
+                        continue;
+                    }
+                    entry = getEntryLocked(info);
+                    entry.ensureLabel(mContext);
+                }
+                int pos = Collections.binarySearch(list, entry, comparator);
+                if (pos < 0) {
+                    pos = -pos - 1;
+                }
+                list.add(pos, entry);
+                mCachedEntries.put(pkgName, entry);
+            }
+            return list;
         }
 
         public void release() {
@@ -606,14 +791,30 @@ public class ApplicationsState {
             mApplications = new ArrayList<ApplicationInfo>();
         }
 
+        // The application list was just reloaded, so nothing a session
+        // built before can be trusted.
+        for (int i=0; i<mSessions.size(); i++) {
+            mSessions.get(i).mCacheInvalid = true;
+        }
+
         if (mInterestingConfigChanges.applyNewConfig(mContext.getResources())) {
             // If an interesting part of the configuration has changed, we
-            // should completely reload the app entries.
+            // should completely reload the app entries.  The snapshot drops
+            // itself if it was written for a different configuration.
+            sCollator = Collator.getInstance();
+            // Labels are reloaded below, possibly before the locale
+            // broadcast reaches the resolver; don't let them come from its
+            // cache of the old locale.
+            mUidResolver.invalidateAll();
             mEntriesMap.clear();
             mAppEntries.clear();
+            mSizeQueue.clear();
+            mSnapshot.load(mContext.getResources());
         } else {
             for (int i=0; i<mAppEntries.size(); i++) {
-                mAppEntries.get(i).sizeStale = true;
+                AppEntry entry = mAppEntries.get(i);
+                entry.sizeStale = true;
+                queueSizeLocked(entry);
             }
         }
 
@@ -632,7 +833,6 @@ public class ApplicationsState {
                 entry.info = info;
             }
         }
-        mCurComputingSizePkg = null;
         if (!mBackgroundHandler.hasMessages(BackgroundHandler.MSG_LOAD_ENTRIES)) {
             mBackgroundHandler.sendEmptyMessage(BackgroundHandler.MSG_LOAD_ENTRIES);
         }
@@ -672,13 +872,30 @@ public class ApplicationsState {
         }
     }
     
-    void ensureIcon(AppEntry entry) {
-        if (entry.icon != null) {
-            return;
+    /**
+     * Returns the list-sized icon of the entry, loading it on the calling
+     * thread if it isn't cached.
+     */
+    Drawable getIcon(AppEntry entry) {
+        if (!entry.apkFile.exists()) {
+            return mContext.getResources().getDrawable(
+                    com.android.internal.R.drawable.sym_app_on_sd_unavailable_icon);
         }
-        synchronized (entry) {
-            entry.ensureIconLocked(mContext, mPm);
+        return mIconCache.getIcon(entry.info.packageName, entry.newIconLoader(mContext));
+    }
+
+    /**
+     * Shows the icon of the entry in view, loading it in the background if
+     * it isn't cached.  Must be called from the main thread.
+     */
+    void bindIcon(ImageView view, AppEntry entry) {
+        if (!entry.mounted) {
+            mIconCache.unbindIcon(view);
+            view.setImageDrawable(mContext.getResources().getDrawable(
+                    com.android.internal.R.drawable.sym_app_on_sd_unavailable_icon));
+            return;
         }
+        mIconCache.bindIcon(view, entry.info.packageName, entry.newIconLoader(mContext));
     }
     
     void requestSize(String packageName) {
@@ -692,6 +909,13 @@ public class ApplicationsState {
         }
     }
 
+    void queueSizeLocked(AppEntry entry) {
+        if (!entry.sizeQueued) {
+            entry.sizeQueued = true;
+            mSizeQueue.add(entry);
+        }
+    }
+
     long sumCacheSizes() {
         long sum = 0;
         if (DEBUG_LOCKING) Log.v(TAG, "sumCacheSizes about to acquire lock...");
@@ -705,6 +929,12 @@ public class ApplicationsState {
         return sum;
     }
     
+    void markPackageChangedLocked(String pkgName) {
+        for (int i=0; i<mSessions.size(); i++) {
+            mSessions.get(i).mChangedPackages.add(pkgName);
+        }
+    }
+
     int indexOfApplicationInfoLocked(String pkgName) {
         for (int i=mApplications.size()-1; i>=0; i--) {
             if (mApplications.get(i).packageName.equals(pkgName)) {
@@ -733,6 +963,7 @@ public class ApplicationsState {
                 }
                 ApplicationInfo info = mPm.getApplicationInfo(pkgName, mRetrieveFlags);
                 mApplications.add(info);
+                markPackageChangedLocked(pkgName);
                 if (!mBackgroundHandler.hasMessages(BackgroundHandler.MSG_LOAD_ENTRIES)) {
                     mBackgroundHandler.sendEmptyMessage(BackgroundHandler.MSG_LOAD_ENTRIES);
                 }
@@ -756,8 +987,13 @@ public class ApplicationsState {
                 if (entry != null) {
                     mEntriesMap.remove(pkgName);
                     mAppEntries.remove(entry);
+                    mSnapshotDirty = true;
                 }
+                // Whatever the package manager reports next must be reloaded.
+                mSnapshot.invalidate(pkgName);
+                mUidResolver.invalidatePackage(pkgName);
                 mApplications.remove(idx);
+                markPackageChangedLocked(pkgName);
                 if (!mMainHandler.hasMessages(MainHandler.MSG_PACKAGE_LIST_CHANGED)) {
                     mMainHandler.sendEmptyMessage(MainHandler.MSG_PACKAGE_LIST_CHANGED);
                 }
@@ -776,9 +1012,13 @@ public class ApplicationsState {
         if (DEBUG) Log.i(TAG, "Looking up entry of pkg " + info.packageName + ": " + entry);
         if (entry == null) {
             if (DEBUG) Log.i(TAG, "Creating AppEntry for " + info.packageName);
-            entry = new AppEntry(mContext, info, mCurId++);
+            entry = new AppEntry(mContext, info, mCurId++, mSnapshot);
+            if (entry.snapshot == null) {
+                mSnapshotDirty = true;
+            }
             mEntriesMap.put(info.packageName, entry);
             mAppEntries.add(entry);
+            queueSizeLocked(entry);
         } else if (entry.info != info) {
             entry.info = info;
         }
@@ -806,8 +1046,12 @@ public class ApplicationsState {
     }
 
     private String getSizeStr(long size) {
+        return getSizeStr(mContext, size);
+    }
+
+    static String getSizeStr(Context context, long size) {
         if (size >= 0) {
-            return Formatter.formatFileSize(mContext, size);
+            return Formatter.formatFileSize(context, size);
         }
         return null;
     }
@@ -817,7 +1061,6 @@ public class ApplicationsState {
     class BackgroundHandler extends Handler {
         static final int MSG_REBUILD_LIST = 1;
         static final int MSG_LOAD_ENTRIES = 2;
-        static final int MSG_LOAD_ICONS = 3;
         static final int MSG_LOAD_SIZES = 4;
 
         boolean mRunning;
@@ -857,21 +1100,31 @@ public class ApplicationsState {
                                 entry.internalSizeStr = getSizeStr(entry.internalSize);
                                 entry.externalSize = getTotalExternalSize(stats);
                                 entry.externalSizeStr = getSizeStr(entry.externalSize);
+                                mSnapshotDirty = true;
                                 if (DEBUG) Log.i(TAG, "Set size of " + entry.label + " " + entry
                                         + ": " + entry.sizeStr);
                                 sizeChanged = true;
                             }
                         }
                         if (sizeChanged) {
-                            Message msg = mMainHandler.obtainMessage(
-                                    MainHandler.MSG_PACKAGE_SIZE_CHANGED, stats.packageName);
-                            mMainHandler.sendMessage(msg);
+                            for (int i=0; i<mSessions.size(); i++) {
+                                mSessions.get(i).mResizedPackages.add(stats.packageName);
+                            }
+                            mSizeChangedPackages.add(stats.packageName);
+                            if (!mMainHandler.hasMessages(MainHandler.MSG_PACKAGE_SIZE_CHANGED)) {
+                                mMainHandler.sendEmptyMessageDelayed(
+                                        MainHandler.MSG_PACKAGE_SIZE_CHANGED,
+                                        SIZE_CHANGED_BATCH_DELAY);
+                            }
                         }
                     }
-                    if (mCurComputingSizePkg == null
-                            || mCurComputingSizePkg.equals(stats.packageName)) {
-                        mCurComputingSizePkg = null;
-                        sendEmptyMessage(MSG_LOAD_SIZES);
+                    for (int i=mSizeInFlight.size()-1; i>=0; i--) {
+                        if (mSizeInFlight.get(i).info.packageName.equals(stats.packageName)) {
+                            // A slot just freed up; go fill it.
+                            mSizeInFlight.remove(i);
+                            sendEmptyMessage(MSG_LOAD_SIZES);
+                            break;
+                        }
                     }
                     if (DEBUG_LOCKING) Log.v(TAG, "onGetStatsCompleted releasing lock");
                 }
@@ -924,69 +1177,65 @@ public class ApplicationsState {
                     if (numDone >= 6) {
                         sendEmptyMessage(MSG_LOAD_ENTRIES);
                     } else {
-                        sendEmptyMessage(MSG_LOAD_ICONS);
-                    }
-                } break;
-                case MSG_LOAD_ICONS: {
-                    int numDone = 0;
-                    synchronized (mEntriesMap) {
-                        if (DEBUG_LOCKING) Log.v(TAG, "MSG_LOAD_ICONS acquired lock");
-                        for (int i=0; i<mAppEntries.size() && numDone<2; i++) {
-                            AppEntry entry = mAppEntries.get(i);
-                            if (entry.icon == null || !entry.mounted) {
-                                synchronized (entry) {
-                                    if (entry.ensureIconLocked(mContext, mPm)) {
-                                        if (!mRunning) {
-                                            mRunning = true;
-                                            Message m = mMainHandler.obtainMessage(
-                                                    MainHandler.MSG_RUNNING_STATE_CHANGED, 1);
-                                            mMainHandler.sendMessage(m);
-                                        }
-                                        numDone++;
-                                    }
-                                }
-                            }
-                        }
-                        if (DEBUG_LOCKING) Log.v(TAG, "MSG_LOAD_ICONS releasing lock");
-                    }
-                    if (numDone > 0) {
-                        if (!mMainHandler.hasMessages(MainHandler.MSG_PACKAGE_ICON_CHANGED)) {
-                            mMainHandler.sendEmptyMessage(MainHandler.MSG_PACKAGE_ICON_CHANGED);
-                        }
-                    }
-                    if (numDone >= 2) {
-                        sendEmptyMessage(MSG_LOAD_ICONS);
-                    } else {
+                        // Icons are loaded by AppIconCache as rows are bound.
                         sendEmptyMessage(MSG_LOAD_SIZES);
                     }
                 } break;
                 case MSG_LOAD_SIZES: {
                     synchronized (mEntriesMap) {
                         if (DEBUG_LOCKING) Log.v(TAG, "MSG_LOAD_SIZES acquired lock");
-                        if (mCurComputingSizePkg != null) {
-                            if (DEBUG_LOCKING) Log.v(TAG, "MSG_LOAD_SIZES releasing: currently computing");
-                            return;
+                        long now = SystemClock.uptimeMillis();
+                        for (int i=mSizeInFlight.size()-1; i>=0; i--) {
+                            AppEntry entry = mSizeInFlight.get(i);
+                            if (entry.sizeLoadStart < (now-SIZE_REQUEST_TIMEOUT)) {
+                                // Never heard back; give the slot to someone
+                                // else and try this one again later.
+                                mSizeInFlight.remove(i);
+                                queueSizeLocked(entry);
+                            }
                         }
 
-                        long now = SystemClock.uptimeMillis();
-                        for (int i=0; i<mAppEntries.size(); i++) {
-                            AppEntry entry = mAppEntries.get(i);
-                            if (entry.size == SIZE_UNKNOWN || entry.sizeStale) {
-                                if (entry.sizeLoadStart == 0 ||
-                                        (entry.sizeLoadStart < (now-20*1000))) {
-                                    if (!mRunning) {
-                                        mRunning = true;
-                                        Message m = mMainHandler.obtainMessage(
-                                                MainHandler.MSG_RUNNING_STATE_CHANGED, 1);
-                                        mMainHandler.sendMessage(m);
-                                    }
-                                    entry.sizeLoadStart = now;
-                                    mCurComputingSizePkg = entry.info.packageName;
-                                    mPm.getPackageSizeInfo(mCurComputingSizePkg, mStatsObserver);
-                                }
-                                if (DEBUG_LOCKING) Log.v(TAG, "MSG_LOAD_SIZES releasing: now computing");
-                                return;
+                        while (mSizeInFlight.size() < MAX_SIZE_REQUESTS) {
+                            AppEntry entry = mSizeQueue.poll();
+                            if (entry == null) {
+                                break;
+                            }
+                            entry.sizeQueued = false;
+                            if (mEntriesMap.get(entry.info.packageName) != entry) {
+                                // Removed since it was queued.
+                                continue;
+                            }
+                            if (entry.size != SIZE_UNKNOWN && !entry.sizeStale) {
+                                // Already refreshed, e.g. through requestSize().
+                                continue;
+                            }
+                            if (!mRunning) {
+                                mRunning = true;
+                                Message m = mMainHandler.obtainMessage(
+                                        MainHandler.MSG_RUNNING_STATE_CHANGED, 1);
+                                mMainHandler.sendMessage(m);
+                            }
+                            entry.sizeLoadStart = now;
+                            mSizeInFlight.add(entry);
+                            mPm.getPackageSizeInfo(entry.info.packageName, mStatsObserver);
+                        }
+
+                        if (mSizeInFlight.size() > 0) {
+                            // Results will trigger the next round; this is only
+                            // here to catch requests that time out.
+                            if (!hasMessages(MSG_LOAD_SIZES)) {
+                                sendEmptyMessageDelayed(MSG_LOAD_SIZES, SIZE_REQUEST_TIMEOUT);
                             }
+                            if (DEBUG_LOCKING) Log.v(TAG, "MSG_LOAD_SIZES releasing: now computing");
+                            return;
+                        }
+                        // Nothing left to time out; don't let the pending
+                        // check come back later and report completion again.
+                        removeMessages(MSG_LOAD_SIZES);
+                        if (mMainHandler.hasMessages(MainHandler.MSG_PACKAGE_SIZE_CHANGED)) {
+                            // Deliver the last batch before saying we are done.
+                            mMainHandler.removeMessages(MainHandler.MSG_PACKAGE_SIZE_CHANGED);
+                            mMainHandler.sendEmptyMessage(MainHandler.MSG_PACKAGE_SIZE_CHANGED);
                         }
                         if (!mMainHandler.hasMessages(MainHandler.MSG_ALL_SIZES_COMPUTED)) {
                             mMainHandler.sendEmptyMessage(MainHandler.MSG_ALL_SIZES_COMPUTED);
@@ -995,6 +1244,10 @@ public class ApplicationsState {
                                     MainHandler.MSG_RUNNING_STATE_CHANGED, 0);
                             mMainHandler.sendMessage(m);
                         }
+                        if (mSnapshotDirty && !mSnapshotHandler.hasMessages(
+                                SnapshotHandler.MSG_WRITE_SNAPSHOT)) {
+                            mSnapshotHandler.sendEmptyMessage(SnapshotHandler.MSG_WRITE_SNAPSHOT);
+                        }
                         if (DEBUG_LOCKING) Log.v(TAG, "MSG_LOAD_SIZES releasing lock");
                     }
                 } break;
@@ -1002,4 +1255,39 @@ public class ApplicationsState {
         }
 
     }
+
+    // Writing the snapshot loads and encodes icons; keep that from holding
+    // up list rebuilds and size requests on the background thread.
+    final HandlerThread mSnapshotThread;
+    final SnapshotHandler mSnapshotHandler;
+    class SnapshotHandler extends Handler {
+        static final int MSG_WRITE_SNAPSHOT = 1;
+
+        SnapshotHandler(Looper looper) {
+            super(looper);
+        }
+
+        @Override
+        public void handleMessage(Message msg) {
+            switch (msg.what) {
+                case MSG_WRITE_SNAPSHOT: {
+                    ArrayList<AppEntry> entries;
+                    synchronized (mEntriesMap) {
+                        if (!mSnapshotDirty) {
+                            return;
+                        }
+                        mSnapshotDirty = false;
+                        entries = new ArrayList<AppEntry>(mAppEntries.size());
+                        for (int i=0; i<mAppEntries.size(); i++) {
+                            AppEntry entry = mAppEntries.get(i);
+                            if (entry.mounted && entry.label != null) {
+                                entries.add(entry);
+                            }
+                        }
+                    }
+                    mSnapshot.write(mContext, entries, mIconCache);
+                } break;
+            }
+        }
+    }
 }
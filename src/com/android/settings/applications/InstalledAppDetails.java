@@ -538,8 +538,7 @@ public class InstalledAppDetails extends Fragment
     private void setAppLabelAndIcon(PackageInfo pkgInfo) {
         View appSnippet = mRootView.findViewById(R.id.app_snippet);
         ImageView icon = (ImageView) appSnippet.findViewById(R.id.app_icon);
-        mState.ensureIcon(mAppEntry);
-        icon.setImageDrawable(mAppEntry.icon);
+        icon.setImageDrawable(mState.getIcon(mAppEntry));
         // Set application name.
         TextView label = (TextView) appSnippet.findViewById(R.id.app_name);
         label.setText(mAppEntry.label);
@@ -575,10 +574,6 @@ public class InstalledAppDetails extends Fragment
     public void onAllSizesComputed() {
     }
 
-    @Override
-    public void onPackageIconChanged() {
-    }
-
     @Override
     public void onPackageListChanged() {
         refreshUi();
@@ -589,8 +584,8 @@ public class InstalledAppDetails extends Fragment
     }
 
     @Override
-    public void onPackageSizeChanged(String packageName) {
-        if (packageName.equals(mAppEntry.info.packageName)) {
+    public void onPackageSizesChanged(ArrayList<String> packageNames) {
+        if (packageNames.contains(mAppEntry.info.packageName)) {
             refreshSizeInfo();
         }
     }
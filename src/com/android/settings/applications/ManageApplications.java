@@ -526,6 +526,7 @@ public class ManageApplications extends Fragment implements
         private final TabInfo mTab;
         private final Context mContext;
         private final ArrayList<View> mActive = new ArrayList<View>();
+        private final AppLabelIndex mLabelIndex = new AppLabelIndex();
         private final int mFilterMode;
         private ArrayList<ApplicationsState.AppEntry> mBaseEntries;
         private ArrayList<ApplicationsState.AppEntry> mEntries;
@@ -640,6 +641,7 @@ public class ManageApplications extends Fragment implements
             }
             mBaseEntries = entries;
             if (mBaseEntries != null) {
+                mLabelIndex.update(mBaseEntries);
                 mEntries = applyPrefixFilter(mCurFilterPrefix, mBaseEntries);
             } else {
                 mEntries = null;
@@ -662,18 +664,7 @@ public class ManageApplications extends Fragment implements
             if (prefix == null || prefix.length() == 0) {
                 return origEntries;
             } else {
-                String prefixStr = ApplicationsState.normalize(prefix.toString());
-                final String spacePrefixStr = " " + prefixStr;
-                ArrayList<ApplicationsState.AppEntry> newEntries
-                        = new ArrayList<ApplicationsState.AppEntry>();
-                for (int i=0; i<origEntries.size(); i++) {
-                    ApplicationsState.AppEntry entry = origEntries.get(i);
-                    String nlabel = entry.getNormalizedLabel();
-                    if (nlabel.startsWith(prefixStr) || nlabel.indexOf(spacePrefixStr) != -1) {
-                        newEntries.add(entry);
-                    }
-                }
-                return newEntries;
+                return mLabelIndex.filter(prefix.toString(), origEntries);
             }
         }
 
@@ -694,6 +685,7 @@ public class ManageApplications extends Fragment implements
             mTab.mLoadingContainer.setVisibility(View.GONE);
             mWaitingForData = false;
             mBaseEntries = apps;
+            mLabelIndex.update(mBaseEntries);
             mEntries = applyPrefixFilter(mCurFilterPrefix, mBaseEntries);
             notifyDataSetChanged();
             mTab.updateStorageUsage();
@@ -705,16 +697,12 @@ public class ManageApplications extends Fragment implements
         }
 
         @Override
-        public void onPackageIconChanged() {
-            // We ensure icons are loaded when their item is displayed, so
-            // don't care about icons loaded in the background.
-        }
-
-        @Override
-        public void onPackageSizeChanged(String packageName) {
+        public void onPackageSizesChanged(ArrayList<String> packageNames) {
+            boolean changed = false;
+            boolean needRebuild = false;
             for (int i=0; i<mActive.size(); i++) {
                 AppViewHolder holder = (AppViewHolder)mActive.get(i).getTag();
-                if (holder.entry.info.packageName.equals(packageName)) {
+                if (packageNames.contains(holder.entry.info.packageName)) {
                     synchronized (holder.entry) {
                         holder.updateSizeText(mTab.mInvalidSizeStr, mWhichSize);
                     }
@@ -724,12 +712,17 @@ public class ManageApplications extends Fragment implements
                         // user viewed, and are sorting by size...  they may
                         // have cleared data, so we immediately want to resort
                         // the list with the new size to reflect it to the user.
-                        rebuild(false);
+                        needRebuild = true;
                     }
-                    mTab.updateStorageUsage();
-                    return;
+                    changed = true;
                 }
             }
+            if (needRebuild) {
+                rebuild(false);
+            }
+            if (changed) {
+                mTab.updateStorageUsage();
+            }
         }
 
         @Override
@@ -772,10 +765,7 @@ public class ManageApplications extends Fragment implements
                             entry.info.enabled ? android.R.color.primary_text_dark
                                     : android.R.color.secondary_text_dark));
                 }
-                mState.ensureIcon(entry);
-                if (entry.icon != null) {
-                    holder.appIcon.setImageDrawable(entry.icon);
-                }
+                mState.bindIcon(holder.appIcon, entry);
                 holder.updateSizeText(mTab.mInvalidSizeStr, mWhichSize);
                 if ((entry.info.flags&ApplicationInfo.FLAG_INSTALLED) == 0) {
                     holder.disabled.setVisibility(View.VISIBLE);
@@ -23,7 +23,6 @@ import android.app.ActivityManager;
 import android.app.Dialog;
 import android.app.Fragment;
 import android.content.Context;
-import android.content.pm.PackageManager;
 import android.os.Bundle;
 import android.os.SystemClock;
 import android.os.UserHandle;
@@ -94,6 +93,7 @@ public class RunningProcessesView extends FrameLayout
         ViewHolder mHolder;
         long mFirstRunTime;
         boolean mSetBackground;
+        int mBoundVersion;
         
         void updateTime(Context context, StringBuilder builder) {
             TextView uptimeView = null;
@@ -153,6 +153,9 @@ public class RunningProcessesView extends FrameLayout
         public TextView description;
         public TextView size;
         public TextView uptime;
+
+        // Handed out by every bind(), since a view only shows one item at a time.
+        ActiveItem mActiveItem;
         
         public ViewHolder(View v) {
             rootView = v;
@@ -167,23 +170,28 @@ public class RunningProcessesView extends FrameLayout
         public ActiveItem bind(RunningState state, RunningState.BaseItem item,
                 StringBuilder builder) {
             synchronized (state.mLock) {
-                PackageManager pm = rootView.getContext().getPackageManager();
                 if (item.mPackageInfo == null && item instanceof RunningState.MergedItem) {
                     // Items for background processes don't normally load
                     // their labels for performance reasons.  Do it now.
                     RunningState.MergedItem mergedItem = (RunningState.MergedItem)item;
                     if (mergedItem.mProcess != null) {
-                        ((RunningState.MergedItem)item).mProcess.ensureLabel(pm);
+                        ((RunningState.MergedItem)item).mProcess.ensureLabel(rootView.getContext());
                         item.mPackageInfo = ((RunningState.MergedItem)item).mProcess.mPackageInfo;
                         item.mDisplayLabel = ((RunningState.MergedItem)item).mProcess.mDisplayLabel;
                     }
                 }
                 name.setText(item.mDisplayLabel);
-                ActiveItem ai = new ActiveItem();
+                ActiveItem ai = mActiveItem;
+                if (ai == null) {
+                    ai = mActiveItem = new ActiveItem();
+                }
                 ai.mRootView = rootView;
                 ai.mItem = item;
+                ai.mService = null;
                 ai.mHolder = this;
                 ai.mFirstRunTime = item.mActiveSince;
+                ai.mSetBackground = false;
+                ai.mBoundVersion = item.mVersion;
                 if (item.mBackground) {
                     description.setText(rootView.getContext().getText(R.string.cached));
                 } else {
@@ -233,7 +241,11 @@ public class RunningProcessesView extends FrameLayout
             return mShowBackground;
         }
 
-        void refreshItems() {
+        /**
+         * Returns true if the set of items or their order changed, in which
+         * case the whole list needs to be re-bound.
+         */
+        boolean refreshItems() {
             ArrayList<RunningState.MergedItem> newItems =
                 mShowBackground ? mState.getCurrentBackgroundItems()
                         : mState.getCurrentMergedItems();
@@ -248,7 +260,9 @@ public class RunningProcessesView extends FrameLayout
                         Collections.sort(mItems, mState.mBackgroundComparator);
                     }
                 }
+                return true;
             }
+            return false;
         }
         
         public boolean hasStableIds() {
@@ -316,8 +330,11 @@ public class RunningProcessesView extends FrameLayout
     void refreshUi(boolean dataChanged) {
         if (dataChanged) {
             ServiceListAdapter adapter = (ServiceListAdapter)(mListView.getAdapter());
-            adapter.refreshItems();
-            adapter.notifyDataSetChanged();
+            if (adapter.refreshItems()) {
+                adapter.notifyDataSetChanged();
+            } else {
+                rebindChangedItems();
+            }
         }
         
         if (mDataAvail != null) {
@@ -470,6 +487,26 @@ public class RunningProcessesView extends FrameLayout
         return false;
     }
 
+    /**
+     * Re-bind the rows on screen whose item changed since it was bound,
+     * leaving the rest of the list alone.
+     */
+    void rebindChangedItems() {
+        synchronized (mState.mLock) {
+            Iterator<ActiveItem> it = mActiveItems.values().iterator();
+            while (it.hasNext()) {
+                ActiveItem ai = it.next();
+                if (ai.mRootView.getWindowToken() == null) {
+                    it.remove();
+                    continue;
+                }
+                if (ai.mBoundVersion != ai.mItem.mVersion) {
+                    ai.mHolder.bind(mState, ai.mItem, mBuilder);
+                }
+            }
+        }
+    }
+
     void updateTimes() {
         Iterator<ActiveItem> it = mActiveItems.values().iterator();
         while (it.hasNext()) {
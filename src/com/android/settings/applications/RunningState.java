@@ -25,7 +25,6 @@ import android.app.ActivityThread;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.pm.ApplicationInfo;
-import android.content.pm.PackageInfo;
 import android.content.pm.PackageItemInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.ServiceInfo;
@@ -39,6 +38,7 @@ import android.os.Message;
 import android.os.RemoteException;
 import android.os.UserHandle;
 import android.os.UserManager;
+import android.text.TextUtils;
 import android.text.format.Formatter;
 import android.util.Log;
 import android.util.SparseArray;
@@ -123,18 +123,32 @@ public class RunningState {
     final SparseArray<UserState> mUsers = new SparseArray<UserState>();
 
     static class AppProcessInfo {
-        final ActivityManager.RunningAppProcessInfo info;
+        ActivityManager.RunningAppProcessInfo info;
         boolean hasServices;
         boolean hasForegroundServices;
 
-        AppProcessInfo(ActivityManager.RunningAppProcessInfo _info) {
+        void set(ActivityManager.RunningAppProcessInfo _info) {
             info = _info;
+            hasServices = false;
+            hasForegroundServices = false;
         }
     }
 
     // Temporary structure used when updating above information.
     final SparseArray<AppProcessInfo> mTmpAppProcesses = new SparseArray<AppProcessInfo>();
 
+    // Recycled entries for mTmpAppProcesses, so an update doesn't need to
+    // allocate one per running process.
+    final ArrayList<AppProcessInfo> mAppProcessInfoPool = new ArrayList<AppProcessInfo>();
+
+    // Scratch lists the next set of items is built in; they are only
+    // copied out when the items actually differ from the current ones.
+    final ArrayList<ProcessItem> mTmpSortedProcesses = new ArrayList<ProcessItem>();
+    final ArrayList<BaseItem> mTmpItems = new ArrayList<BaseItem>();
+    final ArrayList<MergedItem> mTmpMergedItems = new ArrayList<MergedItem>();
+
+    int[] mTmpPids;
+
     int mSequence = 0;
 
     final Comparator<RunningState.MergedItem> mBackgroundComparator
@@ -308,8 +322,13 @@ public class RunningState {
 
         int mCurSeq;
 
+        // Bumped whenever something shown in this item's row changes, so
+        // views bound to it can tell whether they need to be re-bound.
+        int mVersion;
+
         long mActiveSince;
         long mSize;
+        long mFormattedSize = -1;
         String mSizeStr;
         String mCurSizeStr;
         boolean mNeedDivider;
@@ -373,16 +392,18 @@ public class RunningState {
             mProcessName = processName;
         }
         
-        void ensureLabel(PackageManager pm) {
+        void ensureLabel(Context context) {
             if (mLabel != null) {
                 return;
             }
             
+            final PackageManager pm = context.getPackageManager();
+            final UidLabelResolver resolver = UidLabelResolver.getInstance(context);
             try {
                 ApplicationInfo ai = pm.getApplicationInfo(mProcessName,
                         PackageManager.GET_UNINSTALLED_PACKAGES);
                 if (ai.uid == mUid) {
-                    mDisplayLabel = ai.loadLabel(pm);
+                    mDisplayLabel = resolver.getLabel(ai);
                     mLabel = mDisplayLabel.toString();
                     mPackageInfo = ai;
                     return;
@@ -391,39 +412,14 @@ public class RunningState {
             }
             
             // If we couldn't get information about the overall
-            // process, try to find something about the uid.
-            String[] pkgs = pm.getPackagesForUid(mUid);
-            
-            // If there is one package with this uid, that is what we want.
-            if (pkgs.length == 1) {
-                try {
-                    ApplicationInfo ai = pm.getApplicationInfo(pkgs[0],
-                            PackageManager.GET_UNINSTALLED_PACKAGES);
-                    mDisplayLabel = ai.loadLabel(pm);
-                    mLabel = mDisplayLabel.toString();
-                    mPackageInfo = ai;
-                    return;
-                } catch (PackageManager.NameNotFoundException e) {
-                }
-            }
-            
-            // If there are multiple, see if one gives us the official name
-            // for this uid.
-            for (String name : pkgs) {
-                try {
-                    PackageInfo pi = pm.getPackageInfo(name, 0);
-                    if (pi.sharedUserLabel != 0) {
-                        CharSequence nm = pm.getText(name,
-                                pi.sharedUserLabel, pi.applicationInfo);
-                        if (nm != null) {
-                            mDisplayLabel = nm;
-                            mLabel = nm.toString();
-                            mPackageInfo = pi.applicationInfo;
-                            return;
-                        }
-                    }
-                } catch (PackageManager.NameNotFoundException e) {
-                }
+            // process, try to find something about the uid: its only
+            // package, or the one giving the official name for it.
+            UidLabelResolver.UidEntry entry = resolver.resolve(mUid);
+            if (entry.label != null) {
+                mDisplayLabel = entry.label;
+                mLabel = mDisplayLabel.toString();
+                mPackageInfo = entry.primary;
+                return;
             }
             
             // If still don't have anything to display, just use the
@@ -432,20 +428,16 @@ public class RunningState {
                 ApplicationInfo ai = mServices.values().iterator().next()
                         .mServiceInfo.applicationInfo;
                 mPackageInfo = ai;
-                mDisplayLabel = mPackageInfo.loadLabel(pm);
+                mDisplayLabel = resolver.getLabel(ai);
                 mLabel = mDisplayLabel.toString();
                 return;
             }
             
             // Finally... whatever, just pick the first package's name.
-            try {
-                ApplicationInfo ai = pm.getApplicationInfo(pkgs[0],
-                        PackageManager.GET_UNINSTALLED_PACKAGES);
-                mDisplayLabel = ai.loadLabel(pm);
+            if (entry.hasPackages()) {
+                mDisplayLabel = entry.labels[0];
                 mLabel = mDisplayLabel.toString();
-                mPackageInfo = ai;
-                return;
-            } catch (PackageManager.NameNotFoundException e) {
+                mPackageInfo = entry.apps[0];
             }
         }
 
@@ -470,6 +462,10 @@ public class RunningState {
                 si.mPackageInfo = si.mServiceInfo.applicationInfo;
                 mServices.put(service.service, si);
             }
+            final boolean clientChanged = si.mDescription == null
+                    || si.mRunningService.clientLabel != service.clientLabel
+                    || !TextUtils.equals(si.mRunningService.clientPackage,
+                            service.clientPackage);
             si.mCurSeq = mCurSeq;
             si.mRunningService = service;
             long activeSince = service.restarting == 0 ? service.activeSince : -1;
@@ -482,21 +478,25 @@ public class RunningState {
                     si.mShownAsStarted = false;
                     changed = true;
                 }
-                try {
-                    Resources clientr = pm.getResourcesForApplication(service.clientPackage);
-                    String label = clientr.getString(service.clientLabel);
-                    si.mDescription = context.getResources().getString(
-                            R.string.service_client_name, label);
-                } catch (PackageManager.NameNotFoundException e) {
-                    si.mDescription = null;
+                if (clientChanged) {
+                    try {
+                        Resources clientr = pm.getResourcesForApplication(service.clientPackage);
+                        String label = clientr.getString(service.clientLabel);
+                        si.mDescription = context.getResources().getString(
+                                R.string.service_client_name, label);
+                    } catch (PackageManager.NameNotFoundException e) {
+                        si.mDescription = null;
+                    }
                 }
             } else {
                 if (!si.mShownAsStarted) {
                     si.mShownAsStarted = true;
                     changed = true;
                 }
-                si.mDescription = context.getResources().getString(
-                        R.string.service_started_by_app);
+                if (clientChanged) {
+                    si.mDescription = context.getResources().getString(
+                            R.string.service_started_by_app);
+                }
             }
             
             return changed;
@@ -504,7 +504,8 @@ public class RunningState {
         
         boolean updateSize(Context context, long pss, int curSeq) {
             mSize = pss * 1024;
-            if (mCurSeq == curSeq) {
+            if (mCurSeq == curSeq && mSize != mFormattedSize) {
+                mFormattedSize = mSize;
                 String sizeStr = Formatter.formatShortFileSize(
                         context, mSize);
                 if (!sizeStr.equals(mSizeStr)){
@@ -528,7 +529,7 @@ public class RunningState {
                     proc.mClient = this;
                 }
                 proc.mCurSeq = curSeq;
-                proc.ensureLabel(pm);
+                proc.ensureLabel(context);
                 changed |= proc.buildDependencyChain(context, pm, curSeq);
             }
             
@@ -585,6 +586,12 @@ public class RunningState {
         }
 
         boolean update(Context context, boolean background) {
+            final boolean wasBackground = mBackground;
+            final PackageItemInfo oldPackageInfo = mPackageInfo;
+            final CharSequence oldDisplayLabel = mDisplayLabel;
+            final String oldDescription = mDescription;
+            final long oldActiveSince = mActiveSince;
+
             mBackground = background;
 
             if (mUser != null) {
@@ -630,6 +637,12 @@ public class RunningState {
                 }
             }
 
+            if (mBackground != wasBackground || mPackageInfo != oldPackageInfo
+                    || mDisplayLabel != oldDisplayLabel || mDescription != oldDescription
+                    || mActiveSince != oldActiveSince) {
+                mVersion++;
+                return true;
+            }
             return false;
         }
         
@@ -648,6 +661,10 @@ public class RunningState {
                 }
             }
             
+            if (mSize == mFormattedSize) {
+                return false;
+            }
+            mFormattedSize = mSize;
             String sizeStr = Formatter.formatShortFileSize(
                     context, mSize);
             if (!sizeStr.equals(mSizeStr)){
@@ -840,6 +857,31 @@ public class RunningState {
         userItem.mChildren.add(newItem);
     }
 
+    /**
+     * Returns the merged item showing a process on its own, creating it the
+     * first time; the same item is used for as long as the process lives.
+     */
+    private static MergedItem obtainMergedItem(ProcessItem proc) {
+        if (proc.mMergedItem == null) {
+            proc.mMergedItem = new MergedItem(proc.mUserId);
+            proc.mMergedItem.mProcess = proc;
+        }
+        return proc.mMergedItem;
+    }
+
+    private static boolean sameItems(ArrayList<? extends BaseItem> current,
+            ArrayList<? extends BaseItem> next) {
+        if (current == null || current.size() != next.size()) {
+            return false;
+        }
+        for (int i=0; i<next.size(); i++) {
+            if (current.get(i) != next.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private boolean update(Context context, ActivityManager am) {
         final PackageManager pm = context.getPackageManager();
         
@@ -879,10 +921,19 @@ public class RunningState {
         List<ActivityManager.RunningAppProcessInfo> processes
                 = am.getRunningAppProcesses();
         final int NP = processes != null ? processes.size() : 0;
+        for (int i=0; i<mTmpAppProcesses.size(); i++) {
+            AppProcessInfo ainfo = mTmpAppProcesses.valueAt(i);
+            ainfo.info = null;
+            mAppProcessInfoPool.add(ainfo);
+        }
         mTmpAppProcesses.clear();
         for (int i=0; i<NP; i++) {
             ActivityManager.RunningAppProcessInfo pi = processes.get(i);
-            mTmpAppProcesses.put(pi.pid, new AppProcessInfo(pi));
+            final int NPOOL = mAppProcessInfoPool.size();
+            AppProcessInfo ainfo = NPOOL > 0
+                    ? mAppProcessInfoPool.remove(NPOOL-1) : new AppProcessInfo();
+            ainfo.set(pi);
+            mTmpAppProcesses.put(pi.pid, ainfo);
         }
 
         // Initial iteration through running services to collect per-process
@@ -995,7 +1046,7 @@ public class RunningState {
                 }
                 proc.mCurSeq = mSequence;
                 proc.mInteresting = true;
-                proc.ensureLabel(pm);
+                proc.ensureLabel(context);
             } else {
                 proc.mInteresting = false;
             }
@@ -1064,7 +1115,7 @@ public class RunningState {
             while (pit.hasNext()) {
                 ProcessItem pi = pit.next();
                 if (pi.mCurSeq == mSequence) {
-                    pi.ensureLabel(pm);
+                    pi.ensureLabel(context);
                     if (pi.mPid == 0) {
                         // Sanity: a non-process can't be dependent on
                         // anything.
@@ -1104,7 +1155,8 @@ public class RunningState {
 
         if (changed) {
             // First determine an order for the services.
-            ArrayList<ProcessItem> sortedProcesses = new ArrayList<ProcessItem>();
+            ArrayList<ProcessItem> sortedProcesses = mTmpSortedProcesses;
+            sortedProcesses.clear();
             for (int i=0; i<mServiceProcessesByName.size(); i++) {
                 for (ProcessItem pi : mServiceProcessesByName.valueAt(i).values()) {
                     pi.mIsSystem = false;
@@ -1130,8 +1182,10 @@ public class RunningState {
             
             Collections.sort(sortedProcesses, mServiceProcessComparator);
             
-            ArrayList<BaseItem> newItems = new ArrayList<BaseItem>();
-            ArrayList<MergedItem> newMergedItems = new ArrayList<MergedItem>();
+            ArrayList<BaseItem> newItems = mTmpItems;
+            ArrayList<MergedItem> newMergedItems = mTmpMergedItems;
+            newItems.clear();
+            newMergedItems.clear();
             SparseArray<MergedItem> otherUsers = null;
             mProcessItems.clear();
             for (int i=0; i<sortedProcesses.size(); i++) {
@@ -1149,7 +1203,7 @@ public class RunningState {
                 
                 // Now add the services running in it.
                 MergedItem mergedItem = null;
-                boolean haveAllMerged = false;
+                boolean haveAllMerged = true;
                 boolean needDivider = false;
                 for (ServiceItem si : pi.mServices.values()) {
                     si.mNeedDivider = needDivider;
@@ -1174,10 +1228,13 @@ public class RunningState {
                         si.mMergedItem = mergedItem;
                     }
                     mergedItem.mProcess = pi;
-                    mergedItem.mOtherProcesses.clear();
-                    for (int mpi=firstProc; mpi<(mProcessItems.size()-1); mpi++) {
-                        mergedItem.mOtherProcesses.add(mProcessItems.get(mpi));
-                    }
+                }
+
+                // The processes it depends on can change even when its
+                // services stay the same.
+                mergedItem.mOtherProcesses.clear();
+                for (int mpi=firstProc; mpi<(mProcessItems.size()-1); mpi++) {
+                    mergedItem.mOtherProcesses.add(mProcessItems.get(mpi));
                 }
                 
                 mergedItem.update(context, false);
@@ -1194,10 +1251,7 @@ public class RunningState {
             for (int i=0; i<NHP; i++) {
                 ProcessItem proc = mInterestingProcesses.get(i);
                 if (proc.mClient == null && proc.mServices.size() <= 0) {
-                    if (proc.mMergedItem == null) {
-                        proc.mMergedItem = new MergedItem(proc.mUserId);
-                        proc.mMergedItem.mProcess = proc;
-                    }
+                    obtainMergedItem(proc);
                     proc.mMergedItem.update(context, false);
                     if (proc.mMergedItem.mUserId != mMyUserId) {
                         addOtherUserItem(context, newMergedItems, mOtherUserMergedItems,
@@ -1219,9 +1273,16 @@ public class RunningState {
                 }
             }
 
+            // Only publish new lists if the set of items or their order
+            // changed; otherwise views can keep what they have and just
+            // re-bind items whose mVersion moved.
             synchronized (mLock) {
-                mItems = newItems;
-                mMergedItems = newMergedItems;
+                if (!sameItems(mItems, newItems)) {
+                    mItems = new ArrayList<BaseItem>(newItems);
+                }
+                if (!sameItems(mMergedItems, newMergedItems)) {
+                    mMergedItems = new ArrayList<MergedItem>(newMergedItems);
+                }
             }
         }
         
@@ -1263,7 +1324,10 @@ public class RunningState {
         boolean diffUsers = false;
         try {
             final int numProc = mAllProcessItems.size();
-            int[] pids = new int[numProc];
+            if (mTmpPids == null || mTmpPids.length != numProc) {
+                mTmpPids = new int[numProc];
+            }
+            final int[] pids = mTmpPids;
             for (int i=0; i<numProc; i++) {
                 pids[i] = mAllProcessItems.get(i).mPid;
             }
@@ -1280,8 +1344,7 @@ public class RunningState {
                     backgroundProcessMemory += proc.mSize;
                     MergedItem mergedItem;
                     if (newBackgroundItems != null) {
-                        mergedItem = proc.mMergedItem = new MergedItem(proc.mUserId);
-                        proc.mMergedItem.mProcess = proc;
+                        mergedItem = obtainMergedItem(proc);
                         diffUsers |= mergedItem.mUserId != mMyUserId;
                         newBackgroundItems.add(mergedItem);
                     } else {
@@ -1293,8 +1356,7 @@ public class RunningState {
                                 diffUsers |= mergedItem.mUserId != mMyUserId;
                                 newBackgroundItems.add(mergedItem);
                             }
-                            mergedItem = proc.mMergedItem = new MergedItem(proc.mUserId);
-                            proc.mMergedItem.mProcess = proc;
+                            mergedItem = obtainMergedItem(proc);
                             diffUsers |= mergedItem.mUserId != mMyUserId;
                             newBackgroundItems.add(mergedItem);
                         } else {
@@ -0,0 +1,366 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.PackageManager.NameNotFoundException;
+import android.graphics.drawable.Drawable;
+import android.net.Uri;
+import android.util.Log;
+import android.util.LruCache;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Process-wide cache of what the package manager says about a UID: the
+ * packages running under it, their labels, and the package that best stands
+ * for the UID as a whole.  Data usage, battery use, running services and the
+ * application list all resolve labels through here, so whatever one screen
+ * loaded is already there for the next one.
+ *
+ * <p>Icons are not kept here; {@link #getIcon} goes through the shared
+ * {@link AppIconCache}.  Anything involving a package is forgotten as soon
+ * as a package broadcast mentions it.
+ */
+public final class UidLabelResolver {
+    static final String TAG = "UidLabelResolver";
+    static final boolean DEBUG = false;
+
+    private static final int MAX_UIDS = 256;
+    private static final int MAX_LABELS = 512;
+
+    // With at least this many UIDs to resolve, list the installed
+    // applications once instead of asking about each UID.
+    private static final int BATCH_THRESHOLD = 8;
+
+    private static final ApplicationInfo[] EMPTY_APPS = new ApplicationInfo[0];
+    private static final CharSequence[] EMPTY_LABELS = new CharSequence[0];
+
+    /**
+     * What is known about a single UID.
+     */
+    public static final class UidEntry {
+        public final int uid;
+
+        // Every package running as this UID, and their labels.
+        public final ApplicationInfo[] apps;
+        public final CharSequence[] labels;
+
+        // Label of the UID as a whole: that of its only package, or the
+        // shared user label.  Null if several packages share the UID and
+        // none of them names it.
+        public final CharSequence label;
+
+        // The package that best represents the UID, e.g. for its icon.
+        // Null if no package runs as this UID.
+        public final ApplicationInfo primary;
+
+        UidEntry(int uid, ApplicationInfo[] apps, CharSequence[] labels,
+                CharSequence label, ApplicationInfo primary) {
+            this.uid = uid;
+            this.apps = apps;
+            this.labels = labels;
+            this.label = label;
+            this.primary = primary;
+        }
+
+        public boolean hasPackages() {
+            return apps.length > 0;
+        }
+    }
+
+    private static final Object sLock = new Object();
+    private static UidLabelResolver sInstance;
+
+    public static UidLabelResolver getInstance(Context context) {
+        synchronized (sLock) {
+            if (sInstance == null) {
+                sInstance = new UidLabelResolver(context.getApplicationContext());
+            }
+            return sInstance;
+        }
+    }
+
+    private final PackageManager mPm;
+    private final AppIconCache mIconCache;
+
+    private final LruCache<Integer, UidEntry> mUids = new LruCache<Integer, UidEntry>(MAX_UIDS);
+    private final LruCache<String, CharSequence> mLabels
+            = new LruCache<String, CharSequence>(MAX_LABELS);
+
+    // Bumped on every invalidation, so that a lookup which raced with one
+    // doesn't put stale results back.  Protected by "this".
+    private int mGeneration;
+
+    private UidLabelResolver(Context context) {
+        mPm = context.getPackageManager();
+        mIconCache = AppIconCache.getInstance(context);
+
+        final BroadcastReceiver receiver = new PackageReceiver();
+        IntentFilter filter = new IntentFilter(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addDataScheme("package");
+        context.registerReceiver(receiver, filter);
+        IntentFilter otherFilter = new IntentFilter();
+        otherFilter.addAction(Intent.ACTION_EXTERNAL_APPLICATIONS_AVAILABLE);
+        otherFilter.addAction(Intent.ACTION_EXTERNAL_APPLICATIONS_UNAVAILABLE);
+        otherFilter.addAction(Intent.ACTION_LOCALE_CHANGED);
+        context.registerReceiver(receiver, otherFilter);
+    }
+
+    /**
+     * Returns the cached entry for the given UID, or null.
+     */
+    public UidEntry peek(int uid) {
+        return mUids.get(uid);
+    }
+
+    /**
+     * Returns the entry for the given UID, asking the package manager if it
+     * isn't cached.  May block, so don't call this on the main thread.
+     */
+    public UidEntry resolve(int uid) {
+        UidEntry entry = mUids.get(uid);
+        if (entry == null) {
+            final int generation = getGeneration();
+            entry = buildEntry(uid, getApplicationsForUid(uid));
+            putIfCurrent(generation, uid, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Resolves many UIDs at once.  When a lot of them are unknown, all
+     * installed applications are listed in a single call and grouped by UID
+     * rather than querying each UID on its own.
+     */
+    public SparseArray<UidEntry> resolve(int[] uids) {
+        final SparseArray<UidEntry> result = new SparseArray<UidEntry>(uids.length);
+        final ArrayList<Integer> missing = new ArrayList<Integer>();
+        for (int i=0; i<uids.length; i++) {
+            UidEntry entry = mUids.get(uids[i]);
+            if (entry != null) {
+                result.put(uids[i], entry);
+            } else if (result.indexOfKey(uids[i]) < 0 && !missing.contains(uids[i])) {
+                missing.add(uids[i]);
+            }
+        }
+        if (missing.size() < BATCH_THRESHOLD) {
+            for (int i=0; i<missing.size(); i++) {
+                result.put(missing.get(i), resolve(missing.get(i)));
+            }
+            return result;
+        }
+
+        final int generation = getGeneration();
+        final SparseArray<ArrayList<ApplicationInfo>> byUid
+                = new SparseArray<ArrayList<ApplicationInfo>>();
+        final List<ApplicationInfo> installed = mPm.getInstalledApplications(
+                PackageManager.GET_UNINSTALLED_PACKAGES);
+        for (int i=0; i<installed.size(); i++) {
+            ApplicationInfo info = installed.get(i);
+            if (!missing.contains(info.uid)) {
+                continue;
+            }
+            ArrayList<ApplicationInfo> apps = byUid.get(info.uid);
+            if (apps == null) {
+                apps = new ArrayList<ApplicationInfo>(1);
+                byUid.put(info.uid, apps);
+            }
+            apps.add(info);
+        }
+        for (int i=0; i<missing.size(); i++) {
+            final int uid = missing.get(i);
+            ArrayList<ApplicationInfo> apps = byUid.get(uid);
+            if (apps == null) {
+                // Not one of ours, e.g. another user's or a system UID.
+                result.put(uid, resolve(uid));
+                continue;
+            }
+            UidEntry entry = buildEntry(uid, apps.toArray(new ApplicationInfo[apps.size()]));
+            putIfCurrent(generation, uid, entry);
+            result.put(uid, entry);
+        }
+        if (DEBUG) Log.i(TAG, "Batch resolved " + missing.size() + " uids");
+        return result;
+    }
+
+    /**
+     * Returns the label of the given application, loading it if needed.
+     */
+    public CharSequence getLabel(ApplicationInfo info) {
+        CharSequence label = mLabels.get(info.packageName);
+        if (label == null) {
+            final int generation = getGeneration();
+            label = info.loadLabel(mPm);
+            if (label == null) {
+                label = info.packageName;
+            }
+            synchronized (this) {
+                if (generation == mGeneration) {
+                    mLabels.put(info.packageName, label);
+                }
+            }
+        }
+        return label;
+    }
+
+    /**
+     * Returns the icon of the package representing entry, or null.
+     */
+    public Drawable getIcon(UidEntry entry) {
+        return entry.primary != null ? mIconCache.getIcon(entry.primary) : null;
+    }
+
+    /**
+     * Like {@link #getIcon} but never loads anything.
+     */
+    public Drawable peekIcon(UidEntry entry) {
+        return entry.primary != null
+                ? mIconCache.getCachedIcon(entry.primary.packageName) : null;
+    }
+
+    /**
+     * Forgets everything involving the given package.  UIDs without any
+     * package are dropped too, as the package may have just appeared there.
+     */
+    public void invalidatePackage(String packageName) {
+        synchronized (this) {
+            mGeneration++;
+        }
+        mLabels.remove(packageName);
+        for (Map.Entry<Integer, UidEntry> e : mUids.snapshot().entrySet()) {
+            final ApplicationInfo[] apps = e.getValue().apps;
+            boolean remove = apps.length == 0;
+            for (int i=0; i<apps.length && !remove; i++) {
+                remove = packageName.equals(apps[i].packageName);
+            }
+            if (remove) {
+                mUids.remove(e.getKey());
+            }
+        }
+        mIconCache.invalidate(packageName);
+    }
+
+    public void invalidateAll() {
+        synchronized (this) {
+            mGeneration++;
+        }
+        mLabels.evictAll();
+        mUids.evictAll();
+    }
+
+    private synchronized int getGeneration() {
+        return mGeneration;
+    }
+
+    private synchronized void putIfCurrent(int generation, int uid, UidEntry entry) {
+        if (generation == mGeneration) {
+            mUids.put(uid, entry);
+        }
+    }
+
+    private ApplicationInfo[] getApplicationsForUid(int uid) {
+        final String[] pkgs = mPm.getPackagesForUid(uid);
+        if (pkgs == null || pkgs.length == 0) {
+            return EMPTY_APPS;
+        }
+        final ArrayList<ApplicationInfo> apps = new ArrayList<ApplicationInfo>(pkgs.length);
+        for (String pkgName : pkgs) {
+            try {
+                apps.add(mPm.getApplicationInfo(pkgName,
+                        PackageManager.GET_UNINSTALLED_PACKAGES));
+            } catch (NameNotFoundException e) {
+            }
+        }
+        return apps.toArray(new ApplicationInfo[apps.size()]);
+    }
+
+    private UidEntry buildEntry(int uid, ApplicationInfo[] apps) {
+        final int N = apps.length;
+        if (N == 0) {
+            return new UidEntry(uid, EMPTY_APPS, EMPTY_LABELS, null, null);
+        }
+        final CharSequence[] labels = new CharSequence[N];
+        for (int i=0; i<N; i++) {
+            labels[i] = getLabel(apps[i]);
+        }
+        if (N == 1) {
+            return new UidEntry(uid, apps, labels, labels[0], apps[0]);
+        }
+
+        // If there are multiple, see if one gives us the official name
+        // for this uid.
+        for (int i=0; i<N; i++) {
+            try {
+                PackageInfo pi = mPm.getPackageInfo(apps[i].packageName, 0);
+                if (pi.sharedUserLabel != 0) {
+                    CharSequence nm = mPm.getText(apps[i].packageName,
+                            pi.sharedUserLabel, pi.applicationInfo);
+                    if (nm != null) {
+                        return new UidEntry(uid, apps, labels, nm, apps[i]);
+                    }
+                }
+            } catch (NameNotFoundException e) {
+            }
+        }
+
+        // Otherwise the first package that has an icon of its own stands
+        // for the uid.
+        ApplicationInfo primary = apps[0];
+        for (int i=0; i<N; i++) {
+            if (apps[i].icon != 0) {
+                primary = apps[i];
+                break;
+            }
+        }
+        return new UidEntry(uid, apps, labels, null, primary);
+    }
+
+    private class PackageReceiver extends BroadcastReceiver {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            final String action = intent.getAction();
+            if (Intent.ACTION_LOCALE_CHANGED.equals(action)) {
+                invalidateAll();
+            } else if (Intent.ACTION_EXTERNAL_APPLICATIONS_AVAILABLE.equals(action)
+                    || Intent.ACTION_EXTERNAL_APPLICATIONS_UNAVAILABLE.equals(action)) {
+                String pkgList[] = intent.getStringArrayExtra(Intent.EXTRA_CHANGED_PACKAGE_LIST);
+                if (pkgList != null) {
+                    for (String pkgName : pkgList) {
+                        invalidatePackage(pkgName);
+                    }
+                }
+            } else {
+                Uri data = intent.getData();
+                if (data != null) {
+                    invalidatePackage(data.getEncodedSchemeSpecificPart());
+                }
+            }
+        }
+    }
+}
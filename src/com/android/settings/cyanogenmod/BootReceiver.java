@@ -24,8 +24,6 @@ import android.os.SystemProperties;
 import android.preference.PreferenceManager;
 import android.util.Log;
 
-import com.android.settings.Utils;
-
 import java.util.Arrays;
 import java.util.List;
 
@@ -55,7 +53,7 @@ public class BootReceiver extends BroadcastReceiver {
             SystemProperties.set(IOSCHED_SETTINGS_PROP, "false");
         }
 
-        if (Utils.fileExists(MemoryManagement.KSM_RUN_FILE)) {
+        if (SysfsFile.exists(MemoryManagement.KSM_RUN_FILE)) {
             if (SystemProperties.getBoolean(KSM_SETTINGS_PROP, false) == false
                     && intent.getAction().equals(Intent.ACTION_BOOT_COMPLETED)) {
                 SystemProperties.set(KSM_SETTINGS_PROP, "true");
@@ -77,8 +75,8 @@ public class BootReceiver extends BroadcastReceiver {
         String governor = prefs.getString(Processor.GOV_PREF, null);
         String minFrequency = prefs.getString(Processor.FREQ_MIN_PREF, null);
         String maxFrequency = prefs.getString(Processor.FREQ_MAX_PREF, null);
-        String availableFrequenciesLine = Utils.fileReadOneLine(Processor.FREQ_LIST_FILE);
-        String availableGovernorsLine = Utils.fileReadOneLine(Processor.GOV_LIST_FILE);
+        String availableFrequenciesLine = SysfsFile.readOneLine(Processor.FREQ_LIST_FILE);
+        String availableGovernorsLine = SysfsFile.readOneLine(Processor.GOV_LIST_FILE);
         boolean noSettings = ((availableGovernorsLine == null) || (governor == null)) &&
                              ((availableFrequenciesLine == null) || ((minFrequency == null) && (maxFrequency == null)));
         List<String> frequencies = null;
@@ -94,13 +92,13 @@ public class BootReceiver extends BroadcastReceiver {
                 frequencies = Arrays.asList(availableFrequenciesLine.split(" "));
             }
             if (maxFrequency != null && frequencies != null && frequencies.contains(maxFrequency)) {
-                Utils.fileWriteOneLine(Processor.FREQ_MAX_FILE, maxFrequency);
+                SysfsFile.writeOneLine(Processor.FREQ_MAX_FILE, maxFrequency);
             }
             if (minFrequency != null && frequencies != null && frequencies.contains(minFrequency)) {
-                Utils.fileWriteOneLine(Processor.FREQ_MIN_FILE, minFrequency);
+                SysfsFile.writeOneLine(Processor.FREQ_MIN_FILE, minFrequency);
             }
             if (governor != null && governors != null && governors.contains(governor)) {
-                Utils.fileWriteOneLine(Processor.GOV_FILE, governor);
+                SysfsFile.writeOneLine(Processor.GOV_FILE, governor);
             }
             Log.d(TAG, "CPU settings restored.");
         }
@@ -115,7 +113,7 @@ public class BootReceiver extends BroadcastReceiver {
         }
 
         String ioscheduler = prefs.getString(IOScheduler.IOSCHED_PREF, null);
-        String availableIOSchedulersLine = Utils.fileReadOneLine(IOScheduler.IOSCHED_LIST_FILE);
+        String availableIOSchedulersLine = SysfsFile.readOneLine(IOScheduler.IOSCHED_LIST_FILE);
         boolean noSettings = ((availableIOSchedulersLine == null) || (ioscheduler == null));
         List<String> ioschedulers = null;
 
@@ -126,7 +124,7 @@ public class BootReceiver extends BroadcastReceiver {
                 ioschedulers = Arrays.asList(availableIOSchedulersLine.replace("[", "").replace("]", "").split(" "));
             }
             if (ioscheduler != null && ioschedulers != null && ioschedulers.contains(ioscheduler)) {
-                Utils.fileWriteOneLine(IOScheduler.IOSCHED_LIST_FILE, ioscheduler);
+                SysfsFile.writeOneLine(IOScheduler.IOSCHED_LIST_FILE, ioscheduler);
             }
             Log.d(TAG, "I/O scheduler settings restored.");
         }
@@ -137,7 +135,7 @@ public class BootReceiver extends BroadcastReceiver {
 
         boolean ksm = prefs.getBoolean(MemoryManagement.KSM_PREF, false);
 
-        Utils.fileWriteOneLine(MemoryManagement.KSM_RUN_FILE, ksm ? "1" : "0");
+        SysfsFile.writeOneLine(MemoryManagement.KSM_RUN_FILE, ksm ? "1" : "0");
         Log.d(TAG, "KSM settings restored.");
     }
 }
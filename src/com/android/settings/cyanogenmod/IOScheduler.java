@@ -17,15 +17,12 @@
 package com.android.settings.cyanogenmod;
 
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.Message;
 import android.preference.ListPreference;
 import android.preference.Preference;
 import android.preference.PreferenceScreen;
 
 import com.android.settings.R;
 import com.android.settings.SettingsPreferenceFragment;
-import com.android.settings.Utils;
 
 //
 // I/O Scheduler Related Settings
@@ -63,8 +60,8 @@ public class IOScheduler extends SettingsPreferenceFragment implements
 
         /* I/O scheduler
         Some systems might not use I/O schedulers */
-        if (!Utils.fileExists(IOSCHED_LIST_FILE) ||
-            (availableIOSchedulersLine = Utils.fileReadOneLine(IOSCHED_LIST_FILE)) == null) {
+        if (!SysfsFile.exists(IOSCHED_LIST_FILE) ||
+            (availableIOSchedulersLine = SysfsFile.readOneLine(IOSCHED_LIST_FILE)) == null) {
             prefScreen.removePreference(mIOSchedulerPref);
 
         } else {
@@ -91,8 +88,8 @@ public class IOScheduler extends SettingsPreferenceFragment implements
 
         super.onResume();
 
-        if (Utils.fileExists(IOSCHED_LIST_FILE) &&
-            (availableIOSchedulersLine = Utils.fileReadOneLine(IOSCHED_LIST_FILE)) != null) {
+        if (SysfsFile.exists(IOSCHED_LIST_FILE) &&
+            (availableIOSchedulersLine = SysfsFile.readOneLine(IOSCHED_LIST_FILE)) != null) {
             bropen = availableIOSchedulersLine.indexOf("[");
             brclose = availableIOSchedulersLine.lastIndexOf("]");
             if (bropen >= 0 && brclose >= 0) {
@@ -110,7 +107,7 @@ public class IOScheduler extends SettingsPreferenceFragment implements
                 fname = IOSCHED_LIST_FILE;
             }
 
-            if (Utils.fileWriteOneLine(fname, (String) newValue)) {
+            if (SysfsFile.writeOneLine(fname, (String) newValue)) {
                 if (preference == mIOSchedulerPref) {
                     mIOSchedulerPref.setSummary(String.format(mIOSchedulerFormat, (String) newValue));
                 }
@@ -28,7 +28,6 @@ import android.preference.PreferenceScreen;
 
 import com.android.settings.R;
 import com.android.settings.SettingsPreferenceFragment;
-import com.android.settings.Utils;
 
 public class MemoryManagement extends SettingsPreferenceFragment implements
         OnPreferenceChangeListener {
@@ -84,8 +83,9 @@ public class MemoryManagement extends SettingsPreferenceFragment implements
                 prefSet.removePreference(mzRAM);
             }
 
-            if (Utils.fileExists(KSM_RUN_FILE)) {
-                mKSMPref.setChecked(KSM_PREF_ENABLED.equals(Utils.fileReadOneLine(KSM_RUN_FILE)));
+            if (SysfsFile.exists(KSM_RUN_FILE)) {
+                mKSMPref.setChecked(KSM_PREF_ENABLED.equals(
+                        SysfsFile.readOneLine(KSM_RUN_FILE)));
             } else {
                 prefSet.removePreference(mKSMPref);
             }
@@ -107,7 +107,7 @@ public class MemoryManagement extends SettingsPreferenceFragment implements
         }
 
         if (preference == mKSMPref) {
-            Utils.fileWriteOneLine(KSM_RUN_FILE, mKSMPref.isChecked() ? "1" : "0");
+            SysfsFile.writeOneLine(KSM_RUN_FILE, mKSMPref.isChecked() ? "1" : "0");
             return true;
         }
 
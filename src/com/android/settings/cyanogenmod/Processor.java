@@ -17,15 +17,13 @@
 package com.android.settings.cyanogenmod;
 
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.Message;
 import android.preference.ListPreference;
 import android.preference.Preference;
 import android.preference.PreferenceScreen;
+import android.view.Choreographer;
 
 import com.android.settings.R;
 import com.android.settings.SettingsPreferenceFragment;
-import com.android.settings.Utils;
 
 //
 // CPU Related Settings
@@ -49,6 +47,8 @@ public class Processor extends SettingsPreferenceFragment implements
 
     private static final String TAG = "CPUSettings";
 
+    private static final long CUR_FREQ_INTERVAL = 500;
+
     private String mGovernorFormat;
     private String mMinFrequencyFormat;
     private String mMaxFrequencyFormat;
@@ -58,32 +58,16 @@ public class Processor extends SettingsPreferenceFragment implements
     private ListPreference mMinFrequencyPref;
     private ListPreference mMaxFrequencyPref;
 
-    private class CurCPUThread extends Thread {
-        private boolean mInterrupt = false;
-
-        public void interrupt() {
-            mInterrupt = true;
-        }
+    private SysfsFile mCurFreqFile;
+    private int mCurFreq = -1;
 
+    // Runs with the frames drawn while the fragment is shown, so nothing
+    // polls the file once it's in the background.
+    private final Choreographer.FrameCallback mCurFreqCallback = new Choreographer.FrameCallback() {
         @Override
-        public void run() {
-            try {
-                while (!mInterrupt) {
-                    sleep(500);
-                    final String curFreq = Utils.fileReadOneLine(FREQ_CUR_FILE);
-                    if (curFreq != null)
-                        mCurCPUHandler.sendMessage(mCurCPUHandler.obtainMessage(0, curFreq));
-                }
-            } catch (InterruptedException e) {
-            }
-        }
-    };
-
-    private CurCPUThread mCurCPUThread = new CurCPUThread();
-
-    private Handler mCurCPUHandler = new Handler() {
-        public void handleMessage(Message msg) {
-            mCurFrequencyPref.setSummary(toMHz((String) msg.obj));
+        public void doFrame(long frameTimeNanos) {
+            updateCurFrequency();
+            Choreographer.getInstance().postFrameCallbackDelayed(this, CUR_FREQ_INTERVAL);
         }
     };
 
@@ -113,7 +97,7 @@ public class Processor extends SettingsPreferenceFragment implements
 
         /* Governor
         Some systems might not use governors */
-        if (!Utils.fileExists(GOV_LIST_FILE) || !Utils.fileExists(GOV_FILE) || (temp = Utils.fileReadOneLine(GOV_FILE)) == null || (availableGovernorsLine = Utils.fileReadOneLine(GOV_LIST_FILE)) == null) {
+        if (!SysfsFile.exists(GOV_LIST_FILE) || !SysfsFile.exists(GOV_FILE) || (temp = SysfsFile.readOneLine(GOV_FILE)) == null || (availableGovernorsLine = SysfsFile.readOneLine(GOV_LIST_FILE)) == null) {
             prefScreen.removePreference(mGovernorPref);
 
         } else {
@@ -127,7 +111,7 @@ public class Processor extends SettingsPreferenceFragment implements
         }
 
         // Disable the min/max list if we dont have a list file
-        if (!Utils.fileExists(FREQ_LIST_FILE) || (availableFrequenciesLine = Utils.fileReadOneLine(FREQ_LIST_FILE)) == null) {
+        if (!SysfsFile.exists(FREQ_LIST_FILE) || (availableFrequenciesLine = SysfsFile.readOneLine(FREQ_LIST_FILE)) == null) {
             mMinFrequencyPref.setEnabled(false);
             mMaxFrequencyPref.setEnabled(false);
 
@@ -140,7 +124,7 @@ public class Processor extends SettingsPreferenceFragment implements
             }
 
             // Min frequency
-            if (!Utils.fileExists(FREQ_MIN_FILE) || (temp = Utils.fileReadOneLine(FREQ_MIN_FILE)) == null) {
+            if (!SysfsFile.exists(FREQ_MIN_FILE) || (temp = SysfsFile.readOneLine(FREQ_MIN_FILE)) == null) {
                 mMinFrequencyPref.setEnabled(false);
 
             } else {
@@ -152,7 +136,7 @@ public class Processor extends SettingsPreferenceFragment implements
             }
 
             // Max frequency
-            if (!Utils.fileExists(FREQ_MAX_FILE) || (temp = Utils.fileReadOneLine(FREQ_MAX_FILE)) == null) {
+            if (!SysfsFile.exists(FREQ_MAX_FILE) || (temp = SysfsFile.readOneLine(FREQ_MAX_FILE)) == null) {
                 mMaxFrequencyPref.setEnabled(false);
 
             } else {
@@ -165,17 +149,19 @@ public class Processor extends SettingsPreferenceFragment implements
         }
 
         // Cur frequency
-        if (!Utils.fileExists(FREQ_CUR_FILE)) {
+        if (!SysfsFile.exists(FREQ_CUR_FILE)) {
             FREQ_CUR_FILE = FREQINFO_CUR_FILE;
         }
 
-        if (!Utils.fileExists(FREQ_CUR_FILE) || (temp = Utils.fileReadOneLine(FREQ_CUR_FILE)) == null) {
+        // The only file read over and over, so the only one kept open.
+        final SysfsFile curFreqFile = new SysfsFile(FREQ_CUR_FILE);
+        if (!SysfsFile.exists(FREQ_CUR_FILE) || curFreqFile.readInt(-1) < 0) {
+            curFreqFile.close();
             mCurFrequencyPref.setEnabled(false);
 
         } else {
-            mCurFrequencyPref.setSummary(toMHz(temp));
-
-            mCurCPUThread.start();
+            mCurFreqFile = curFreqFile;
+            updateCurFrequency();
         }
     }
 
@@ -185,28 +171,47 @@ public class Processor extends SettingsPreferenceFragment implements
 
         super.onResume();
 
-        if (Utils.fileExists(FREQ_MIN_FILE) && (temp = Utils.fileReadOneLine(FREQ_MIN_FILE)) != null) {
+        if (SysfsFile.exists(FREQ_MIN_FILE) && (temp = SysfsFile.readOneLine(FREQ_MIN_FILE)) != null) {
             mMinFrequencyPref.setValue(temp);
             mMinFrequencyPref.setSummary(String.format(mMinFrequencyFormat, toMHz(temp)));
         }
 
-        if (Utils.fileExists(FREQ_MAX_FILE) && (temp = Utils.fileReadOneLine(FREQ_MAX_FILE)) != null) {
+        if (SysfsFile.exists(FREQ_MAX_FILE) && (temp = SysfsFile.readOneLine(FREQ_MAX_FILE)) != null) {
             mMaxFrequencyPref.setValue(temp);
             mMaxFrequencyPref.setSummary(String.format(mMaxFrequencyFormat, toMHz(temp)));
         }
 
-        if (Utils.fileExists(GOV_FILE) && (temp = Utils.fileReadOneLine(GOV_FILE)) != null) {
+        if (SysfsFile.exists(GOV_FILE) && (temp = SysfsFile.readOneLine(GOV_FILE)) != null) {
             mGovernorPref.setSummary(String.format(mGovernorFormat, temp));
         }
+
+        if (mCurFreqFile != null) {
+            updateCurFrequency();
+            Choreographer.getInstance().postFrameCallbackDelayed(mCurFreqCallback,
+                    CUR_FREQ_INTERVAL);
+        }
+    }
+
+    @Override
+    public void onPause() {
+        super.onPause();
+        Choreographer.getInstance().removeFrameCallback(mCurFreqCallback);
     }
 
     @Override
     public void onDestroy() {
         super.onDestroy();
-        mCurCPUThread.interrupt();
-        try {
-            mCurCPUThread.join();
-        } catch (InterruptedException e) {
+        if (mCurFreqFile != null) {
+            mCurFreqFile.close();
+        }
+    }
+
+    private void updateCurFrequency() {
+        final int curFreq = mCurFreqFile.readInt(-1);
+        // Only touch the preference, and make a String, when it changed.
+        if (curFreq >= 0 && curFreq != mCurFreq) {
+            mCurFreq = curFreq;
+            mCurFrequencyPref.setSummary(toMHz(curFreq));
         }
     }
 
@@ -222,7 +227,7 @@ public class Processor extends SettingsPreferenceFragment implements
                 fname = FREQ_MAX_FILE;
             }
 
-            if (Utils.fileWriteOneLine(fname, (String) newValue)) {
+            if (SysfsFile.writeOneLine(fname, (String) newValue)) {
                 if (preference == mGovernorPref) {
                     mGovernorPref.setSummary(String.format(mGovernorFormat, (String) newValue));
                 } else if (preference == mMinFrequencyPref) {
@@ -241,7 +246,10 @@ public class Processor extends SettingsPreferenceFragment implements
     }
 
     private String toMHz(String mhzString) {
-        return new StringBuilder().append(Integer.valueOf(mhzString) / 1000).append(" MHz")
-                .toString();
+        return toMHz(Integer.parseInt(mhzString));
+    }
+
+    private String toMHz(int khz) {
+        return new StringBuilder().append(khz / 1000).append(" MHz").toString();
     }
 }
\ No newline at end of file
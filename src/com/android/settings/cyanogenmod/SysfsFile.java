@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2013 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.cyanogenmod;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A sysfs attribute that is read over and over, e.g. the current CPU
+ * frequency. The file stays open between reads and every read starts again
+ * at offset 0 of the same descriptor, which makes sysfs produce a fresh
+ * value, into a buffer that is reused. Numbers can be read without going
+ * through a String at all.
+ *
+ * <p>Whoever creates one owns its descriptor and has to {@link #close()} it.
+ * Attributes that are only read once in a while go through the static
+ * helpers instead, which don't keep anything open.
+ */
+final class SysfsFile {
+    private static final String TAG = "SysfsFile";
+
+    // Most attributes are a single short line; lists of frequencies or
+    // governors can be longer, up to a page.
+    private static final int BUFFER_SIZE = 512;
+    private static final int MAX_BUFFER_SIZE = 4096;
+
+    static boolean exists(String path) {
+        return new File(path).exists();
+    }
+
+    /**
+     * Returns the first line of the given file, or null if it couldn't be
+     * read, closing the file again right away.
+     */
+    static String readOneLine(String path) {
+        final SysfsFile file = new SysfsFile(path);
+        try {
+            return file.readLine();
+        } finally {
+            file.close();
+        }
+    }
+
+    static boolean writeOneLine(String path, String value) {
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(path);
+            out.write(value.getBytes());
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "Error writing to " + path, e);
+            return false;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    private final String mPath;
+
+    // All protected by "this".
+    private FileInputStream mStream;
+    private FileChannel mChannel;
+    private ByteBuffer mBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    SysfsFile(String path) {
+        mPath = path;
+    }
+
+    /**
+     * Returns the first line of the file, or null if it couldn't be read.
+     */
+    synchronized String readLine() {
+        final int length = read();
+        if (length <= 0) {
+            return null;
+        }
+        final byte[] bytes = mBuffer.array();
+        int end = 0;
+        while (end < length && bytes[end] != '\n') {
+            end++;
+        }
+        return new String(bytes, 0, end);
+    }
+
+    /**
+     * Returns the number at the start of the file, or the given default if
+     * it couldn't be read or doesn't start with one.
+     */
+    synchronized int readInt(int defaultValue) {
+        final int length = read();
+        if (length < 0) {
+            return defaultValue;
+        }
+        final byte[] bytes = mBuffer.array();
+        int i = 0;
+        while (i < length && (bytes[i] == ' ' || bytes[i] == '\t')) {
+            i++;
+        }
+        final boolean negative = i < length && bytes[i] == '-';
+        if (negative) {
+            i++;
+        }
+        final int start = i;
+        long value = 0;
+        while (i < length && bytes[i] >= '0' && bytes[i] <= '9') {
+            value = value * 10 + (bytes[i] - '0');
+            if (value > Integer.MAX_VALUE) {
+                return defaultValue;
+            }
+            i++;
+        }
+        if (i == start) {
+            return defaultValue;
+        }
+        return (int) (negative ? -value : value);
+    }
+
+    /**
+     * Closes the descriptor; a later read opens the file again.
+     */
+    synchronized void close() {
+        if (mStream != null) {
+            try {
+                mStream.close();
+            } catch (IOException e) {
+            }
+            mStream = null;
+            mChannel = null;
+        }
+    }
+
+    /**
+     * Reads the whole file into mBuffer with positional reads, opening it
+     * first if needed. Returns the number of bytes read, or -1.
+     */
+    private int read() {
+        try {
+            if (mChannel == null) {
+                mStream = new FileInputStream(mPath);
+                mChannel = mStream.getChannel();
+            }
+            mBuffer.clear();
+            while (mChannel.read(mBuffer, mBuffer.position()) > 0) {
+                if (!mBuffer.hasRemaining()) {
+                    if (mBuffer.capacity() >= MAX_BUFFER_SIZE) {
+                        break;
+                    }
+                    // Didn't fit; move to a bigger buffer and keep it.
+                    final ByteBuffer bigger = ByteBuffer.allocate(mBuffer.capacity() * 2);
+                    mBuffer.flip();
+                    bigger.put(mBuffer);
+                    mBuffer = bigger;
+                }
+            }
+            return mBuffer.position();
+        } catch (IOException e) {
+            Log.e(TAG, "IO Exception when reading " + mPath, e);
+            close();
+            return -1;
+        }
+    }
+}
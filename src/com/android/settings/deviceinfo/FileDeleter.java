@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.deviceinfo;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Process;
+import android.os.UserHandle;
+import android.util.Log;
+
+import com.android.internal.app.IMediaContainerService;
+import com.android.settings.deviceinfo.StorageMeasurement.FileInfo;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deletes a batch of files and directories through a single connection to
+ * the media container service, a few at a time, and reports progress and
+ * the outcome for each of them on the main thread.
+ *
+ * <p>Once done, the {@link StorageMeasurement} is told which files went away
+ * so it can adjust its sizes without measuring everything again.
+ */
+class FileDeleter {
+    private static final String TAG = "FileDeleter";
+
+    interface Callback {
+        /**
+         * Called on the main thread as files are deleted.
+         */
+        void onDeleteProgress(int done, int total);
+
+        /**
+         * Called on the main thread once every file was tried, or the
+         * deletion was canceled. Files that weren't tried because of a
+         * cancel are in neither list.
+         */
+        void onDeleteFinished(ArrayList<FileInfo> deleted, ArrayList<FileInfo> failed);
+    }
+
+    // Deleting is mostly waiting on the file system; a couple of calls in
+    // flight keep it busy without making the binder threads fight over it.
+    private static final int NUM_THREADS = 2;
+
+    private static final ThreadPoolExecutor sExecutor = new ThreadPoolExecutor(
+            NUM_THREADS, NUM_THREADS, 10, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable r) {
+                    return new Thread("FileDeleter") {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            r.run();
+                        }
+                    };
+                }
+            });
+
+    static {
+        sExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    private final Context mContext;
+    private final StorageMeasurement mMeasurement;
+    private final List<FileInfo> mFiles;
+    private final Handler mMainHandler = new Handler();
+
+    private Callback mCallback;
+    private volatile boolean mCanceled;
+    private boolean mBound;
+
+    // All protected by "this".
+    private IMediaContainerService mImcs;
+    private int mNext;
+    private int mWorkers;
+    private final ArrayList<FileInfo> mDeleted = new ArrayList<FileInfo>();
+    private final ArrayList<FileInfo> mFailed = new ArrayList<FileInfo>();
+    private boolean mProgressPending;
+
+    /**
+     * Must be created on the main thread.
+     */
+    FileDeleter(Context context, StorageMeasurement measurement, List<FileInfo> files,
+            Callback callback) {
+        // Outlive the activity if need be, so the measurement still learns
+        // about whatever got deleted.
+        mContext = context.getApplicationContext();
+        mMeasurement = measurement;
+        mFiles = files;
+        mCallback = callback;
+    }
+
+    void start() {
+        final Intent service = new Intent().setComponent(
+                StorageMeasurement.DEFAULT_CONTAINER_COMPONENT);
+        mBound = mContext.bindService(service, mConnection, Context.BIND_AUTO_CREATE,
+                UserHandle.USER_OWNER);
+        if (!mBound) {
+            Log.w(TAG, "Unable to bind to default container service");
+            finish();
+        }
+    }
+
+    /**
+     * Stops after the files currently being deleted. The callback still
+     * gets the results so far.
+     */
+    void cancel() {
+        mCanceled = true;
+    }
+
+    /**
+     * Stops like {@link #cancel()} and drops the callback, e.g. because
+     * the activity is going away.
+     */
+    void detach() {
+        mCanceled = true;
+        mCallback = null;
+    }
+
+    private final ServiceConnection mConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder service) {
+            final int workers;
+            synchronized (FileDeleter.this) {
+                if (mImcs != null) {
+                    // Reconnected after the service died; workers are still going.
+                    return;
+                }
+                mImcs = IMediaContainerService.Stub.asInterface(service);
+                workers = mCanceled ? 0 : Math.min(NUM_THREADS, mFiles.size());
+                mWorkers = workers;
+            }
+            if (workers == 0) {
+                finish();
+                return;
+            }
+            for (int i=0; i<workers; i++) {
+                sExecutor.execute(mWorker);
+            }
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+        }
+    };
+
+    private final Runnable mWorker = new Runnable() {
+        @Override
+        public void run() {
+            final IMediaContainerService imcs;
+            synchronized (FileDeleter.this) {
+                imcs = mImcs;
+            }
+            while (true) {
+                final FileInfo info;
+                synchronized (FileDeleter.this) {
+                    if (mCanceled || mNext >= mFiles.size()) {
+                        if (--mWorkers == 0) {
+                            mMainHandler.post(mFinish);
+                        }
+                        return;
+                    }
+                    info = mFiles.get(mNext++);
+                }
+
+                final boolean deleted = delete(imcs, info.mFileName);
+                synchronized (FileDeleter.this) {
+                    if (deleted) {
+                        mDeleted.add(info);
+                    } else {
+                        mFailed.add(info);
+                    }
+                    if (!mProgressPending) {
+                        mProgressPending = true;
+                        mMainHandler.post(mProgress);
+                    }
+                }
+            }
+        }
+    };
+
+    private static boolean delete(IMediaContainerService imcs, String path) {
+        try {
+            imcs.deleteFile(path); // Works for file and directory
+        } catch (Exception e) {
+            Log.w(TAG, "Problem in container service deleting " + path, e);
+            return false;
+        }
+        // The service doesn't say whether it worked; check what we can see.
+        return !new File(path).exists();
+    }
+
+    private final Runnable mProgress = new Runnable() {
+        @Override
+        public void run() {
+            final int done;
+            synchronized (FileDeleter.this) {
+                mProgressPending = false;
+                done = mDeleted.size() + mFailed.size();
+            }
+            if (mCallback != null) {
+                mCallback.onDeleteProgress(done, mFiles.size());
+            }
+        }
+    };
+
+    private final Runnable mFinish = new Runnable() {
+        @Override
+        public void run() {
+            finish();
+        }
+    };
+
+    private void finish() {
+        if (mBound) {
+            mBound = false;
+            mContext.unbindService(mConnection);
+        }
+        mMainHandler.removeCallbacks(mProgress);
+
+        final ArrayList<FileInfo> deleted;
+        final ArrayList<FileInfo> failed;
+        synchronized (this) {
+            deleted = new ArrayList<FileInfo>(mDeleted);
+            failed = new ArrayList<FileInfo>(mFailed);
+        }
+        if (!deleted.isEmpty()) {
+            mMeasurement.invalidate(deleted);
+        }
+        if (mCallback != null) {
+            mCallback.onDeleteFinished(deleted, failed);
+        }
+    }
+}
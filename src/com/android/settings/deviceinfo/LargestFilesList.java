@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.deviceinfo;
+
+import android.util.LongSparseArray;
+
+import com.android.settings.deviceinfo.StorageMeasurement.FileInfo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+/**
+ * Files in descending order of size, filled in while they are still being
+ * listed. The largest files seen so far are kept sorted at the front as
+ * they arrive; anything that doesn't make it into that head is appended
+ * after it in arrival order and only sorted once {@link #finish()} is called,
+ * so adding stays cheap however many files there are.
+ */
+class LargestFilesList {
+    private final int mHeadCapacity;
+
+    private final ArrayList<FileInfo> mHead;
+    private final ArrayList<FileInfo> mTail = new ArrayList<FileInfo>();
+    private final LongSparseArray<FileInfo> mById = new LongSparseArray<FileInfo>();
+    private long mTotalSize;
+    private boolean mFinished;
+
+    LargestFilesList(int headCapacity) {
+        mHeadCapacity = headCapacity;
+        mHead = new ArrayList<FileInfo>(headCapacity + 1);
+    }
+
+    void add(FileInfo info) {
+        mById.put(info.mId, info);
+        mTotalSize += info.mSize;
+
+        // Everything in the tail must stay smaller than everything in the head.
+        final boolean inHead;
+        if (mHead.isEmpty()) {
+            inHead = mTail.isEmpty();
+        } else if (mTail.isEmpty()) {
+            inHead = mHead.size() < mHeadCapacity || info.mSize > last(mHead).mSize;
+        } else {
+            inHead = info.mSize > last(mHead).mSize;
+        }
+        if (!inHead) {
+            if (mFinished) {
+                insertSorted(mTail, info);
+            } else {
+                mTail.add(info);
+            }
+            return;
+        }
+
+        insertSorted(mHead, info);
+        if (mHead.size() > mHeadCapacity) {
+            final FileInfo evicted = mHead.remove(mHead.size() - 1);
+            if (mFinished) {
+                mTail.add(0, evicted);
+            } else {
+                mTail.add(evicted);
+            }
+        }
+    }
+
+    /**
+     * No more files are coming; put the rest in order too.
+     */
+    void finish() {
+        if (!mFinished) {
+            mFinished = true;
+            Collections.sort(mTail);
+        }
+    }
+
+    boolean isFinished() {
+        return mFinished;
+    }
+
+    boolean remove(FileInfo info) {
+        if (mById.get(info.mId) == null) {
+            return false;
+        }
+        mById.remove(info.mId);
+        mTotalSize -= info.mSize;
+        if (!mHead.remove(info)) {
+            mTail.remove(info);
+        }
+        return true;
+    }
+
+    int size() {
+        return mHead.size() + mTail.size();
+    }
+
+    FileInfo get(int position) {
+        final int headSize = mHead.size();
+        return position < headSize ? mHead.get(position) : mTail.get(position - headSize);
+    }
+
+    FileInfo getById(long id) {
+        return mById.get(id);
+    }
+
+    long getTotalSize() {
+        return mTotalSize;
+    }
+
+    private static FileInfo last(ArrayList<FileInfo> list) {
+        return list.get(list.size() - 1);
+    }
+
+    private static void insertSorted(ArrayList<FileInfo> list, FileInfo info) {
+        int index = Collections.binarySearch(list, info);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        list.add(index, info);
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.deviceinfo;
+
+import android.os.Process;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the tasks of one storage measurement, such as directory walks, on a
+ * small shared pool of threads, and tells its owner once all of them are
+ * done. Work that completes asynchronously elsewhere can be tracked with
+ * {@link #hold()} and {@link #release()}.
+ */
+class MeasurementScheduler {
+    // Walks mostly wait on the media container service and the disk, so a
+    // few in parallel help; many more would just fight over the same disk.
+    private static final int NUM_THREADS = 3;
+
+    private static final ThreadPoolExecutor sExecutor = new ThreadPoolExecutor(
+            NUM_THREADS, NUM_THREADS, 1, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+        private final AtomicInteger mCount = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(final Runnable r) {
+            return new Thread("MemoryMeasurement Walker #" + mCount.getAndIncrement()) {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    r.run();
+                }
+            };
+        }
+    });
+
+    static {
+        sExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    private final Runnable mOnFinished;
+
+    // Protected by mLock.
+    private final Object mLock = new Object();
+    private int mOutstanding;
+
+    private volatile boolean mCanceled;
+
+    /**
+     * @param onFinished run on whichever thread finishes the last task,
+     *            unless the measurement was canceled.
+     */
+    MeasurementScheduler(Runnable onFinished) {
+        mOnFinished = onFinished;
+    }
+
+    /**
+     * Queue a task. Tasks still queued when the measurement is canceled
+     * are skipped.
+     */
+    void submit(final Runnable task) {
+        hold();
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (!mCanceled) {
+                        task.run();
+                    }
+                } finally {
+                    release();
+                }
+            }
+        });
+    }
+
+    /**
+     * Keep the measurement from finishing until a matching {@link #release()}.
+     */
+    void hold() {
+        synchronized (mLock) {
+            mOutstanding++;
+        }
+    }
+
+    void release() {
+        final boolean finished;
+        synchronized (mLock) {
+            finished = --mOutstanding == 0;
+        }
+        if (finished && !mCanceled) {
+            mOnFinished.run();
+        }
+    }
+
+    void cancel() {
+        mCanceled = true;
+    }
+
+    boolean isCanceled() {
+        return mCanceled;
+    }
+}
@@ -18,17 +18,14 @@ package com.android.settings.deviceinfo;
 
 import android.app.Activity;
 import android.app.ListActivity;
-import android.content.ComponentName;
+import android.app.ProgressDialog;
 import android.content.Context;
-import android.content.Intent;
-import android.content.ServiceConnection;
+import android.content.DialogInterface;
 import android.os.Bundle;
-import android.os.IBinder;
-import android.os.UserHandle;
 import android.os.storage.StorageVolume;
 import android.text.format.Formatter;
 import android.util.Log;
-import android.util.SparseBooleanArray;
+import android.util.LongSparseArray;
 import android.view.ActionMode;
 import android.view.LayoutInflater;
 import android.view.Menu;
@@ -42,12 +39,11 @@ import android.widget.BaseAdapter;
 import android.widget.CompoundButton;
 import android.widget.CompoundButton.OnCheckedChangeListener;
 import android.widget.ListView;
+import android.widget.Toast;
 
-import com.android.internal.app.IMediaContainerService;
 import com.android.settings.R;
 import com.android.settings.deviceinfo.StorageMeasurement.FileInfo;
 
-import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -56,10 +52,18 @@ import java.util.List;
  */
 public class MiscFilesHandler extends ListActivity {
     private static final String TAG = "MemorySettings";
+
+    // How many of the largest files are kept in order while listing.
+    static final int SORTED_HEAD_SIZE = 100;
+
     private String mNumSelectedFormat;
     private String mNumBytesSelectedFormat;
     private MemoryMearurementAdapter mAdapter;
     private LayoutInflater mInflater;
+    private ModeCallback mModeCallback;
+    private ActionMode mActionMode;
+    private FileDeleter mDeleter;
+    private ProgressDialog mProgressDialog;
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -73,23 +77,114 @@ public class MiscFilesHandler extends ListActivity {
         setContentView(R.layout.settings_storage_miscfiles_list);
         ListView lv = getListView();
         lv.setItemsCanFocus(true);
-        lv.setChoiceMode(ListView.CHOICE_MODE_MULTIPLE_MODAL);
-        lv.setMultiChoiceModeListener(new ModeCallback(this));
+        mModeCallback = new ModeCallback(this);
         setListAdapter(mAdapter);
     } 
 
-    private class ModeCallback implements ListView.MultiChoiceModeListener {
-        private int mDataCount;
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mAdapter.cancel();
+        if (mDeleter != null) {
+            // Let the files being deleted finish; nothing left to show them in.
+            mDeleter.detach();
+            mDeleter = null;
+        }
+        if (mProgressDialog != null) {
+            mProgressDialog.dismiss();
+            mProgressDialog = null;
+        }
+    }
+
+    private void deleteFiles(ArrayList<FileInfo> files) {
+        final StorageMeasurement measurement = mAdapter.getMeasurement();
+        if (measurement == null) {
+            return;
+        }
+        mDeleter = new FileDeleter(this, measurement, files, mDeleteCallback);
+
+        mProgressDialog = new ProgressDialog(this);
+        mProgressDialog.setMessage(getText(R.string.misc_files_deleting));
+        mProgressDialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+        mProgressDialog.setMax(files.size());
+        mProgressDialog.setCanceledOnTouchOutside(false);
+        mProgressDialog.setOnCancelListener(new DialogInterface.OnCancelListener() {
+            @Override
+            public void onCancel(DialogInterface dialog) {
+                if (mDeleter != null) {
+                    mDeleter.cancel();
+                }
+            }
+        });
+        mProgressDialog.setButton(DialogInterface.BUTTON_NEGATIVE,
+                getText(android.R.string.cancel), new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                dialog.cancel();
+            }
+        });
+        mProgressDialog.show();
+
+        mDeleter.start();
+    }
+
+    private final FileDeleter.Callback mDeleteCallback = new FileDeleter.Callback() {
+        @Override
+        public void onDeleteProgress(int done, int total) {
+            if (mProgressDialog != null) {
+                mProgressDialog.setProgress(done);
+            }
+        }
+
+        @Override
+        public void onDeleteFinished(ArrayList<FileInfo> deleted, ArrayList<FileInfo> failed) {
+            mDeleter = null;
+            if (mProgressDialog != null) {
+                mProgressDialog.dismiss();
+                mProgressDialog = null;
+            }
+            // Whatever failed or wasn't tried stays listed.
+            mAdapter.removeAll(deleted);
+            mAdapter.notifyDataSetChanged();
+            if (!failed.isEmpty()) {
+                for (FileInfo info : failed) {
+                    Log.w(TAG, "Unable to delete " + info.mFileName);
+                }
+                Toast.makeText(MiscFilesHandler.this,
+                        getString(R.string.misc_files_delete_failed, failed.size()),
+                        Toast.LENGTH_LONG).show();
+            }
+        }
+    };
+
+    /**
+     * Starts, updates or ends the action mode to match what's selected.
+     */
+    private void onSelectionChanged() {
+        if (mAdapter.getCheckedCount() == 0) {
+            if (mActionMode != null) {
+                mActionMode.finish();
+            }
+        } else if (mActionMode == null) {
+            startActionMode(mModeCallback);
+        } else {
+            mModeCallback.updateTitle(mActionMode);
+        }
+        mAdapter.notifyDataSetChanged();
+    }
+
+    private class ModeCallback implements ActionMode.Callback {
         private final Context mContext;
 
         public ModeCallback(Context context) {
             mContext = context;
-            mDataCount = mAdapter.getCount();
         }
 
         public boolean onCreateActionMode(ActionMode mode, Menu menu) {
             final MenuInflater inflater = getMenuInflater();
             inflater.inflate(R.menu.misc_files_menu, menu);
+            mActionMode = mode;
+            updateTitle(mode);
             return true;
         }
 
@@ -98,134 +193,107 @@ public class MiscFilesHandler extends ListActivity {
         }
 
         public boolean onActionItemClicked(ActionMode mode, MenuItem item) {
-            ListView lv = getListView();
             switch (item.getItemId()) {
             case R.id.action_delete:
                 // delete the files selected
-                SparseBooleanArray checkedItems = lv.getCheckedItemPositions();
-                int checkedCount = getListView().getCheckedItemCount();
-                if (checkedCount > mDataCount) {
-                    throw new IllegalStateException("checked item counts do not match. " +
-                            "checkedCount: " + checkedCount + ", dataSize: " + mDataCount);
-                }
-                if (mDataCount > 0) {
-                    ArrayList<Object> toRemove = new ArrayList<Object>();
-                    for (int i = 0; i < mDataCount; i++) {
-                        if (!checkedItems.get(i)) {
-                            //item not selected
-                            continue;
-                        }
-                        if (StorageMeasurement.LOGV) {
-                            Log.i(TAG, "deleting: " + mAdapter.getItem(i));
-                        }
-                        // delete the file
-                        new DeleteHandler(mAdapter.getItem(i).mFileName);
-                        toRemove.add(mAdapter.getItem(i));
+                final ArrayList<FileInfo> toRemove = mAdapter.getCheckedFiles();
+                if (StorageMeasurement.LOGV) {
+                    for (FileInfo info : toRemove) {
+                        Log.i(TAG, "deleting: " + info);
                     }
-                    mAdapter.removeAll(toRemove);
-                    mAdapter.notifyDataSetChanged();
-                    mDataCount = mAdapter.getCount();
+                }
+                if (!toRemove.isEmpty()) {
+                    deleteFiles(toRemove);
                 }
                 mode.finish();
                 break;
 
             case R.id.action_select_all:
-                // check ALL items
-                for (int i = 0; i < mDataCount; i++) {
-                    lv.setItemChecked(i, true);
-                }
-                // update the title and subtitle with number selected and numberBytes selected
-                onItemCheckedStateChanged(mode, 1, 0, true);
+                // check ALL items listed so far
+                mAdapter.checkAll();
                 break;
             }
             return true;
         }
 
-        private class DeleteHandler {
-            private ServiceConnection mDefContainerConn = new ServiceConnection() {
-                @Override
-                public void onServiceConnected(ComponentName name, IBinder service) {
-                    final IMediaContainerService imcs = IMediaContainerService.Stub.asInterface(
-                            service);
-                    try {
-                        imcs.deleteFile(mPath); // Works for file and directory   
-                    } catch (Exception e) {
-                        Log.w(TAG, "Problem in container service", e);
-                    }
-                    unbindService(mDefContainerConn);
-                }
-
-                @Override
-                public void onServiceDisconnected(ComponentName name) {
-                }
-            };
-
-            private String mPath;
-
-            public DeleteHandler(String path) {
-                mPath = path;
-                Intent service = new Intent().setComponent(
-                        StorageMeasurement.DEFAULT_CONTAINER_COMPONENT);
-                bindService(service, mDefContainerConn, Context.BIND_AUTO_CREATE,
-                        UserHandle.USER_OWNER);
-            }
-        }
-
         public void onDestroyActionMode(ActionMode mode) {
-            // This block intentionally left blank
+            mActionMode = null;
+            mAdapter.clearChecked();
         }
 
-        public void onItemCheckedStateChanged(ActionMode mode, int position, long id,
-                boolean checked) {
-            ListView lv = getListView();
-            int numChecked = lv.getCheckedItemCount();
-            mode.setTitle(String.format(mNumSelectedFormat, numChecked, mAdapter.getCount()));
-
-            // total the sizes of all items selected so far
-            SparseBooleanArray checkedItems = lv.getCheckedItemPositions();
-            long selectedDataSize = 0;
-            if (numChecked > 0) {
-                for (int i = 0; i < mDataCount; i++) {
-                    if (checkedItems.get(i)) {
-                        // item is checked
-                        selectedDataSize += mAdapter.getItem(i).mSize;
-                    }
-                }
-            }
+        void updateTitle(ActionMode mode) {
+            mode.setTitle(String.format(mNumSelectedFormat, mAdapter.getCheckedCount(),
+                    mAdapter.getCount()));
             mode.setSubtitle(String.format(mNumBytesSelectedFormat,
-                    Formatter.formatFileSize(mContext, selectedDataSize),
+                    Formatter.formatFileSize(mContext, mAdapter.getCheckedSize()),
                     Formatter.formatFileSize(mContext, mAdapter.getDataSize())));
         }
     }
 
-    class MemoryMearurementAdapter extends BaseAdapter {
-        private ArrayList<StorageMeasurement.FileInfo> mData = null;
-        private long mDataSize = 0;
+    class MemoryMearurementAdapter extends BaseAdapter implements MiscFilesLister.Callback {
+        private final LargestFilesList mData = new LargestFilesList(SORTED_HEAD_SIZE);
         private Context mContext;
+        private MiscFilesLister mLister;
+        private StorageMeasurement mMeasurement;
+
+        // What's selected, by id. The list's own check states can't be used:
+        // it only looks for a checked item a few rows around where it was,
+        // and rows move a lot further while files are still being listed.
+        private final LongSparseArray<FileInfo> mChecked = new LongSparseArray<FileInfo>();
+        private long mCheckedSize;
 
         public MemoryMearurementAdapter(Activity activity) {
             mContext = activity;
             final StorageVolume storageVolume = activity.getIntent().getParcelableExtra(
                     StorageVolume.EXTRA_STORAGE_VOLUME);
-            StorageMeasurement mMeasurement = StorageMeasurement.getInstance(
+            mMeasurement = StorageMeasurement.getInstance(
                     activity, storageVolume);
             if (mMeasurement == null) return;
-            mData = (ArrayList<StorageMeasurement.FileInfo>) mMeasurement.mFileInfoForMisc;
-            if (mData != null) {
-                for (StorageMeasurement.FileInfo info : mData) {
-                    mDataSize += info.mSize;
+            final LargestFilesList measured = mMeasurement.mFileInfoForMisc;
+            if (measured != null) {
+                // The last measurement already listed everything.
+                final int count = measured.size();
+                for (int i = 0; i < count; i++) {
+                    mData.add(measured.get(i));
                 }
+                mData.finish();
+            } else {
+                mLister = new MiscFilesLister(mMeasurement.getMiscDirectory(),
+                        mMeasurement.getIndex(), this);
+                mLister.start();
+            }
+        }
+
+        @Override
+        public void onFilesListed(ArrayList<FileInfo> files, boolean finished) {
+            for (int i = 0; i < files.size(); i++) {
+                mData.add(files.get(i));
+            }
+            if (finished) {
+                mData.finish();
+                mLister = null;
+            }
+            notifyDataSetChanged();
+            if (mActionMode != null) {
+                mModeCallback.updateTitle(mActionMode);
+            }
+        }
+
+        void cancel() {
+            if (mLister != null) {
+                mLister.cancel();
+                mLister = null;
             }
         }
 
         @Override
         public int getCount() {
-            return (mData == null) ? 0 : mData.size();
+            return mData.size();
         }
 
         @Override
         public StorageMeasurement.FileInfo getItem(int position) {
-            if (mData == null || mData.size() <= position) {
+            if (mData.size() <= position) {
                 return null;
             }
             return mData.get(position);
@@ -233,29 +301,90 @@ public class MiscFilesHandler extends ListActivity {
 
         @Override
         public long getItemId(int position) {
-            if (mData == null || mData.size() <= position) {
+            if (mData.size() <= position) {
                 return 0;
             }
             return mData.get(position).mId;
         }
 
-        public void removeAll(List<Object> objs) {
-            if (mData == null) {
+        @Override
+        public boolean hasStableIds() {
+            return true;
+        }
+
+        boolean isChecked(FileInfo info) {
+            return mChecked.get(info.mId) != null;
+        }
+
+        void setChecked(FileInfo info, boolean checked) {
+            if (checked == isChecked(info)) {
                 return;
             }
-            for (Object o : objs) {
-                mData.remove(o);
-                mDataSize -= ((StorageMeasurement.FileInfo) o).mSize;
+            if (checked) {
+                mChecked.put(info.mId, info);
+                mCheckedSize += info.mSize;
+            } else {
+                mChecked.remove(info.mId);
+                mCheckedSize -= info.mSize;
             }
+            onSelectionChanged();
         }
 
-        public long getDataSize() {
-            return mDataSize;
+        void checkAll() {
+            final int count = mData.size();
+            for (int i = 0; i < count; i++) {
+                final FileInfo info = mData.get(i);
+                if (!isChecked(info)) {
+                    mChecked.put(info.mId, info);
+                    mCheckedSize += info.mSize;
+                }
+            }
+            onSelectionChanged();
         }
 
-        @Override
-        public void notifyDataSetChanged() {
-            super.notifyDataSetChanged();
+        void clearChecked() {
+            mChecked.clear();
+            mCheckedSize = 0;
+            notifyDataSetChanged();
+        }
+
+        int getCheckedCount() {
+            return mChecked.size();
+        }
+
+        long getCheckedSize() {
+            return mCheckedSize;
+        }
+
+        ArrayList<FileInfo> getCheckedFiles() {
+            final int count = mChecked.size();
+            final ArrayList<FileInfo> files = new ArrayList<FileInfo>(count);
+            for (int i = 0; i < count; i++) {
+                files.add(mChecked.valueAt(i));
+            }
+            return files;
+        }
+
+        StorageMeasurement getMeasurement() {
+            return mMeasurement;
+        }
+
+        public FileInfo getItemById(long id) {
+            return mData.getById(id);
+        }
+
+        public void removeAll(List<FileInfo> infos) {
+            for (FileInfo info : infos) {
+                mData.remove(info);
+                if (isChecked(info)) {
+                    mChecked.remove(info.mId);
+                    mCheckedSize -= info.mSize;
+                }
+            }
+        }
+
+        public long getDataSize() {
+            return mData.getTotalSize();
         }
 
         @Override
@@ -263,34 +392,34 @@ public class MiscFilesHandler extends ListActivity {
             final FileItemInfoLayout view = (convertView == null) ?
                     (FileItemInfoLayout) mInflater.inflate(R.layout.settings_storage_miscfiles,
                             parent, false) : (FileItemInfoLayout) convertView;
-            FileInfo item = getItem(position);
+            final FileInfo item = getItem(position);
             view.setFileName(item.mFileName);
             view.setFileSize(Formatter.formatFileSize(mContext, item.mSize));
-            final ListView listView = (ListView) parent;
-            final int listPosition = position;
+            // Listeners go by file rather than position, since positions
+            // change while files are still being listed.
+            view.getCheckBox().setOnCheckedChangeListener(null);
+            view.setChecked(isChecked(item));
             view.getCheckBox().setOnCheckedChangeListener(new OnCheckedChangeListener() {
-                
                 @Override
                 public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
-                    listView.setItemChecked(listPosition, isChecked);
+                    setChecked(item, isChecked);
                 }
-                
             });
             view.setOnLongClickListener(new OnLongClickListener() {
                 @Override
                 public boolean onLongClick(View v) {
-                    if (listView.getCheckedItemCount() > 0) {
+                    if (getCheckedCount() > 0) {
                         return false;
                     }
-                    listView.setItemChecked(listPosition, !view.isChecked());
+                    setChecked(item, true);
                     return true;
                 }
             });
             view.setOnClickListener(new OnClickListener() {
                 @Override
                 public void onClick(View v) {
-                    if (listView.getCheckedItemCount() > 0) {
-                        listView.setItemChecked(listPosition, !view.isChecked());
+                    if (getCheckedCount() > 0) {
+                        setChecked(item, !isChecked(item));
                     }
                 }
             });
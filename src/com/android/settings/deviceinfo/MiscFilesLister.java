@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.deviceinfo;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+
+import com.android.settings.deviceinfo.StorageMeasurement.FileInfo;
+
+import java.io.File;
+import java.util.ArrayList;
+
+/**
+ * Lists the misc files of a volume on a background thread and hands them
+ * to the main thread a chunk at a time, so a directory with many entries
+ * starts showing up right away instead of after all of it was measured.
+ * Directory sizes come from the {@link StorageIndex}.
+ */
+class MiscFilesLister {
+    interface Callback {
+        /**
+         * Called on the main thread with the next files listed.
+         *
+         * @param finished true once this is the last chunk.
+         */
+        void onFilesListed(ArrayList<FileInfo> files, boolean finished);
+    }
+
+    private static final int CHUNK_SIZE = 32;
+
+    private static HandlerThread sThread;
+
+    private static synchronized Handler getWorkerHandler() {
+        if (sThread == null) {
+            sThread = new HandlerThread("MiscFilesLister", Process.THREAD_PRIORITY_BACKGROUND);
+            sThread.start();
+        }
+        return new Handler(sThread.getLooper());
+    }
+
+    private final File mDir;
+    private final StorageIndex mIndex;
+    private final Callback mCallback;
+    private final Handler mMainHandler = new Handler();
+    private final Handler mWorkerHandler = getWorkerHandler();
+
+    private volatile boolean mCanceled;
+
+    /**
+     * Must be created on the main thread.
+     */
+    MiscFilesLister(File dir, StorageIndex index, Callback callback) {
+        mDir = dir;
+        mIndex = index;
+        mCallback = callback;
+    }
+
+    void start() {
+        mWorkerHandler.post(mWorker);
+    }
+
+    void cancel() {
+        mCanceled = true;
+        mWorkerHandler.removeCallbacks(mWorker);
+        mMainHandler.removeCallbacksAndMessages(null);
+    }
+
+    private final Runnable mWorker = new Runnable() {
+        @Override
+        public void run() {
+            final String[] names = mDir.list();
+            final int count = names != null ? names.length : 0;
+
+            ArrayList<FileInfo> chunk = new ArrayList<FileInfo>(CHUNK_SIZE);
+            for (int i = 0; i < count; i++) {
+                if (mCanceled) {
+                    return;
+                }
+                if (StorageMeasurement.isMediaType(names[i])) {
+                    continue;
+                }
+
+                final File file = new File(mDir, names[i]);
+                final long size;
+                if (file.isDirectory()) {
+                    size = mIndex.measure(file);
+                } else if (file.isFile()) {
+                    size = file.length();
+                } else {
+                    // Non directory, non file: not listed
+                    continue;
+                }
+                chunk.add(new FileInfo(file.getPath(), size, i));
+
+                if (chunk.size() == CHUNK_SIZE) {
+                    deliver(chunk, false);
+                    chunk = new ArrayList<FileInfo>(CHUNK_SIZE);
+                }
+            }
+            mIndex.save();
+            deliver(chunk, true);
+        }
+    };
+
+    private void deliver(final ArrayList<FileInfo> files, final boolean finished) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!mCanceled) {
+                    mCallback.onFilesListed(files, finished);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.deviceinfo;
+
+import android.content.Context;
+import android.text.format.DateUtils;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Persistent index of directory sizes on external storage, so that
+ * measuring a tree again only has to list the directories that changed.
+ *
+ * <p>Each directory is recorded with its modification time, the total size
+ * of the files directly inside it, its number of children and the names of
+ * its subdirectories. Adding, removing or renaming a child updates a
+ * directory's modification time, so a directory whose time still matches
+ * only needs its subdirectories to be visited, not its files listed.
+ * Rewriting a file in place doesn't touch the directory, so entries are
+ * also listed again once they are older than {@link #MAX_AGE}.
+ *
+ * <p>Sizes are the sum of file lengths, which differs slightly from the
+ * block usage reported by the media container service.
+ */
+final class StorageIndex {
+    static final String TAG = "StorageIndex";
+    static final boolean DEBUG = false;
+
+    static final String FILE_NAME = "storage_index";
+
+    private static final int MAGIC = 0x53494458; // "SIDX"
+    private static final int VERSION = 1;
+
+    private static final long MAX_AGE = DateUtils.DAY_IN_MILLIS;
+
+    // Modification times can be as coarse as two seconds (on FAT), so a
+    // directory listed within that window of its last change could change
+    // again without its time moving.
+    private static final long MTIME_GRANULARITY = 2 * DateUtils.SECOND_IN_MILLIS;
+
+    private static final String[] EMPTY = new String[0];
+
+    static final class Entry {
+        final long mtime;
+        final long listed;
+        final long filesSize;
+        final int childCount;
+        final String[] dirs;
+        final long size;
+
+        Entry(long mtime, long listed, long filesSize, int childCount, String[] dirs,
+                long size) {
+            this.mtime = mtime;
+            this.listed = listed;
+            this.filesSize = filesSize;
+            this.childCount = childCount;
+            this.dirs = dirs;
+            this.size = size;
+        }
+
+        Entry withSize(long newSize) {
+            return new Entry(mtime, listed, filesSize, childCount, dirs, newSize);
+        }
+
+        boolean isCurrent(long currentMtime, long now) {
+            return mtime == currentMtime && mtime != 0
+                    && listed - mtime >= MTIME_GRANULARITY
+                    && now - listed < MAX_AGE;
+        }
+    }
+
+    private static StorageIndex sInstance;
+
+    static synchronized StorageIndex getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new StorageIndex(context.getApplicationContext().getCacheDir());
+        }
+        return sInstance;
+    }
+
+    private final AtomicFile mFile;
+
+    // All protected by "this".
+    private final HashMap<String, Entry> mEntries = new HashMap<String, Entry>();
+    private boolean mLoaded;
+    private boolean mDirty;
+
+    StorageIndex(File dir) {
+        mFile = new AtomicFile(new File(dir, FILE_NAME));
+    }
+
+    /**
+     * Returns the size of everything under the given directory, listing
+     * only the directories that changed since they were last indexed. Safe
+     * to call from several threads at once.
+     */
+    long measure(File dir) {
+        synchronized (this) {
+            loadLocked();
+        }
+        final long size = measure(dir, System.currentTimeMillis());
+        if (DEBUG) Log.d(TAG, "measure(" + dir + ") returned " + size);
+        return size;
+    }
+
+    private long measure(File dir, long now) {
+        final String path = dir.getPath();
+        final long mtime = dir.lastModified();
+        final Entry entry;
+        synchronized (this) {
+            entry = mEntries.get(path);
+        }
+
+        if (entry != null && entry.isCurrent(mtime, now)) {
+            // Same children as last time; only what's below them can differ.
+            long size = entry.filesSize;
+            for (String name : entry.dirs) {
+                size += measure(new File(dir, name), now);
+            }
+            if (size != entry.size) {
+                synchronized (this) {
+                    mEntries.put(path, entry.withSize(size));
+                    mDirty = true;
+                }
+            }
+            return size;
+        }
+
+        final String[] names = dir.list();
+        if (names == null) {
+            synchronized (this) {
+                removeLocked(path);
+            }
+            return 0;
+        }
+
+        long filesSize = 0;
+        long size = 0;
+        final ArrayList<String> dirs = new ArrayList<String>();
+        for (String name : names) {
+            final File file = new File(dir, name);
+            if (file.isDirectory()) {
+                dirs.add(name);
+                size += measure(file, now);
+            } else {
+                filesSize += file.length();
+            }
+        }
+        size += filesSize;
+
+        synchronized (this) {
+            if (entry != null) {
+                // Forget subdirectories that went away along with their children.
+                for (String name : entry.dirs) {
+                    if (!dirs.contains(name)) {
+                        removeLocked(new File(dir, name).getPath());
+                    }
+                }
+            }
+            mEntries.put(path, new Entry(mtime, now, filesSize, names.length,
+                    dirs.toArray(EMPTY), size));
+            mDirty = true;
+        }
+        return size;
+    }
+
+    /**
+     * Forget a directory and everything indexed below it, e.g. because
+     * files were deleted from it.
+     */
+    synchronized void invalidate(File dir) {
+        removeLocked(dir.getPath());
+    }
+
+    private void removeLocked(String path) {
+        final Entry entry = mEntries.remove(path);
+        if (entry != null) {
+            mDirty = true;
+            for (String name : entry.dirs) {
+                removeLocked(path + File.separator + name);
+            }
+        }
+    }
+
+    private void loadLocked() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+        final File file = mFile.getBaseFile();
+        if (!file.exists()) {
+            return;
+        }
+        FileInputStream fis = null;
+        try {
+            fis = mFile.openRead();
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(fis));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                if (DEBUG) Log.i(TAG, "Ignoring index with unknown version");
+                return;
+            }
+            final int N = in.readInt();
+            for (int i=0; i<N; i++) {
+                final String path = in.readUTF();
+                final long mtime = in.readLong();
+                final long listed = in.readLong();
+                final long filesSize = in.readLong();
+                final int childCount = in.readInt();
+                final String[] dirs = new String[in.readInt()];
+                for (int j=0; j<dirs.length; j++) {
+                    dirs[j] = in.readUTF();
+                }
+                final long size = in.readLong();
+                mEntries.put(path, new Entry(mtime, listed, filesSize, childCount, dirs, size));
+            }
+            if (DEBUG) Log.i(TAG, "Loaded " + N + " directories from index");
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to read index", e);
+            mEntries.clear();
+        } finally {
+            if (fis != null) {
+                try {
+                    fis.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the index out if anything changed since it was loaded.
+     */
+    synchronized void save() {
+        if (!mDirty) {
+            return;
+        }
+        FileOutputStream fos = null;
+        try {
+            fos = mFile.startWrite();
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(mEntries.size());
+            for (Map.Entry<String, Entry> e : mEntries.entrySet()) {
+                final Entry entry = e.getValue();
+                out.writeUTF(e.getKey());
+                out.writeLong(entry.mtime);
+                out.writeLong(entry.listed);
+                out.writeLong(entry.filesSize);
+                out.writeInt(entry.childCount);
+                out.writeInt(entry.dirs.length);
+                for (String name : entry.dirs) {
+                    out.writeUTF(name);
+                }
+                out.writeLong(entry.size);
+            }
+            out.flush();
+            mFile.finishWrite(fos);
+            mDirty = false;
+            if (DEBUG) Log.i(TAG, "Wrote " + mEntries.size() + " directories to index");
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to write index", e);
+            if (fos != null) {
+                mFile.failWrite(fos);
+            }
+        }
+    }
+}
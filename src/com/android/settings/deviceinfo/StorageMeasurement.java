@@ -46,9 +46,8 @@ import com.google.common.collect.Sets;
 
 import java.io.File;
 import java.lang.ref.WeakReference;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -97,6 +96,26 @@ public class StorageMeasurement {
     }
 
     public static class MeasurementDetails {
+        /** {@link #appsSize} and {@link #cacheSize} are known. */
+        public static final int MEASURED_APPS = 1 << 0;
+        /** Every type in {@link #mediaSize} is known. */
+        public static final int MEASURED_MEDIA = 1 << 1;
+        /** {@link #miscSize} is known. */
+        public static final int MEASURED_MISC = 1 << 2;
+        /** {@link #usersSize} is known. */
+        public static final int MEASURED_USERS = 1 << 3;
+        public static final int MEASURED_ALL = MEASURED_APPS | MEASURED_MEDIA
+                | MEASURED_MISC | MEASURED_USERS;
+
+        /**
+         * Categories that are done measuring, as a combination of the
+         * {@code MEASURED_} flags. Details are delivered each time a
+         * category finishes, so values of the others may still be partial.
+         * Individual media types are known as soon as they are present in
+         * {@link #mediaSize}.
+         */
+        public int measured;
+
         public long totalSize;
         public long availSize;
 
@@ -142,6 +161,25 @@ public class StorageMeasurement {
          * internal storage. Key is {@link UserHandle}.
          */
         public SparseLongArray usersSize = new SparseLongArray();
+
+        public boolean isMeasured(int category) {
+            return (measured & category) == category;
+        }
+
+        MeasurementDetails copy() {
+            final MeasurementDetails copy = new MeasurementDetails();
+            copy.measured = measured;
+            copy.totalSize = totalSize;
+            copy.availSize = availSize;
+            copy.appsSize = appsSize;
+            copy.cacheSize = cacheSize;
+            copy.mediaSize.putAll(mediaSize);
+            copy.miscSize = miscSize;
+            for (int i = 0; i < usersSize.size(); i++) {
+                copy.usersSize.put(usersSize.keyAt(i), usersSize.valueAt(i));
+            }
+            return copy;
+        }
     }
 
     public interface MeasurementReceiver {
@@ -162,12 +200,18 @@ public class StorageMeasurement {
     private long mTotalSize;
     private long mAvailSize;
 
-    List<FileInfo> mFileInfoForMisc;
+    /** Misc files of the last measurement, largest first; not modified once set. */
+    volatile LargestFilesList mFileInfoForMisc;
+
+    private volatile ExactMeasurement mActiveMeasurement;
+
+    private final StorageIndex mIndex;
 
     private StorageMeasurement(Context context, StorageVolume volume) {
         mVolume = volume;
         mIsInternal = volume == null;
         mIsPrimary = volume != null ? volume.isPrimary() : false;
+        mIndex = StorageIndex.getInstance(context);
 
         // Start the thread that will measure the disk usage.
         final HandlerThread handlerThread = new HandlerThread("MemoryMeasurement");
@@ -189,14 +233,53 @@ public class StorageMeasurement {
 
     public void cleanUp() {
         mReceiver = null;
+        final ExactMeasurement active = mActiveMeasurement;
+        if (active != null) {
+            active.cancel();
+        }
         mHandler.removeMessages(MeasurementHandler.MSG_MEASURE);
         mHandler.sendEmptyMessage(MeasurementHandler.MSG_DISCONNECT);
     }
 
+    /**
+     * Directory whose entries count as misc files, other than the ones
+     * named after media types.
+     */
+    File getMiscDirectory() {
+        return mIsInternal
+                ? new UserEnvironment(ActivityManager.getCurrentUser()).getExternalStorageDirectory()
+                : mVolume.getPathFile();
+    }
+
+    static boolean isMediaType(String name) {
+        return sMeasureMediaTypes.contains(name);
+    }
+
+    StorageIndex getIndex() {
+        return mIndex;
+    }
+
     public void invalidate() {
         mHandler.sendEmptyMessage(MeasurementHandler.MSG_INVALIDATE);
     }
 
+    /**
+     * Like {@link #invalidate()}, except that details which were brought up
+     * to date by {@link #invalidate(List)} since they were last measured
+     * are kept.
+     */
+    public void invalidateIfStale() {
+        mHandler.sendMessage(mHandler.obtainMessage(MeasurementHandler.MSG_INVALIDATE, 1, 0));
+    }
+
+    /**
+     * The given misc files were deleted; take their sizes off the cached
+     * details and deliver them again, instead of measuring everything over.
+     */
+    public void invalidate(List<FileInfo> removed) {
+        mHandler.sendMessage(mHandler.obtainMessage(MeasurementHandler.MSG_REMOVED, removed));
+    }
+
     private void sendInternalApproximateUpdate() {
         MeasurementReceiver receiver = (mReceiver != null) ? mReceiver.get() : null;
         if (receiver == null) {
@@ -216,32 +299,82 @@ public class StorageMeasurement {
         receiver.updateDetails(this, details);
     }
 
+    /**
+     * Requests package sizes for every app of every user, keeping at most
+     * {@link #STATS_WINDOW} requests outstanding so the package manager
+     * isn't handed thousands at once.
+     */
     private static class StatsObserver extends IPackageStatsObserver.Stub {
+        private static final int STATS_WINDOW = 16;
+
         private final boolean mIsInternal;
         private final MeasurementDetails mDetails;
         private final int mCurrentUser;
-        private final Message mFinished;
-
+        private final PackageManager mPm;
+        private final List<ApplicationInfo> mApps;
+        private final List<UserInfo> mUsers;
+        private final MeasurementScheduler mScheduler;
+        private final Runnable mFinished;
+
+        // All protected by mDetails.
+        private final int mCount;
+        private int mNext;
         private int mRemaining;
 
         public StatsObserver(boolean isInternal, MeasurementDetails details, int currentUser,
-                Message finished, int remaining) {
+                PackageManager pm, List<ApplicationInfo> apps, List<UserInfo> users,
+                MeasurementScheduler scheduler, Runnable finished) {
             mIsInternal = isInternal;
             mDetails = details;
             mCurrentUser = currentUser;
+            mPm = pm;
+            mApps = apps;
+            mUsers = users;
+            mScheduler = scheduler;
             mFinished = finished;
-            mRemaining = remaining;
+            mCount = users.size() * apps.size();
+            mRemaining = mCount;
+        }
+
+        public void start() {
+            if (mCount == 0) {
+                mFinished.run();
+                return;
+            }
+            for (int i = 0; i < STATS_WINDOW; i++) {
+                if (!requestNext()) {
+                    break;
+                }
+            }
+        }
+
+        private boolean requestNext() {
+            final int index;
+            synchronized (mDetails) {
+                if (mNext == mCount || mScheduler.isCanceled()) {
+                    return false;
+                }
+                index = mNext++;
+            }
+            final ApplicationInfo app = mApps.get(index % mApps.size());
+            final UserInfo user = mUsers.get(index / mApps.size());
+            mPm.getPackageSizeInfo(app.packageName, user.id, this);
+            return true;
         }
 
         @Override
         public void onGetStatsCompleted(PackageStats stats, boolean succeeded) {
+            final boolean finished;
             synchronized (mDetails) {
                 if (succeeded) {
                     addStatsLocked(stats);
                 }
-                if (--mRemaining == 0) {
-                    mFinished.sendToTarget();
-                }
+                finished = --mRemaining == 0;
+            }
+            if (finished) {
+                mFinished.run();
+            } else {
+                requestNext();
             }
         }
 
@@ -286,6 +419,7 @@ public class StorageMeasurement {
         public static final int MSG_DISCONNECT = 3;
         public static final int MSG_COMPLETED = 4;
         public static final int MSG_INVALIDATE = 5;
+        public static final int MSG_REMOVED = 6;
 
         private Object mLock = new Object();
 
@@ -294,6 +428,7 @@ public class StorageMeasurement {
         private volatile boolean mBound = false;
 
         private MeasurementDetails mCached;
+        private boolean mUpdatedInPlace;
 
         private final WeakReference<Context> mContext;
 
@@ -348,7 +483,10 @@ public class StorageMeasurement {
                 case MSG_CONNECTED: {
                     IMediaContainerService imcs = (IMediaContainerService) msg.obj;
                     measureApproximateStorage(imcs);
-                    measureExactStorage(imcs);
+                    final ExactMeasurement active = mActiveMeasurement;
+                    if (active == null || active.isCanceled()) {
+                        measureExactStorage(imcs);
+                    }
                     break;
                 }
                 case MSG_DISCONNECT: {
@@ -367,16 +505,77 @@ public class StorageMeasurement {
                 }
                 case MSG_COMPLETED: {
                     mCached = (MeasurementDetails) msg.obj;
+                    mUpdatedInPlace = false;
+                    final ExactMeasurement active = mActiveMeasurement;
+                    if (active != null && active.mDetails == mCached) {
+                        mActiveMeasurement = null;
+                    }
                     sendExactUpdate(mCached);
                     break;
                 }
                 case MSG_INVALIDATE: {
-                    mCached = null;
+                    final boolean onlyIfStale = msg.arg1 != 0;
+                    if (!onlyIfStale || !mUpdatedInPlace) {
+                        mCached = null;
+                    }
+                    mUpdatedInPlace = false;
+                    break;
+                }
+                case MSG_REMOVED: {
+                    @SuppressWarnings("unchecked")
+                    final List<FileInfo> removed = (List<FileInfo>) msg.obj;
+                    removeMiscFiles(removed);
                     break;
                 }
             }
         }
 
+        private void removeMiscFiles(List<FileInfo> removed) {
+            long removedSize = 0;
+            final HashSet<String> paths = Sets.newHashSet();
+            for (FileInfo info : removed) {
+                removedSize += info.mSize;
+                paths.add(info.mFileName);
+                mIndex.invalidate(new File(info.mFileName));
+            }
+            mIndex.save();
+
+            final LargestFilesList misc = mFileInfoForMisc;
+            if (misc != null) {
+                final LargestFilesList remaining = new LargestFilesList(
+                        MiscFilesHandler.SORTED_HEAD_SIZE);
+                final int count = misc.size();
+                for (int i = 0; i < count; i++) {
+                    final FileInfo info = misc.get(i);
+                    if (!paths.contains(info.mFileName)) {
+                        remaining.add(info);
+                    }
+                }
+                remaining.finish();
+                mFileInfoForMisc = remaining;
+            }
+
+            // A measurement still running may or may not have seen these
+            // files; let it finish and be replaced by the next full one.
+            if (mCached == null) {
+                return;
+            }
+            final MeasurementDetails details = mCached.copy();
+            details.miscSize = Math.max(0, details.miscSize - removedSize);
+            details.availSize += removedSize;
+            final int currentUser = ActivityManager.getCurrentUser();
+            final int index = details.usersSize.indexOfKey(currentUser);
+            if (index >= 0) {
+                details.usersSize.put(currentUser,
+                        Math.max(0, details.usersSize.valueAt(index) - removedSize));
+            }
+            mAvailSize += removedSize;
+
+            mCached = details;
+            mUpdatedInPlace = true;
+            sendExactUpdate(details);
+        }
+
         private void measureApproximateStorage(IMediaContainerService imcs) {
             final String path = mVolume != null ? mVolume.getPath()
                     : Environment.getDataDirectory().getPath();
@@ -403,6 +602,38 @@ public class StorageMeasurement {
             details.totalSize = mTotalSize;
             details.availSize = mAvailSize;
 
+            final ExactMeasurement measurement = new ExactMeasurement(imcs, details, finished);
+            mActiveMeasurement = measurement;
+            measurement.start(context);
+        }
+    }
+
+    /**
+     * A single exact measurement. Each directory walk is its own task on a
+     * {@link MeasurementScheduler}, and details are delivered to the receiver
+     * every time a category is done instead of only once everything is.
+     */
+    private class ExactMeasurement implements Runnable {
+        private final IMediaContainerService mImcs;
+        private final MeasurementDetails mDetails;
+        private final Message mFinished;
+        private final MeasurementScheduler mScheduler = new MeasurementScheduler(this);
+
+        // All protected by mDetails.
+        private int mMediaRemaining;
+        private int mUsersRemaining;
+        private int mMiscRemaining;
+        private final LargestFilesList mMiscFiles = new LargestFilesList(
+                MiscFilesHandler.SORTED_HEAD_SIZE);
+
+        ExactMeasurement(IMediaContainerService imcs, MeasurementDetails details,
+                Message finished) {
+            mImcs = imcs;
+            mDetails = details;
+            mFinished = finished;
+        }
+
+        void start(Context context) {
             final UserManager userManager = (UserManager) context.getSystemService(
                     Context.USER_SERVICE);
             final List<UserInfo> users = userManager.getUsers();
@@ -410,112 +641,286 @@ public class StorageMeasurement {
             final int currentUser = ActivityManager.getCurrentUser();
             final UserEnvironment currentEnv = new UserEnvironment(currentUser);
 
+            // Don't let early tasks finish the measurement while the rest
+            // are still being queued.
+            mScheduler.hold();
+
             // Measure media types for emulated storage, or for primary physical
-            // external volume
+            // external volume, along with misc files not counted under media
             final boolean measureMedia = (mIsInternal && Environment.isExternalStorageEmulated())
                     || mIsPrimary;
             if (measureMedia) {
-                for (String type : sMeasureMediaTypes) {
+                synchronized (mDetails) {
+                    mMediaRemaining = sMeasureMediaTypes.size();
+                    mMiscRemaining = 1;
+                }
+                for (final String type : sMeasureMediaTypes) {
                     final File path = currentEnv.getExternalStoragePublicDirectory(type);
-                    final long size = getDirectorySize(imcs, path);
-                    details.mediaSize.put(type, size);
+                    mScheduler.submit(new Runnable() {
+                        @Override
+                        public void run() {
+                            measureMedia(type, path);
+                        }
+                    });
                 }
-            }
 
-            // Measure misc files not counted under media
-            if (measureMedia) {
-                final File path = mIsInternal ? currentEnv.getExternalStorageDirectory()
-                        : mVolume.getPathFile();
-                details.miscSize = measureMisc(imcs, path);
+                final File path = getMiscDirectory();
+                mScheduler.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        listMisc(path);
+                    }
+                });
+            } else {
+                synchronized (mDetails) {
+                    mDetails.measured |= MeasurementDetails.MEASURED_MEDIA
+                            | MeasurementDetails.MEASURED_MISC;
+                }
             }
 
             // Measure total emulated storage of all users; internal apps data
             // will be spliced in later
+            synchronized (mDetails) {
+                mUsersRemaining = users.size();
+            }
             for (UserInfo user : users) {
-                final UserEnvironment userEnv = new UserEnvironment(user.id);
-                final long size = getDirectorySize(imcs, userEnv.getExternalStorageDirectory());
-                addValue(details.usersSize, user.id, size);
+                final int userId = user.id;
+                final File path = new UserEnvironment(userId).getExternalStorageDirectory();
+                mScheduler.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        measureUser(userId, path);
+                    }
+                });
             }
 
             // Measure all apps for all users
-            final PackageManager pm = context.getPackageManager();
             if (mIsInternal || mIsPrimary) {
+                final PackageManager pm = context.getPackageManager();
                 final List<ApplicationInfo> apps = pm.getInstalledApplications(
                         PackageManager.GET_UNINSTALLED_PACKAGES
                         | PackageManager.GET_DISABLED_COMPONENTS);
 
-                final int count = users.size() * apps.size();
-                final StatsObserver observer = new StatsObserver(
-                        mIsInternal, details, currentUser, finished, count);
-
-                for (UserInfo user : users) {
-                    for (ApplicationInfo app : apps) {
-                        pm.getPackageSizeInfo(app.packageName, user.id, observer);
+                mScheduler.hold();
+                new StatsObserver(mIsInternal, mDetails, currentUser, pm, apps, users,
+                        mScheduler, new Runnable() {
+                    @Override
+                    public void run() {
+                        synchronized (mDetails) {
+                            mDetails.measured |= MeasurementDetails.MEASURED_APPS;
+                            markUsersLocked();
+                            publishLocked();
+                        }
+                        mScheduler.release();
                     }
+                }).start();
+            } else {
+                synchronized (mDetails) {
+                    mDetails.measured |= MeasurementDetails.MEASURED_APPS;
                 }
+            }
 
-            } else {
-                finished.sendToTarget();
+            mScheduler.release();
+        }
+
+        void cancel() {
+            mScheduler.cancel();
+        }
+
+        boolean isCanceled() {
+            return mScheduler.isCanceled();
+        }
+
+        /**
+         * Called by the scheduler once every category is done.
+         */
+        @Override
+        public void run() {
+            synchronized (mDetails) {
+                mDetails.measured = MeasurementDetails.MEASURED_ALL;
             }
+            mIndex.save();
+            mFinished.sendToTarget();
         }
-    }
 
-    private static long getDirectorySize(IMediaContainerService imcs, File path) {
-        try {
-            final long size = imcs.calculateDirectorySize(path.toString());
-            Log.d(TAG, "getDirectorySize(" + path + ") returned " + size);
-            return size;
-        } catch (Exception e) {
-            Log.w(TAG, "Could not read memory from default container service for " + path, e);
-            return 0;
+        private void measureMedia(String type, File path) {
+            final long size = getDirectorySize(mImcs, path);
+            synchronized (mDetails) {
+                mDetails.mediaSize.put(type, size);
+                if (--mMediaRemaining == 0) {
+                    mDetails.measured |= MeasurementDetails.MEASURED_MEDIA;
+                }
+                publishLocked();
+            }
         }
-    }
 
-    private long measureMisc(IMediaContainerService imcs, File dir) {
-        mFileInfoForMisc = new ArrayList<FileInfo>();
+        private void measureUser(int userId, File path) {
+            final long size = getDirectorySize(mImcs, path);
+            synchronized (mDetails) {
+                addValue(mDetails.usersSize, userId, size);
+                if (--mUsersRemaining == 0) {
+                    markUsersLocked();
+                    publishLocked();
+                }
+            }
+        }
 
-        final Parcel p = Parcel.obtain();
-        try {
-            final byte[] bytes = imcs.listDirectory(dir.toString());
-            p.unmarshall(bytes, 0, bytes.length);
-            p.setDataPosition(0);
-        } catch (Exception e) {
-            Log.w(TAG, "Could not list directory from default container service for " + dir, e);
-            return 0;
+        private void markUsersLocked() {
+            // Apps data gets added to the users' totals, so both need to be in
+            if (mUsersRemaining == 0
+                    && mDetails.isMeasured(MeasurementDetails.MEASURED_APPS)) {
+                mDetails.measured |= MeasurementDetails.MEASURED_USERS;
+            }
         }
 
-        // Get sizes of all top level nodes except the ones already computed
-        long counter = 0;
-        long miscSize = 0;
+        /**
+         * Lists the top level of external storage, queueing a walk for each
+         * directory that isn't one of the media types.
+         */
+        private void listMisc(File dir) {
+            final String[] names = dir.list();
+            if (names == null) {
+                // Not visible from here, e.g. another user's storage.
+                listMiscFromService(dir);
+                return;
+            }
 
-        int count = p.readInt();
-        for (int i = 0; i < count; i++) {
-            final String path = p.readString();
-            final String name = p.readString();
-            final boolean isDirectory = p.readInt() == 1;
-            final boolean isFile = p.readInt() == 1;
-            final long fileSize = isFile ? p.readLong() : 0;
+            // One entry at a time, rather than a parcel holding all of them.
+            try {
+                for (int i = 0; i < names.length; i++) {
+                    if (mScheduler.isCanceled()) {
+                        return;
+                    }
+                    if (isMediaType(names[i])) {
+                        continue;
+                    }
 
-            if (sMeasureMediaTypes.contains(name)) {
-                continue;
+                    final File file = new File(dir, names[i]);
+                    final long id = i;
+                    if (file.isDirectory()) {
+                        final String path = file.getPath();
+                        synchronized (mDetails) {
+                            mMiscRemaining++;
+                        }
+                        mScheduler.submit(new Runnable() {
+                            @Override
+                            public void run() {
+                                measureMiscDirectory(path, id);
+                            }
+                        });
+                    } else if (file.isFile()) {
+                        final long fileSize = file.length();
+                        synchronized (mDetails) {
+                            mMiscFiles.add(new FileInfo(file.getPath(), fileSize, id));
+                            mDetails.miscSize += fileSize;
+                        }
+                    } else {
+                        // Non directory, non file: not listed
+                    }
+                }
+            } finally {
+                synchronized (mDetails) {
+                    miscTaskDoneLocked();
+                }
             }
+        }
 
-            if (isFile) {
-                mFileInfoForMisc.add(new FileInfo(path, fileSize, counter++));
-                miscSize += fileSize;
-            } else if (isDirectory) {
-                final long dirSize = getDirectorySize(imcs, new File(path));
-                mFileInfoForMisc.add(new FileInfo(path, dirSize, counter++));
-                miscSize += dirSize;
-            } else {
-                // Non directory, non file: not listed
+        private void listMiscFromService(File dir) {
+            final Parcel p = Parcel.obtain();
+            try {
+                try {
+                    final byte[] bytes = mImcs.listDirectory(dir.toString());
+                    p.unmarshall(bytes, 0, bytes.length);
+                    p.setDataPosition(0);
+                } catch (Exception e) {
+                    Log.w(TAG, "Could not list directory from default container service for "
+                            + dir, e);
+                    return;
+                }
+
+                long counter = 0;
+                int count = p.readInt();
+                for (int i = 0; i < count; i++) {
+                    final String path = p.readString();
+                    final String name = p.readString();
+                    final boolean isDirectory = p.readInt() == 1;
+                    final boolean isFile = p.readInt() == 1;
+                    final long fileSize = isFile ? p.readLong() : 0;
+
+                    if (isMediaType(name)) {
+                        continue;
+                    }
+
+                    if (isFile) {
+                        synchronized (mDetails) {
+                            mMiscFiles.add(new FileInfo(path, fileSize, counter++));
+                            mDetails.miscSize += fileSize;
+                        }
+                    } else if (isDirectory) {
+                        final long id = counter++;
+                        synchronized (mDetails) {
+                            mMiscRemaining++;
+                        }
+                        mScheduler.submit(new Runnable() {
+                            @Override
+                            public void run() {
+                                measureMiscDirectory(path, id);
+                            }
+                        });
+                    } else {
+                        // Non directory, non file: not listed
+                    }
+                }
+            } finally {
+                p.recycle();
+                synchronized (mDetails) {
+                    miscTaskDoneLocked();
+                }
+            }
+        }
+
+        private void measureMiscDirectory(String path, long id) {
+            final long dirSize = getDirectorySize(mImcs, new File(path));
+            synchronized (mDetails) {
+                mMiscFiles.add(new FileInfo(path, dirSize, id));
+                mDetails.miscSize += dirSize;
+                miscTaskDoneLocked();
             }
         }
 
-        // sort the list of FileInfo objects collected above in descending order of their sizes
-        Collections.sort(mFileInfoForMisc);
+        private void miscTaskDoneLocked() {
+            if (--mMiscRemaining == 0) {
+                // the largest are already in order; put the rest in order too
+                mMiscFiles.finish();
+                mFileInfoForMisc = mMiscFiles;
+                mDetails.measured |= MeasurementDetails.MEASURED_MISC;
+                publishLocked();
+            }
+        }
+
+        private void publishLocked() {
+            if (!mScheduler.isCanceled()) {
+                sendExactUpdate(mDetails.copy());
+            }
+        }
+    }
 
-        return miscSize;
+    private long getDirectorySize(IMediaContainerService imcs, File path) {
+        // Walk what we can see ourselves through the index, which only lists
+        // directories that changed; other users' storage isn't visible here.
+        if (path.isDirectory()) {
+            final long size = mIndex.measure(path);
+            Log.d(TAG, "getDirectorySize(" + path + ") returned " + size + " from index");
+            return size;
+        }
+        try {
+            final long size = imcs.calculateDirectorySize(path.toString());
+            Log.d(TAG, "getDirectorySize(" + path + ") returned " + size);
+            return size;
+        } catch (Exception e) {
+            Log.w(TAG, "Could not read memory from default container service for " + path, e);
+            return 0;
+        }
     }
 
     static class FileInfo implements Comparable<FileInfo> {
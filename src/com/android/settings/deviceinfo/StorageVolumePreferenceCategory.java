@@ -51,6 +51,15 @@ public class StorageVolumePreferenceCategory extends PreferenceCategory {
     private static final int ORDER_USAGE_BAR = -2;
     private static final int ORDER_STORAGE_LOW = -1;
 
+    private static final String[] DCIM_TYPES = {
+            Environment.DIRECTORY_DCIM, Environment.DIRECTORY_MOVIES,
+            Environment.DIRECTORY_PICTURES };
+    private static final String[] MUSIC_TYPES = {
+            Environment.DIRECTORY_MUSIC, Environment.DIRECTORY_ALARMS,
+            Environment.DIRECTORY_NOTIFICATIONS, Environment.DIRECTORY_RINGTONES,
+            Environment.DIRECTORY_PODCASTS };
+    private static final String[] DOWNLOADS_TYPES = { Environment.DIRECTORY_DOWNLOADS };
+
     /** Physical volume being measured, or {@code null} for internal. */
     private final StorageVolume mVolume;
     private final StorageMeasurement mMeasure;
@@ -308,6 +317,15 @@ public class StorageVolumePreferenceCategory extends PreferenceCategory {
         updatePreferencesFromState();
     }
 
+    private static boolean hasValues(HashMap<String, Long> map, String... keys) {
+        for (String key : keys) {
+            if (!map.containsKey(key)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private static long totalValues(HashMap<String, Long> map, String... keys) {
         long total = 0;
         for (String key : keys) {
@@ -328,26 +346,36 @@ public class StorageVolumePreferenceCategory extends PreferenceCategory {
 
         mUsageBarPreference.clear();
 
-        updatePreference(mItemApps, details.appsSize);
-
-        final long dcimSize = totalValues(details.mediaSize, Environment.DIRECTORY_DCIM,
-                Environment.DIRECTORY_MOVIES, Environment.DIRECTORY_PICTURES);
-        updatePreference(mItemDcim, dcimSize);
-
-        final long musicSize = totalValues(details.mediaSize, Environment.DIRECTORY_MUSIC,
-                Environment.DIRECTORY_ALARMS, Environment.DIRECTORY_NOTIFICATIONS,
-                Environment.DIRECTORY_RINGTONES, Environment.DIRECTORY_PODCASTS);
-        updatePreference(mItemMusic, musicSize);
+        // Details arrive as each category finishes; leave the ones that are
+        // still being measured alone until they do.
+        final boolean appsMeasured = details.isMeasured(MeasurementDetails.MEASURED_APPS);
+        if (appsMeasured) {
+            updatePreference(mItemApps, details.appsSize);
+        }
 
-        final long downloadsSize = totalValues(details.mediaSize, Environment.DIRECTORY_DOWNLOADS);
-        updatePreference(mItemDownloads, downloadsSize);
+        final boolean mediaMeasured = details.isMeasured(MeasurementDetails.MEASURED_MEDIA);
+        if (mediaMeasured || hasValues(details.mediaSize, DCIM_TYPES)) {
+            updatePreference(mItemDcim, totalValues(details.mediaSize, DCIM_TYPES));
+        }
+        if (mediaMeasured || hasValues(details.mediaSize, MUSIC_TYPES)) {
+            updatePreference(mItemMusic, totalValues(details.mediaSize, MUSIC_TYPES));
+        }
+        if (mediaMeasured || hasValues(details.mediaSize, DOWNLOADS_TYPES)) {
+            updatePreference(mItemDownloads, totalValues(details.mediaSize, DOWNLOADS_TYPES));
+        }
 
-        updatePreference(mItemCache, details.cacheSize);
-        updatePreference(mItemMisc, details.miscSize);
+        if (appsMeasured) {
+            updatePreference(mItemCache, details.cacheSize);
+        }
+        if (details.isMeasured(MeasurementDetails.MEASURED_MISC)) {
+            updatePreference(mItemMisc, details.miscSize);
+        }
 
-        for (StorageItemPreference userPref : mItemUsers) {
-            final long userSize = details.usersSize.get(userPref.userHandle);
-            updatePreference(userPref, userSize);
+        if (details.isMeasured(MeasurementDetails.MEASURED_USERS)) {
+            for (StorageItemPreference userPref : mItemUsers) {
+                final long userSize = details.usersSize.get(userPref.userHandle);
+                updatePreference(userPref, userSize);
+            }
         }
 
         mUsageBarPreference.commit();
@@ -370,7 +398,9 @@ public class StorageVolumePreferenceCategory extends PreferenceCategory {
 
     public void onResume() {
         mMeasure.setReceiver(mReceiver);
-        measure();
+        // Coming back from deleting misc files shouldn't measure it all again.
+        mMeasure.invalidateIfStale();
+        mMeasure.measure();
     }
 
     public void onStorageStateChanged() {
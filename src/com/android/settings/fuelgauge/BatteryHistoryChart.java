@@ -21,6 +21,7 @@ import com.android.settings.R;
 import android.content.Context;
 import android.content.res.ColorStateList;
 import android.content.res.TypedArray;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.Path;
@@ -31,9 +32,12 @@ import android.os.BatteryStats.HistoryItem;
 import android.telephony.ServiceState;
 import android.text.TextPaint;
 import android.util.AttributeSet;
+import android.util.LruCache;
 import android.util.TypedValue;
 import android.view.View;
 
+import java.util.Arrays;
+
 public class BatteryHistoryChart extends View {
     static final int CHART_DATA_X_MASK = 0x0000ffff;
     static final int CHART_DATA_BIN_MASK = 0xffff0000;
@@ -335,6 +339,11 @@ public class BatteryHistoryChart extends View {
     }
     
     void setStats(BatteryStats stats) {
+        if (stats == mStats) {
+            // Bound again to the same snapshot, e.g. a preference rebinding
+            // while scrolling; the history summary and chart still hold.
+            return;
+        }
         mStats = stats;
         
         long uSecTime = mStats.computeBatteryRealtime(SystemClock.elapsedRealtime() * 1000,
@@ -383,6 +392,14 @@ public class BatteryHistoryChart extends View {
         }
         if (mHistEnd <= mHistStart) mHistEnd = mHistStart+1;
         mTotalDurationString = Utils.formatElapsedTime(getContext(), mHistEnd - mHistStart);
+
+        // A recycled view keeps its size, so onSizeChanged() won't be called.
+        mColumns = null;
+        if (getWidth() > 0 && getHeight() > 0) {
+            updateChart(getWidth(), getHeight());
+        }
+        requestLayout();
+        invalidate();
     }
 
     @Override
@@ -394,9 +411,114 @@ public class BatteryHistoryChart extends View {
         mTextDescent = (int)mTextPaint.descent();
     }
 
+    /**
+     * The history squeezed into one entry per pixel column, so that drawing
+     * costs the same however long the history is.
+     */
+    static final class HistoryColumns {
+        final int mWidth;
+        // Battery level of the first, last, lowest and highest record in each
+        // column, or -1 for columns without records.
+        final byte[] mFirstLevel;
+        final byte[] mLastLevel;
+        final byte[] mMinLevel;
+        final byte[] mMaxLevel;
+        // States that were on at any point in the column.
+        final int[] mStates;
+        // Phone signal bin of the last record in the column.
+        final byte[] mPhoneBin;
+        // Whether the history was interrupted (e.g. by a reboot) before
+        // the first record in the column.
+        final boolean[] mBreakBefore;
+
+        HistoryColumns(int width) {
+            mWidth = width;
+            final int N = width + 1;
+            mFirstLevel = new byte[N];
+            mLastLevel = new byte[N];
+            mMinLevel = new byte[N];
+            mMaxLevel = new byte[N];
+            mStates = new int[N];
+            mPhoneBin = new byte[N];
+            mBreakBefore = new boolean[N];
+            Arrays.fill(mFirstLevel, (byte) -1);
+        }
+    }
+
+    // Cached renderings of the chart, shared by every chart showing the same
+    // history at the same size and mode, e.g. across rotations.  Renderings
+    // that would take up more than half of it, like the full screen detail
+    // chart, are only kept by their view; caching them would just push out
+    // everything else.
+    private static final int CHART_CACHE_SIZE = 8 * 1024 * 1024;
+    private static final LruCache<String, Bitmap> sChartCache
+            = new LruCache<String, Bitmap>(CHART_CACHE_SIZE) {
+        @Override
+        protected int sizeOf(String key, Bitmap value) {
+            return value.getByteCount();
+        }
+    };
+
+    HistoryColumns mColumns;
+    String mChartKey;
+    Bitmap mChartBitmap;
+
+    HistoryColumns buildColumns(int w) {
+        final HistoryColumns cols = new HistoryColumns(w);
+        final long timeStart = mHistStart;
+        final long timeChange = mHistEnd-mHistStart;
+        boolean pendingBreak = false;
+        int i = 0;
+        final int N = mNumHist;
+        if (mStats.startIteratingHistoryLocked()) {
+            final HistoryItem rec = new HistoryItem();
+            while (mStats.getNextHistoryLocked(rec) && i < N) {
+                if (rec.cmd == BatteryStats.HistoryItem.CMD_UPDATE) {
+                    int x = (int)(((rec.time-timeStart)*w)/timeChange);
+                    if (x < 0) x = 0;
+                    else if (x > w) x = w;
+                    final byte level = rec.batteryLevel;
+                    if (cols.mFirstLevel[x] < 0) {
+                        cols.mFirstLevel[x] = cols.mMinLevel[x] = cols.mMaxLevel[x] = level;
+                        cols.mBreakBefore[x] = pendingBreak;
+                    } else {
+                        if (level < cols.mMinLevel[x]) cols.mMinLevel[x] = level;
+                        if (level > cols.mMaxLevel[x]) cols.mMaxLevel[x] = level;
+                    }
+                    pendingBreak = false;
+                    cols.mLastLevel[x] = level;
+                    cols.mStates[x] |= rec.states;
+
+                    int bin;
+                    if (((rec.states&HistoryItem.STATE_PHONE_STATE_MASK)
+                            >> HistoryItem.STATE_PHONE_STATE_SHIFT)
+                            == ServiceState.STATE_POWER_OFF) {
+                        bin = 0;
+                    } else if ((rec.states&HistoryItem.STATE_PHONE_SCANNING_FLAG) != 0) {
+                        bin = 1;
+                    } else {
+                        bin = (rec.states&HistoryItem.STATE_SIGNAL_STRENGTH_MASK)
+                                >> HistoryItem.STATE_SIGNAL_STRENGTH_SHIFT;
+                        bin += 2;
+                    }
+                    cols.mPhoneBin[x] = (byte)bin;
+                } else if (rec.cmd != BatteryStats.HistoryItem.CMD_OVERFLOW) {
+                    pendingBreak = true;
+                }
+                i++;
+            }
+        }
+        return cols;
+    }
+
+    Path levelPath(int level) {
+        if (level <= BATTERY_CRITICAL) return mBatCriticalPath;
+        else if (level <= BATTERY_WARN) return mBatWarnPath;
+        else return mBatGoodPath;
+    }
+
     void finishPaths(int w, int h, int levelh, int startX, int y, Path curLevelPath,
-            int lastX, boolean lastCharging, boolean lastScreenOn, boolean lastGpsOn,
-            boolean lastWifiRunning, boolean lastWakeLock, Path lastPath) {
+            int lastX, int lastStates, Path lastPath) {
         if (curLevelPath != null) {
             if (lastX >= 0 && lastX < w) {
                 if (lastPath != null) {
@@ -409,30 +531,147 @@ public class BatteryHistoryChart extends View {
             curLevelPath.close();
         }
         
-        if (lastCharging) {
+        if ((lastStates&HistoryItem.STATE_BATTERY_PLUGGED_FLAG) != 0) {
             mChargingPath.lineTo(w, h-mChargingOffset);
         }
-        if (lastScreenOn) {
+        if ((lastStates&HistoryItem.STATE_SCREEN_ON_FLAG) != 0) {
             mScreenOnPath.lineTo(w, h-mScreenOnOffset);
         }
-        if (lastGpsOn) {
+        if ((lastStates&HistoryItem.STATE_GPS_ON_FLAG) != 0) {
             mGpsOnPath.lineTo(w, h-mGpsOnOffset);
         }
-        if (lastWifiRunning) {
+        if ((lastStates&HistoryItem.STATE_WIFI_RUNNING_FLAG) != 0) {
             mWifiRunningPath.lineTo(w, h-mWifiRunningOffset);
         }
-        if (lastWakeLock) {
+        if ((lastStates&HistoryItem.STATE_WAKE_LOCK_FLAG) != 0) {
             mWakeLockPath.lineTo(w, h-mWakeLockOffset);
         }
         if (mHavePhoneSignal) {
             mPhoneSignalChart.finish(w);
         }
     }
+
+    void updateStatePath(Path path, int flag, int states, int lastStates, int x, int y) {
+        final boolean on = (states&flag) != 0;
+        if (on != ((lastStates&flag) != 0)) {
+            if (on) {
+                path.moveTo(x, y);
+            } else {
+                path.lineTo(x, y);
+            }
+        }
+    }
+
+    /**
+     * Builds the paths from the per-column history, so there are at most a
+     * handful of vertices per pixel column.
+     */
+    void buildPaths(int w, int h) {
+        mBatLevelPath.reset();
+        mBatGoodPath.reset();
+        mBatWarnPath.reset();
+        mBatCriticalPath.reset();
+        mScreenOnPath.reset();
+        mGpsOnPath.reset();
+        mWifiRunningPath.reset();
+        mWakeLockPath.reset();
+        mChargingPath.reset();
+
+        if (mColumns == null || mColumns.mWidth != w) {
+            mColumns = buildColumns(w);
+        }
+        final HistoryColumns cols = mColumns;
+
+        final int batLow = mBatLow;
+        final int batChange = mBatHigh-mBatLow;
+        final int levelh = mLevelBottom - mLevelTop;
+
+        final int stateFlags = HistoryItem.STATE_BATTERY_PLUGGED_FLAG
+                | HistoryItem.STATE_SCREEN_ON_FLAG | HistoryItem.STATE_GPS_ON_FLAG
+                | HistoryItem.STATE_WIFI_RUNNING_FLAG | HistoryItem.STATE_WAKE_LOCK_FLAG;
+        final byte[] levels = new byte[4];
+        int y = 0, startX = 0, lastX = -1, lastY = -1;
+        Path curLevelPath = null;
+        Path lastLinePath = null;
+        int lastStates = 0;
+        for (int x=0; x<=w; x++) {
+            if (cols.mFirstLevel[x] < 0) {
+                continue;
+            }
+            if (cols.mBreakBefore[x] && curLevelPath != null) {
+                finishPaths(lastX+1, h, levelh, startX, lastY, curLevelPath, lastX,
+                        lastStates, lastLinePath);
+                lastX = lastY = -1;
+                curLevelPath = null;
+                lastLinePath = null;
+                lastStates = 0;
+            }
+
+            // Walk down to the lowest and up to the highest level seen in
+            // this column, ending at where the column ended.
+            levels[0] = cols.mFirstLevel[x];
+            levels[1] = cols.mMinLevel[x];
+            levels[2] = cols.mMaxLevel[x];
+            levels[3] = cols.mLastLevel[x];
+            for (int j=0; j<levels.length; j++) {
+                y = mLevelTop + levelh - ((levels[j]-batLow)*(levelh-1))/batChange;
+                if (x == lastX && y == lastY) {
+                    // Don't plot changes within a pixel.
+                    continue;
+                }
+                Path path = levelPath(levels[j]);
+                if (path != lastLinePath) {
+                    if (lastLinePath != null) {
+                        lastLinePath.lineTo(x, y);
+                    }
+                    path.moveTo(x, y);
+                    lastLinePath = path;
+                } else {
+                    path.lineTo(x, y);
+                }
+
+                if (curLevelPath == null) {
+                    curLevelPath = mBatLevelPath;
+                    curLevelPath.moveTo(x, y);
+                    startX = x;
+                } else {
+                    curLevelPath.lineTo(x, y);
+                }
+                lastX = x;
+                lastY = y;
+            }
+
+            final int states = cols.mStates[x] & stateFlags;
+            if (states != lastStates) {
+                updateStatePath(mChargingPath, HistoryItem.STATE_BATTERY_PLUGGED_FLAG,
+                        states, lastStates, x, h-mChargingOffset);
+                updateStatePath(mScreenOnPath, HistoryItem.STATE_SCREEN_ON_FLAG,
+                        states, lastStates, x, h-mScreenOnOffset);
+                updateStatePath(mGpsOnPath, HistoryItem.STATE_GPS_ON_FLAG,
+                        states, lastStates, x, h-mGpsOnOffset);
+                updateStatePath(mWifiRunningPath, HistoryItem.STATE_WIFI_RUNNING_FLAG,
+                        states, lastStates, x, h-mWifiRunningOffset);
+                updateStatePath(mWakeLockPath, HistoryItem.STATE_WAKE_LOCK_FLAG,
+                        states, lastStates, x, h-mWakeLockOffset);
+                lastStates = states;
+            }
+
+            if (mLargeMode && mHavePhoneSignal) {
+                mPhoneSignalChart.addTick(x, cols.mPhoneBin[x]);
+            }
+        }
+
+        finishPaths(w, h, levelh, startX, lastY, curLevelPath, lastX,
+                lastStates, lastLinePath);
+    }
     
     @Override
     protected void onSizeChanged(int w, int h, int oldw, int oldh) {
         super.onSizeChanged(w, h, oldw, oldh);
-        
+        updateChart(w, h);
+    }
+
+    void updateChart(int w, int h) {
         int textHeight = mTextDescent - mTextAscent;
         mThinLineWidth = (int)TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP,
                 2, getResources().getDisplayMetrics());
@@ -494,180 +733,33 @@ public class BatteryHistoryChart extends View {
             }
         }
 
-        mBatLevelPath.reset();
-        mBatGoodPath.reset();
-        mBatWarnPath.reset();
-        mBatCriticalPath.reset();
-        mScreenOnPath.reset();
-        mGpsOnPath.reset();
-        mWifiRunningPath.reset();
-        mWakeLockPath.reset();
-        mChargingPath.reset();
-        
-        final long timeStart = mHistStart;
-        final long timeChange = mHistEnd-mHistStart;
-        
-        final int batLow = mBatLow;
-        final int batChange = mBatHigh-mBatLow;
-        
         final int levelh = h - mLevelOffset - mLevelTop;
         mLevelBottom = mLevelTop + levelh;
-        
-        int x = 0, y = 0, startX = 0, lastX = -1, lastY = -1;
-        int i = 0;
-        Path curLevelPath = null;
-        Path lastLinePath = null;
-        boolean lastCharging = false, lastScreenOn = false, lastGpsOn = false;
-        boolean lastWifiRunning = false, lastWakeLock = false;
-        final int N = mNumHist;
-        if (mStats.startIteratingHistoryLocked()) {
-            final HistoryItem rec = new HistoryItem();
-            while (mStats.getNextHistoryLocked(rec) && i < N) {
-                if (rec.cmd == BatteryStats.HistoryItem.CMD_UPDATE) {
-                    x = (int)(((rec.time-timeStart)*w)/timeChange);
-                    y = mLevelTop + levelh - ((rec.batteryLevel-batLow)*(levelh-1))/batChange;
-
-                    if (lastX != x) {
-                        // We have moved by at least a pixel.
-                        if (lastY != y) {
-                            // Don't plot changes within a pixel.
-                            Path path;
-                            byte value = rec.batteryLevel;
-                            if (value <= BATTERY_CRITICAL) path = mBatCriticalPath;
-                            else if (value <= BATTERY_WARN) path = mBatWarnPath;
-                            else path = mBatGoodPath;
-
-                            if (path != lastLinePath) {
-                                if (lastLinePath != null) {
-                                    lastLinePath.lineTo(x, y);
-                                }
-                                path.moveTo(x, y);
-                                lastLinePath = path;
-                            } else {
-                                path.lineTo(x, y);
-                            }
-
-                            if (curLevelPath == null) {
-                                curLevelPath = mBatLevelPath;
-                                curLevelPath.moveTo(x, y);
-                                startX = x;
-                            } else {
-                                curLevelPath.lineTo(x, y);
-                            }
-                            lastX = x;
-                            lastY = y;
-                        }
-
-                        final boolean charging =
-                            (rec.states&HistoryItem.STATE_BATTERY_PLUGGED_FLAG) != 0;
-                        if (charging != lastCharging) {
-                            if (charging) {
-                                mChargingPath.moveTo(x, h-mChargingOffset);
-                            } else {
-                                mChargingPath.lineTo(x, h-mChargingOffset);
-                            }
-                            lastCharging = charging;
-                        }
-
-                        final boolean screenOn =
-                            (rec.states&HistoryItem.STATE_SCREEN_ON_FLAG) != 0;
-                        if (screenOn != lastScreenOn) {
-                            if (screenOn) {
-                                mScreenOnPath.moveTo(x, h-mScreenOnOffset);
-                            } else {
-                                mScreenOnPath.lineTo(x, h-mScreenOnOffset);
-                            }
-                            lastScreenOn = screenOn;
-                        }
-
-                        final boolean gpsOn =
-                            (rec.states&HistoryItem.STATE_GPS_ON_FLAG) != 0;
-                        if (gpsOn != lastGpsOn) {
-                            if (gpsOn) {
-                                mGpsOnPath.moveTo(x, h-mGpsOnOffset);
-                            } else {
-                                mGpsOnPath.lineTo(x, h-mGpsOnOffset);
-                            }
-                            lastGpsOn = gpsOn;
-                        }
-
-                        final boolean wifiRunning =
-                            (rec.states&HistoryItem.STATE_WIFI_RUNNING_FLAG) != 0;
-                        if (wifiRunning != lastWifiRunning) {
-                            if (wifiRunning) {
-                                mWifiRunningPath.moveTo(x, h-mWifiRunningOffset);
-                            } else {
-                                mWifiRunningPath.lineTo(x, h-mWifiRunningOffset);
-                            }
-                            lastWifiRunning = wifiRunning;
-                        }
-
-                        final boolean wakeLock =
-                            (rec.states&HistoryItem.STATE_WAKE_LOCK_FLAG) != 0;
-                        if (wakeLock != lastWakeLock) {
-                            if (wakeLock) {
-                                mWakeLockPath.moveTo(x, h-mWakeLockOffset);
-                            } else {
-                                mWakeLockPath.lineTo(x, h-mWakeLockOffset);
-                            }
-                            lastWakeLock = wakeLock;
-                        }
-
-                        if (mLargeMode && mHavePhoneSignal) {
-                            int bin;
-                            if (((rec.states&HistoryItem.STATE_PHONE_STATE_MASK)
-                                    >> HistoryItem.STATE_PHONE_STATE_SHIFT)
-                                    == ServiceState.STATE_POWER_OFF) {
-                                bin = 0;
-                            } else if ((rec.states&HistoryItem.STATE_PHONE_SCANNING_FLAG) != 0) {
-                                bin = 1;
-                            } else {
-                                bin = (rec.states&HistoryItem.STATE_SIGNAL_STRENGTH_MASK)
-                                        >> HistoryItem.STATE_SIGNAL_STRENGTH_SHIFT;
-                                bin += 2;
-                            }
-                            mPhoneSignalChart.addTick(x, bin);
-                        }
-                    }
 
-                } else if (rec.cmd != BatteryStats.HistoryItem.CMD_OVERFLOW) {
-                    if (curLevelPath != null) {
-                        finishPaths(x+1, h, levelh, startX, lastY, curLevelPath, lastX,
-                                lastCharging, lastScreenOn, lastGpsOn, lastWifiRunning,
-                                lastWakeLock, lastLinePath);
-                        lastX = lastY = -1;
-                        curLevelPath = null;
-                        lastLinePath = null;
-                        lastCharging = lastScreenOn = lastGpsOn = lastWakeLock = false;
-                    }
-                }
-                
-                i++;
+        if (mStats == null || w <= 0 || h <= 0) {
+            mChartKey = null;
+            mChartBitmap = null;
+            return;
+        }
+
+        // Everything that goes into the rendered chart; the text is drawn
+        // on top of it separately as it changes over time.
+        mChartKey = mHistStart + "-" + mHistEnd + "/" + mNumHist + "/" + mBatLow + "-"
+                + mBatHigh + "/" + mHaveGps + mHaveWifi + mHavePhoneSignal + "/"
+                + (mLargeMode ? "large" : "small") + "/" + w + "x" + h + "/" + textHeight;
+        mChartBitmap = sChartCache.get(mChartKey);
+        if (mChartBitmap == null) {
+            buildPaths(w, h);
+            mChartBitmap = Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888);
+            drawChart(new Canvas(mChartBitmap), w, h);
+            if (mChartBitmap.getByteCount() <= CHART_CACHE_SIZE / 2) {
+                sChartCache.put(mChartKey, mChartBitmap);
             }
         }
-        
-        finishPaths(w, h, levelh, startX, lastY, curLevelPath, lastX,
-                lastCharging, lastScreenOn, lastGpsOn, lastWifiRunning,
-                lastWakeLock, lastLinePath);
     }
-    
-    @Override
-    protected void onDraw(Canvas canvas) {
-        super.onDraw(canvas);
-        
-        final int width = getWidth();
-        final int height = getHeight();
-        
+
+    void drawChart(Canvas canvas, int width, int height) {
         canvas.drawPath(mBatLevelPath, mBatteryBackgroundPaint);
-        if (mLargeMode) {
-            canvas.drawText(mDurationString, 0, -mTextAscent + (mLineWidth/2),
-                    mTextPaint);
-            canvas.drawText(mTotalDurationString, (width/2) - (mTotalDurationStringWidth/2),
-                    mLevelBottom - mTextAscent + mThinLineWidth, mTextPaint);
-        } else {
-            canvas.drawText(mDurationString, (width/2) - (mDurationStringWidth/2),
-                    (height/2) - ((mTextDescent-mTextAscent)/2) - mTextAscent, mTextPaint);
-        }
         if (!mBatGoodPath.isEmpty()) {
             canvas.drawPath(mBatGoodPath, mBatteryGoodPaint);
         }
@@ -700,6 +792,28 @@ public class BatteryHistoryChart extends View {
         if (!mWakeLockPath.isEmpty()) {
             canvas.drawPath(mWakeLockPath, mWakeLockPaint);
         }
+    }
+    
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        
+        final int width = getWidth();
+        final int height = getHeight();
+        
+        if (mChartBitmap != null) {
+            canvas.drawBitmap(mChartBitmap, 0, 0, null);
+        }
+
+        if (mLargeMode) {
+            canvas.drawText(mDurationString, 0, -mTextAscent + (mLineWidth/2),
+                    mTextPaint);
+            canvas.drawText(mTotalDurationString, (width/2) - (mTotalDurationStringWidth/2),
+                    mLevelBottom - mTextAscent + mThinLineWidth, mTextPaint);
+        } else {
+            canvas.drawText(mDurationString, (width/2) - (mDurationStringWidth/2),
+                    (height/2) - ((mTextDescent-mTextAscent)/2) - mTextAscent, mTextPaint);
+        }
 
         if (mLargeMode) {
             if (mHavePhoneSignal) {
@@ -16,25 +16,20 @@
 package com.android.settings.fuelgauge;
 
 import com.android.settings.R;
+import com.android.settings.applications.UidLabelResolver;
 import com.android.settings.fuelgauge.PowerUsageDetail.DrainType;
 
 import android.content.Context;
-import android.content.pm.ApplicationInfo;
-import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
-import android.content.pm.PackageManager.NameNotFoundException;
 import android.graphics.drawable.Drawable;
-import android.os.Handler;
 import android.os.BatteryStats.Uid;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 
 class BatterySipper implements Comparable<BatterySipper> {
     final Context mContext;
-    final HashMap<String,UidToDetail> mUidCache = new HashMap<String,UidToDetail>();
+    final UidLabelResolver mResolver;
     final ArrayList<BatterySipper> mRequestQueue;
-    final Handler mHandler;
     String name;
     Drawable icon;
     int iconId; // For passing to the detail screen.
@@ -54,18 +49,12 @@ class BatterySipper implements Comparable<BatterySipper> {
     double noCoveragePercent;
     String defaultPackageName;
 
-    static class UidToDetail {
-        String name;
-        String packageName;
-        Drawable icon;
-    }
-
     BatterySipper(Context context, ArrayList<BatterySipper> requestQueue,
-            Handler handler, String label, DrainType drainType,
+            String label, DrainType drainType,
             int iconId, Uid uid, double[] values) {
         mContext = context;
+        mResolver = UidLabelResolver.getInstance(context);
         mRequestQueue = requestQueue;
-        mHandler = handler;
         this.values = values;
         name = label;
         this.drainType = drainType;
@@ -98,18 +87,19 @@ class BatterySipper implements Comparable<BatterySipper> {
 
     void getQuickNameIconForUid(Uid uidObj) {
         final int uid = uidObj.getUid();
-        final String uidString = Integer.toString(uid);
-        if (mUidCache.containsKey(uidString)) {
-            UidToDetail utd = mUidCache.get(uidString);
-            defaultPackageName = utd.packageName;
-            name = utd.name;
-            icon = utd.icon;
-            return;
+        final UidLabelResolver.UidEntry entry = mResolver.peek(uid);
+        if (entry != null && entry.hasPackages()) {
+            final Drawable cachedIcon = mResolver.peekIcon(entry);
+            if (cachedIcon != null) {
+                setNameIcon(entry, cachedIcon);
+                return;
+            }
         }
         PackageManager pm = mContext.getPackageManager();
-        String[] packages = pm.getPackagesForUid(uid);
+        final boolean hasPackages = entry != null
+                ? entry.hasPackages() : pm.getPackagesForUid(uid) != null;
         icon = pm.getDefaultActivityIcon();
-        if (packages == null) {
+        if (!hasPackages) {
             //name = Integer.toString(uid);
             if (uid == 0) {
                 name = mContext.getResources().getString(R.string.process_kernel_label);
@@ -129,71 +119,29 @@ class BatterySipper implements Comparable<BatterySipper> {
 
     /**
      * Sets name and icon
-     * @param uid Uid of the application
+     * @return whether they should be shown
      */
-    void getNameIcon() {
-        PackageManager pm = mContext.getPackageManager();
-        final int uid = uidObj.getUid();
-        final Drawable defaultActivityIcon = pm.getDefaultActivityIcon();
-        String[] packages = pm.getPackagesForUid(uid);
-        if (packages == null) {
-            name = Integer.toString(uid);
-            return;
+    boolean getNameIcon() {
+        final UidLabelResolver.UidEntry entry = mResolver.resolve(uidObj.getUid());
+        if (!entry.hasPackages()) {
+            name = Integer.toString(uidObj.getUid());
+            return false;
         }
+        setNameIcon(entry, mResolver.getIcon(entry));
+        return true;
+    }
 
-        String[] packageLabels = new String[packages.length];
-        System.arraycopy(packages, 0, packageLabels, 0, packages.length);
-
-        int preferredIndex = -1;
-        // Convert package names to user-facing labels where possible
-        for (int i = 0; i < packageLabels.length; i++) {
-            // Check if package matches preferred package
-            if (packageLabels[i].equals(name)) preferredIndex = i;
-            try {
-                ApplicationInfo ai = pm.getApplicationInfo(packageLabels[i], 0);
-                CharSequence label = ai.loadLabel(pm);
-                if (label != null) {
-                    packageLabels[i] = label.toString();
-                }
-                if (ai.icon != 0) {
-                    defaultPackageName = packages[i];
-                    icon = ai.loadIcon(pm);
-                    break;
-                }
-            } catch (NameNotFoundException e) {
-            }
+    private void setNameIcon(UidLabelResolver.UidEntry entry, Drawable entryIcon) {
+        // A uid shared by several packages keeps its process name unless
+        // one of them names the uid.
+        if (entry.label != null) {
+            name = entry.label.toString();
         }
-        if (icon == null) icon = defaultActivityIcon;
-
-        if (packageLabels.length == 1) {
-            name = packageLabels[0];
+        if (entryIcon != null) {
+            defaultPackageName = entry.primary.packageName;
+            icon = entryIcon;
         } else {
-            // Look for an official name for this UID.
-            for (String pkgName : packages) {
-                try {
-                    final PackageInfo pi = pm.getPackageInfo(pkgName, 0);
-                    if (pi.sharedUserLabel != 0) {
-                        final CharSequence nm = pm.getText(pkgName,
-                                pi.sharedUserLabel, pi.applicationInfo);
-                        if (nm != null) {
-                            name = nm.toString();
-                            if (pi.applicationInfo.icon != 0) {
-                                defaultPackageName = pkgName;
-                                icon = pi.applicationInfo.loadIcon(pm);
-                            }
-                            break;
-                        }
-                    }
-                } catch (PackageManager.NameNotFoundException e) {
-                }
-            }
+            icon = mContext.getPackageManager().getDefaultActivityIcon();
         }
-        final String uidString = Integer.toString(uidObj.getUid());
-        UidToDetail utd = new UidToDetail();
-        utd.name = name;
-        utd.icon = icon;
-        utd.packageName = defaultPackageName;
-        mUidCache.put(uidString, utd);
-        mHandler.sendMessage(mHandler.obtainMessage(PowerUsageSummary.MSG_UPDATE_NAME_ICON, this));
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge;
+
+import android.content.AsyncTaskLoader;
+import android.content.Context;
+import android.os.BatteryStats;
+import android.os.Parcel;
+import android.os.RemoteException;
+import android.util.Log;
+
+import com.android.internal.app.IBatteryStats;
+import com.android.internal.os.BatteryStatsImpl;
+
+/**
+ * Fetches and unparcels a snapshot of the battery stats.
+ */
+class BatteryStatsLoader extends AsyncTaskLoader<BatteryStatsImpl> {
+    private static final String TAG = "BatteryStatsLoader";
+
+    private final IBatteryStats mBatteryInfo;
+
+    BatteryStatsLoader(Context context, IBatteryStats batteryInfo) {
+        super(context);
+        mBatteryInfo = batteryInfo;
+    }
+
+    @Override
+    protected void onStartLoading() {
+        super.onStartLoading();
+        forceLoad();
+    }
+
+    @Override
+    public BatteryStatsImpl loadInBackground() {
+        try {
+            byte[] data = mBatteryInfo.getStatistics();
+            if (isLoadInBackgroundCanceled()) {
+                return null;
+            }
+            Parcel parcel = Parcel.obtain();
+            try {
+                parcel.unmarshall(data, 0, data.length);
+                parcel.setDataPosition(0);
+                BatteryStatsImpl stats = BatteryStatsImpl.CREATOR.createFromParcel(parcel);
+                stats.distributeWorkLocked(BatteryStats.STATS_SINCE_CHARGED);
+                return stats;
+            } finally {
+                parcel.recycle();
+            }
+        } catch (RemoteException e) {
+            Log.e(TAG, "RemoteException:", e);
+            return null;
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        super.onStopLoading();
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        cancelLoad();
+    }
+}
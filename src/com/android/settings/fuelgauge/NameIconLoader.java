@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge;
+
+import android.os.Process;
+import android.util.SparseArray;
+import android.view.Choreographer;
+
+import com.android.settings.applications.UidLabelResolver;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Looks up the names and icons of battery sippers on a small pool of
+ * background threads.  Each UID is looked up once however many sippers
+ * share it, and results reach the UI at most once per frame.
+ */
+class NameIconLoader {
+    interface Callback {
+        /**
+         * Called on the main thread with the sippers whose name and icon
+         * were filled in since the last call.
+         */
+        void onNameIconsLoaded(List<BatterySipper> sippers);
+    }
+
+    private static final int NUM_THREADS = 3;
+
+    // How many UIDs a worker resolves in one go.
+    private static final int BATCH_SIZE = 16;
+
+    private static final ThreadPoolExecutor sExecutor = new ThreadPoolExecutor(
+            NUM_THREADS, NUM_THREADS, 1, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+        private final AtomicInteger mCount = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(final Runnable r) {
+            return new Thread("BatteryUsage Icon Loader #" + mCount.getAndIncrement()) {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    r.run();
+                }
+            };
+        }
+    });
+
+    static {
+        sExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    private final UidLabelResolver mResolver;
+    private final Choreographer mChoreographer;
+    private final Callback mCallback;
+
+    // All protected by mLock.
+    private final Object mLock = new Object();
+    private final ArrayDeque<Integer> mQueue = new ArrayDeque<Integer>();
+    private final SparseArray<ArrayList<BatterySipper>> mPending
+            = new SparseArray<ArrayList<BatterySipper>>();
+    private ArrayList<BatterySipper> mLoaded = new ArrayList<BatterySipper>();
+    private int mGeneration;
+    private int mActiveWorkers;
+    private boolean mFrameScheduled;
+
+    /**
+     * Must be created on the main thread.
+     */
+    NameIconLoader(UidLabelResolver resolver, Callback callback) {
+        mResolver = resolver;
+        mChoreographer = Choreographer.getInstance();
+        mCallback = callback;
+    }
+
+    /**
+     * Replaces whatever was queued with the given sippers.
+     */
+    void load(List<BatterySipper> sippers) {
+        synchronized (mLock) {
+            clearLocked();
+            for (int i=0; i<sippers.size(); i++) {
+                final BatterySipper bs = sippers.get(i);
+                final int uid = bs.uidObj.getUid();
+                ArrayList<BatterySipper> waiting = mPending.get(uid);
+                if (waiting == null) {
+                    waiting = new ArrayList<BatterySipper>(1);
+                    mPending.put(uid, waiting);
+                    mQueue.addLast(uid);
+                }
+                waiting.add(bs);
+            }
+            final int wanted = Math.min(NUM_THREADS,
+                    (mQueue.size() + BATCH_SIZE - 1) / BATCH_SIZE);
+            while (mActiveWorkers < wanted) {
+                mActiveWorkers++;
+                sExecutor.execute(mWorker);
+            }
+        }
+    }
+
+    /**
+     * Drops everything that hasn't been looked up or delivered yet.
+     */
+    void cancel() {
+        synchronized (mLock) {
+            clearLocked();
+        }
+        mChoreographer.removeFrameCallback(mFrameCallback);
+    }
+
+    private void clearLocked() {
+        mGeneration++;
+        mQueue.clear();
+        mPending.clear();
+        mLoaded.clear();
+        mFrameScheduled = false;
+    }
+
+    private final Runnable mWorker = new Runnable() {
+        @Override
+        public void run() {
+            final ArrayList<BatterySipper> sippers = new ArrayList<BatterySipper>();
+            while (true) {
+                int generation;
+                int[] uids;
+                sippers.clear();
+                synchronized (mLock) {
+                    if (mQueue.isEmpty()) {
+                        mActiveWorkers--;
+                        return;
+                    }
+                    generation = mGeneration;
+                    uids = new int[Math.min(BATCH_SIZE, mQueue.size())];
+                    for (int i=0; i<uids.length; i++) {
+                        uids[i] = mQueue.removeFirst();
+                        sippers.addAll(mPending.get(uids[i]));
+                        mPending.remove(uids[i]);
+                    }
+                }
+
+                mResolver.resolve(uids);
+                for (int i=0; i<sippers.size(); i++) {
+                    final BatterySipper bs = sippers.get(i);
+                    if (bs.getNameIcon()) {
+                        synchronized (mLock) {
+                            if (generation != mGeneration) {
+                                break;
+                            }
+                            mLoaded.add(bs);
+                            if (!mFrameScheduled) {
+                                mFrameScheduled = true;
+                                mChoreographer.postFrameCallback(mFrameCallback);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    };
+
+    private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            final ArrayList<BatterySipper> loaded;
+            synchronized (mLock) {
+                if (!mFrameScheduled) {
+                    return;
+                }
+                mFrameScheduled = false;
+                loaded = mLoaded;
+                mLoaded = new ArrayList<BatterySipper>();
+            }
+            if (!loaded.isEmpty()) {
+                mCallback.onNameIconsLoaded(loaded);
+            }
+        }
+    };
+}
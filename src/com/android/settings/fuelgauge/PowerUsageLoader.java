@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge;
+
+import android.content.AsyncTaskLoader;
+import android.content.Context;
+
+import com.android.internal.os.BatteryStatsImpl;
+import com.android.internal.os.PowerProfile;
+
+/**
+ * Runs a {@link PowerUsageCalculator} over an already loaded snapshot of the
+ * battery stats.
+ *
+ * <p>The totals come out in the same result as the sorted list: they are
+ * only known once every UID has been processed, and nothing on screen shows
+ * them except as the percentages of the list entries. The battery status
+ * and history, which don't need them, are already shown from the snapshot
+ * before this loader starts.
+ */
+class PowerUsageLoader extends AsyncTaskLoader<PowerUsageCalculator> {
+    private final BatteryStatsImpl mStats;
+    private final int mStatsType;
+    private final PowerProfile mPowerProfile;
+
+    private volatile PowerUsageCalculator mCalculator;
+
+    PowerUsageLoader(Context context, BatteryStatsImpl stats, int statsType,
+            PowerProfile powerProfile) {
+        super(context);
+        mStats = stats;
+        mStatsType = statsType;
+        mPowerProfile = powerProfile;
+    }
+
+    @Override
+    protected void onStartLoading() {
+        super.onStartLoading();
+        forceLoad();
+    }
+
+    @Override
+    public PowerUsageCalculator loadInBackground() {
+        final PowerUsageCalculator calculator = new PowerUsageCalculator(getContext(), mStats,
+                mStatsType, mPowerProfile);
+        mCalculator = calculator;
+        if (isLoadInBackgroundCanceled()) {
+            return null;
+        }
+        calculator.compute();
+        mCalculator = null;
+        return calculator;
+    }
+
+    @Override
+    public void cancelLoadInBackground() {
+        final PowerUsageCalculator calculator = mCalculator;
+        if (calculator != null) {
+            calculator.cancel();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        super.onStopLoading();
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        cancelLoad();
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.net;
+
+import static android.net.TrafficStats.UID_REMOVED;
+import static android.net.TrafficStats.UID_TETHERING;
+
+import android.net.NetworkStats;
+import android.os.UserHandle;
+import android.util.SparseIntArray;
+
+import com.android.settings.DataUsageSummary.AppItem;
+
+import java.util.Arrays;
+
+/**
+ * Per-app data usage for one cycle, collapsed into {@link AppItem}s and
+ * sorted by total usage descending. Built off the main thread by
+ * {@link SummaryForAllUidLoader} and never modified afterwards.
+ */
+public class AppUsageModel {
+    public static final AppUsageModel EMPTY = new AppUsageModel(new AppItem[0]);
+
+    private final AppItem[] mItems;
+    private final long mLargest;
+
+    private AppUsageModel(AppItem[] items) {
+        mItems = items;
+        mLargest = items.length > 0 ? items[0].total : 0;
+    }
+
+    public int getCount() {
+        return mItems.length;
+    }
+
+    public AppItem getItem(int position) {
+        return mItems[position];
+    }
+
+    /** Total of the item with the most usage, used to scale the others. */
+    public long getLargest() {
+        return mLargest;
+    }
+
+    /**
+     * Collapse the given {@link NetworkStats} into items, splicing in the
+     * restricted state of the current user's UIDs.
+     */
+    public static AppUsageModel build(
+            NetworkStats stats, int[] restrictedUids, int currentUserId) {
+        final int size = stats != null ? stats.size() : 0;
+
+        // item index for each collapse key, with per-item state kept in
+        // parallel primitive arrays until the items are created
+        final SparseIntArray indexes = new SparseIntArray();
+        int[] keys = new int[16];
+        long[] totals = new long[16];
+        boolean[] restricted = new boolean[16];
+        int count = 0;
+
+        // uid seen in each stats entry along with the item it landed in
+        final int[] entryUids = new int[size];
+        final int[] entryItems = new int[size];
+
+        NetworkStats.Entry entry = null;
+        for (int i = 0; i < size; i++) {
+            entry = stats.getValues(i, entry);
+
+            // Decide how to collapse items together
+            final int uid = entry.uid;
+            final int collapseKey;
+            if (UserHandle.isApp(uid)) {
+                if (UserHandle.getUserId(uid) == currentUserId) {
+                    collapseKey = uid;
+                } else {
+                    collapseKey = UidDetailProvider.buildKeyForUser(UserHandle.getUserId(uid));
+                }
+            } else if (uid == UID_REMOVED || uid == UID_TETHERING) {
+                collapseKey = uid;
+            } else {
+                collapseKey = android.os.Process.SYSTEM_UID;
+            }
+
+            int index = indexes.get(collapseKey, -1);
+            if (index < 0) {
+                if (count == keys.length) {
+                    keys = Arrays.copyOf(keys, count * 2);
+                    totals = Arrays.copyOf(totals, count * 2);
+                    restricted = Arrays.copyOf(restricted, count * 2);
+                }
+                index = count++;
+                keys[index] = collapseKey;
+                indexes.put(collapseKey, index);
+            }
+            totals[index] += entry.rxBytes + entry.txBytes;
+            entryUids[i] = uid;
+            entryItems[i] = index;
+        }
+
+        final int statsCount = count;
+        for (int uid : restrictedUids) {
+            // Only splice in restricted state for current user
+            if (UserHandle.getUserId(uid) != currentUserId) continue;
+
+            int index = indexes.get(uid, -1);
+            if (index < 0) {
+                if (count == keys.length) {
+                    keys = Arrays.copyOf(keys, count * 2);
+                    totals = Arrays.copyOf(totals, count * 2);
+                    restricted = Arrays.copyOf(restricted, count * 2);
+                }
+                index = count++;
+                keys[index] = uid;
+                totals[index] = -1;
+                indexes.put(uid, index);
+            }
+            restricted[index] = true;
+        }
+
+        final AppItem[] items = new AppItem[count];
+        for (int i = 0; i < count; i++) {
+            final AppItem item = new AppItem(keys[i]);
+            item.total = totals[i];
+            item.restricted = restricted[i];
+            items[i] = item;
+        }
+        for (int i = 0; i < size; i++) {
+            items[entryItems[i]].addUid(entryUids[i]);
+        }
+
+        Arrays.sort(items);
+        return new AppUsageModel(items);
+    }
+}
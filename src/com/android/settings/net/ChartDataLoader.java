@@ -21,12 +21,10 @@ import static android.net.NetworkStats.SET_FOREGROUND;
 import static android.net.NetworkStats.TAG_NONE;
 import static android.net.NetworkStatsHistory.FIELD_RX_BYTES;
 import static android.net.NetworkStatsHistory.FIELD_TX_BYTES;
-import static android.text.format.DateUtils.HOUR_IN_MILLIS;
 
 import android.content.AsyncTaskLoader;
 import android.content.Context;
 import android.net.INetworkStatsSession;
-import android.net.NetworkStatsHistory;
 import android.net.NetworkTemplate;
 import android.os.Bundle;
 import android.os.RemoteException;
@@ -43,6 +41,7 @@ public class ChartDataLoader extends AsyncTaskLoader<ChartData> {
 
     private final INetworkStatsSession mSession;
     private final Bundle mArgs;
+    private final NetworkStatsCache mCache;
 
     public static Bundle buildArgs(NetworkTemplate template, AppItem app) {
         return buildArgs(template, app, FIELD_RX_BYTES | FIELD_TX_BYTES);
@@ -60,12 +59,22 @@ public class ChartDataLoader extends AsyncTaskLoader<ChartData> {
         super(context);
         mSession = session;
         mArgs = args;
+        mCache = NetworkStatsCache.getInstance(context);
     }
 
     @Override
     protected void onStartLoading() {
         super.onStartLoading();
-        forceLoad();
+
+        final NetworkTemplate template = mArgs.getParcelable(KEY_TEMPLATE);
+        final AppItem app = mArgs.getParcelable(KEY_APP);
+        final ChartData cached = mCache.getChartData(
+                template, NetworkStatsCache.buildUids(app), mArgs.getInt(KEY_FIELDS));
+        if (cached != null) {
+            deliverResult(cached);
+        } else {
+            forceLoad();
+        }
     }
 
     @Override
@@ -75,7 +84,11 @@ public class ChartDataLoader extends AsyncTaskLoader<ChartData> {
         final int fields = mArgs.getInt(KEY_FIELDS);
 
         try {
-            return loadInBackground(template, app, fields);
+            final int generation = mCache.getGeneration();
+            final ChartData data = loadInBackground(template, app, fields);
+            mCache.putChartData(
+                    generation, template, NetworkStatsCache.buildUids(app), fields, data);
+            return data;
         } catch (RemoteException e) {
             // since we can't do much without history, and we don't want to
             // leave with half-baked UI, we bail hard.
@@ -89,25 +102,18 @@ public class ChartDataLoader extends AsyncTaskLoader<ChartData> {
         data.network = mSession.getHistoryForNetwork(template, fields);
 
         if (app != null) {
-            // load stats for current uid and template
+            // load stats for current uid and template, folding every set of
+            // every uid into the detail histories as it arrives.
+            final UidHistoryCollector collector = new UidHistoryCollector();
             final int size = app.uids.size();
             for (int i = 0; i < size; i++) {
                 final int uid = app.uids.keyAt(i);
-                data.detailDefault = collectHistoryForUid(
-                        template, uid, SET_DEFAULT, data.detailDefault);
-                data.detailForeground = collectHistoryForUid(
-                        template, uid, SET_FOREGROUND, data.detailForeground);
-            }
-
-            if (size > 0) {
-                data.detail = new NetworkStatsHistory(data.detailForeground.getBucketDuration());
-                data.detail.recordEntireHistory(data.detailDefault);
-                data.detail.recordEntireHistory(data.detailForeground);
-            } else {
-                data.detailDefault = new NetworkStatsHistory(HOUR_IN_MILLIS);
-                data.detailForeground = new NetworkStatsHistory(HOUR_IN_MILLIS);
-                data.detail = new NetworkStatsHistory(HOUR_IN_MILLIS);
+                collector.add(mSession.getHistoryForUid(template, uid, SET_DEFAULT, TAG_NONE,
+                        UidHistoryCollector.FIELDS), SET_DEFAULT);
+                collector.add(mSession.getHistoryForUid(template, uid, SET_FOREGROUND, TAG_NONE,
+                        UidHistoryCollector.FIELDS), SET_FOREGROUND);
             }
+            collector.finish(data);
         }
 
         return data;
@@ -124,22 +130,4 @@ public class ChartDataLoader extends AsyncTaskLoader<ChartData> {
         super.onReset();
         cancelLoad();
     }
-
-    /**
-     * Collect {@link NetworkStatsHistory} for the requested UID, combining with
-     * an existing {@link NetworkStatsHistory} if provided.
-     */
-    private NetworkStatsHistory collectHistoryForUid(
-            NetworkTemplate template, int uid, int set, NetworkStatsHistory existing)
-            throws RemoteException {
-        final NetworkStatsHistory history = mSession.getHistoryForUid(
-                template, uid, set, TAG_NONE, FIELD_RX_BYTES | FIELD_TX_BYTES);
-
-        if (existing != null) {
-            existing.recordEntireHistory(history);
-            return existing;
-        } else {
-            return history;
-        }
-    }
 }
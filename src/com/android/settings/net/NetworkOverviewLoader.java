@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.net;
+
+import android.content.AsyncTaskLoader;
+import android.content.Context;
+import android.net.INetworkStatsSession;
+import android.net.NetworkStats;
+import android.net.NetworkTemplate;
+import android.os.Bundle;
+import android.os.Parcelable;
+import android.os.RemoteException;
+
+/**
+ * Loader for the total usage of several networks over the same range, in
+ * the order their templates were given. All totals are read in one pass,
+ * which is retried if the stats service persisted new stats halfway, so
+ * they always describe the same snapshot.
+ */
+public class NetworkOverviewLoader extends AsyncTaskLoader<long[]> {
+    private static final String KEY_TEMPLATES = "templates";
+    private static final String KEY_START = "start";
+    private static final String KEY_END = "end";
+
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final INetworkStatsSession mSession;
+    private final Bundle mArgs;
+    private final NetworkStatsCache mCache;
+
+    public static Bundle buildArgs(NetworkTemplate[] templates, long start, long end) {
+        final Bundle args = new Bundle();
+        args.putParcelableArray(KEY_TEMPLATES, templates);
+        args.putLong(KEY_START, start);
+        args.putLong(KEY_END, end);
+        return args;
+    }
+
+    public NetworkOverviewLoader(Context context, INetworkStatsSession session, Bundle args) {
+        super(context);
+        mSession = session;
+        mArgs = args;
+        mCache = NetworkStatsCache.getInstance(context);
+    }
+
+    @Override
+    protected void onStartLoading() {
+        super.onStartLoading();
+        forceLoad();
+    }
+
+    @Override
+    public long[] loadInBackground() {
+        final Parcelable[] templates = mArgs.getParcelableArray(KEY_TEMPLATES);
+        final long start = mArgs.getLong(KEY_START);
+        final long end = mArgs.getLong(KEY_END);
+
+        final long[] totals = new long[templates.length];
+        NetworkStats.Entry entry = null;
+        try {
+            for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+                final int generation = mCache.getGeneration();
+                for (int i = 0; i < templates.length; i++) {
+                    final NetworkStats stats = mSession.getSummaryForNetwork(
+                            (NetworkTemplate) templates[i], start, end);
+                    entry = stats.getTotal(entry);
+                    totals[i] = entry.rxBytes + entry.txBytes;
+                }
+                if (generation == mCache.getGeneration()) {
+                    break;
+                }
+            }
+        } catch (RemoteException e) {
+            return null;
+        }
+        return totals;
+    }
+
+    @Override
+    protected void onStopLoading() {
+        super.onStopLoading();
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        cancelLoad();
+    }
+}
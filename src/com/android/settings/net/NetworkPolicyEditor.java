@@ -31,7 +31,10 @@ import static com.android.internal.util.Preconditions.checkNotNull;
 import android.net.NetworkPolicy;
 import android.net.NetworkPolicyManager;
 import android.net.NetworkTemplate;
-import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
 import android.text.format.Time;
 
 import com.android.internal.util.Objects;
@@ -45,21 +48,52 @@ import java.util.HashSet;
  * Utility class to modify list of {@link NetworkPolicy}. Specifically knows
  * about which policies can coexist. This editor offers thread safety when
  * talking with {@link NetworkPolicyManager}.
+ *
+ * <p>Edits are written back after a short quiet period, so that dragging a
+ * sweep only pushes the final state. Writes from every editor go through a
+ * single thread in the order they were made, and only the most recent
+ * pending state is ever written, since each write replaces all policies.
  */
 public class NetworkPolicyEditor {
     // TODO: be more robust when missing policies from service
 
     public static final boolean ENABLE_SPLIT_POLICIES = false;
 
+    /** Quiet period after the last edit before it is written. */
+    private static final long WRITE_DELAY = 500;
+
+    private static final Object sLock = new Object();
+    private static Handler sWriteHandler;
+    // Latest snapshot waiting to be written, if any.  Protected by sLock.
+    private static NetworkPolicy[] sPendingPolicies;
+    private static NetworkPolicyManager sPendingManager;
+    // Snapshot the writer thread is writing right now, if any.  Protected by sLock.
+    private static NetworkPolicy[] sWritingPolicies;
+
     private NetworkPolicyManager mPolicyManager;
     private ArrayList<NetworkPolicy> mPolicies = Lists.newArrayList();
 
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private boolean mFlushScheduled;
+
     public NetworkPolicyEditor(NetworkPolicyManager policyManager) {
         mPolicyManager = checkNotNull(policyManager);
     }
 
     public void read() {
-        final NetworkPolicy[] policies = mPolicyManager.getNetworkPolicies();
+        // read back what was edited so far, from any editor; edits that
+        // haven't reached the service yet are taken from their snapshot,
+        // leaving the write itself to the writer thread
+        flush();
+        NetworkPolicy[] policies;
+        synchronized (sLock) {
+            policies = sPendingPolicies != null ? sPendingPolicies : sWritingPolicies;
+        }
+        if (policies != null) {
+            policies = copyOf(policies);
+        } else {
+            policies = mPolicyManager.getNetworkPolicies();
+        }
 
         boolean modified = false;
         mPolicies.clear();
@@ -86,16 +120,99 @@ public class NetworkPolicyEditor {
         if (modified) writeAsync();
     }
 
+    /**
+     * Schedule the current policies to be written once edits stop coming in.
+     */
     public void writeAsync() {
-        // TODO: consider making more robust by passing through service
-        final NetworkPolicy[] policies = mPolicies.toArray(new NetworkPolicy[mPolicies.size()]);
-        new AsyncTask<Void, Void, Void>() {
-            @Override
-            protected Void doInBackground(Void... params) {
-                write(policies);
-                return null;
+        mHandler.removeCallbacks(mFlushRunnable);
+        mHandler.postDelayed(mFlushRunnable, WRITE_DELAY);
+        mFlushScheduled = true;
+    }
+
+    /**
+     * Queue any edits still in their quiet period for writing right away,
+     * e.g. because the hosting fragment is pausing.  Must be called on the
+     * main thread.
+     */
+    public void flush() {
+        if (!mFlushScheduled) {
+            return;
+        }
+        mFlushScheduled = false;
+        mHandler.removeCallbacks(mFlushRunnable);
+
+        // copy, since edits keep mutating our policies after this point
+        final NetworkPolicy[] policies = copyOf(
+                mPolicies.toArray(new NetworkPolicy[mPolicies.size()]));
+
+        synchronized (sLock) {
+            sPendingPolicies = policies;
+            sPendingManager = mPolicyManager;
+            getWriteHandler().post(sWriteRunnable);
+        }
+    }
+
+    private static NetworkPolicy[] copyOf(NetworkPolicy[] source) {
+        final NetworkPolicy[] policies = new NetworkPolicy[source.length];
+        for (int i = 0; i < source.length; i++) {
+            final NetworkPolicy policy = source[i];
+            policies[i] = new NetworkPolicy(policy.template, policy.cycleDay,
+                    policy.cycleTimezone, policy.warningBytes, policy.limitBytes,
+                    policy.lastWarningSnooze, policy.lastLimitSnooze, policy.metered,
+                    policy.inferred);
+        }
+        return policies;
+    }
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    private static final Runnable sWriteRunnable = new Runnable() {
+        @Override
+        public void run() {
+            writePending();
+        }
+    };
+
+    private static Handler getWriteHandler() {
+        synchronized (sLock) {
+            if (sWriteHandler == null) {
+                final HandlerThread thread = new HandlerThread(
+                        "NetworkPolicyWriter", Process.THREAD_PRIORITY_BACKGROUND);
+                thread.start();
+                sWriteHandler = new Handler(thread.getLooper());
             }
-        }.execute();
+            return sWriteHandler;
+        }
+    }
+
+    /**
+     * Write the latest queued snapshot, if any.  Only runs on the writer
+     * thread, so snapshots land in the order they were queued.
+     */
+    private static void writePending() {
+        final NetworkPolicy[] policies;
+        final NetworkPolicyManager policyManager;
+        synchronized (sLock) {
+            policies = sPendingPolicies;
+            policyManager = sPendingManager;
+            sPendingPolicies = null;
+            sPendingManager = null;
+            sWritingPolicies = policies;
+        }
+        if (policies != null) {
+            try {
+                policyManager.setNetworkPolicies(policies);
+            } finally {
+                synchronized (sLock) {
+                    sWritingPolicies = null;
+                }
+            }
+        }
     }
 
     public void write(NetworkPolicy[] policies) {
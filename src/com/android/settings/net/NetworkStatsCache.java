@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.net;
+
+import static android.Manifest.permission.READ_NETWORK_USAGE_HISTORY;
+import static android.text.format.DateUtils.MINUTE_IN_MILLIS;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.NetworkStats;
+import android.net.NetworkTemplate;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.LruCache;
+
+import com.android.internal.util.Objects;
+import com.android.settings.DataUsageSummary.AppItem;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * In-process cache of what {@link ChartDataLoader} and
+ * {@link SummaryForAllUidLoader} fetched from the network stats service, so
+ * that going back to a tab, cycle or app we just looked at doesn't cost
+ * another round of binder calls.
+ *
+ * <p>Everything is dropped whenever the stats service has new data, either
+ * because we forced an update or because it broadcast one, and registered
+ * {@link Listener}s are told so they can reload what they show.
+ */
+public class NetworkStatsCache {
+    public interface Listener {
+        /** Called on the main thread after the stats service has new data. */
+        void onStatsUpdated();
+    }
+
+    /** How long stats count as fresh after the service last persisted them. */
+    public static final long FRESHNESS_MILLIS = MINUTE_IN_MILLIS;
+
+    /** Sent by the network stats service after it persisted new stats. */
+    private static final String ACTION_NETWORK_STATS_UPDATED =
+            "com.android.server.action.NETWORK_STATS_UPDATED";
+
+    private static final int MAX_CHART_DATA = 16;
+    private static final int MAX_SUMMARIES = 16;
+
+    private static final int TYPE_CHART_DATA = 1;
+    private static final int TYPE_SUMMARY = 2;
+
+    private static final class Key {
+        final int type;
+        final NetworkTemplate template;
+        final int fields;
+        final int[] uids;
+        final long start;
+        final long end;
+
+        Key(int type, NetworkTemplate template, int fields, int[] uids, long start, long end) {
+            this.type = type;
+            this.template = template;
+            this.fields = fields;
+            this.uids = uids;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(type, template, fields, Arrays.hashCode(uids), start, end);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj instanceof Key) {
+                final Key other = (Key) obj;
+                return type == other.type && fields == other.fields && start == other.start
+                        && end == other.end && Objects.equal(template, other.template)
+                        && Arrays.equals(uids, other.uids);
+            }
+            return false;
+        }
+    }
+
+    private static NetworkStatsCache sInstance;
+
+    public static synchronized NetworkStatsCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new NetworkStatsCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private final LruCache<Key, ChartData> mChartData = new LruCache<Key, ChartData>(
+            MAX_CHART_DATA);
+    private final LruCache<Key, NetworkStats> mSummaries = new LruCache<Key, NetworkStats>(
+            MAX_SUMMARIES);
+
+    // Bumped on every invalidation, so that a load which raced with one
+    // doesn't put stale stats back.  Protected by "this".
+    private int mGeneration;
+    // When the stats service was last known to have persisted new stats, in
+    // elapsed realtime, or -1 if never.  Protected by "this".
+    private long mLastUpdated = -1;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    // Main thread only.
+    private final ArrayList<Listener> mListeners = new ArrayList<Listener>();
+
+    private NetworkStatsCache(Context context) {
+        context.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                invalidate();
+            }
+        }, new IntentFilter(ACTION_NETWORK_STATS_UPDATED), READ_NETWORK_USAGE_HISTORY, null);
+    }
+
+    /**
+     * Returns the UIDs of the given item in a form usable as part of a key,
+     * or null when there is no item.
+     */
+    public static int[] buildUids(AppItem app) {
+        if (app == null) {
+            return null;
+        }
+        // keys of a SparseBooleanArray are already sorted
+        final int size = app.uids.size();
+        final int[] uids = new int[size];
+        for (int i=0; i<size; i++) {
+            uids[i] = app.uids.keyAt(i);
+        }
+        return uids;
+    }
+
+    public ChartData getChartData(NetworkTemplate template, int[] uids, int fields) {
+        return mChartData.get(new Key(TYPE_CHART_DATA, template, fields, uids, 0, 0));
+    }
+
+    public void putChartData(int generation, NetworkTemplate template, int[] uids, int fields,
+            ChartData data) {
+        synchronized (this) {
+            if (generation == mGeneration && data != null) {
+                mChartData.put(new Key(TYPE_CHART_DATA, template, fields, uids, 0, 0), data);
+            }
+        }
+    }
+
+    public NetworkStats getSummary(NetworkTemplate template, long start, long end) {
+        return mSummaries.get(new Key(TYPE_SUMMARY, template, 0, null, start, end));
+    }
+
+    public void putSummary(int generation, NetworkTemplate template, long start, long end,
+            NetworkStats stats) {
+        synchronized (this) {
+            if (generation == mGeneration && stats != null) {
+                mSummaries.put(new Key(TYPE_SUMMARY, template, 0, null, start, end), stats);
+            }
+        }
+    }
+
+    /**
+     * Returns the current generation, to be passed back when storing what
+     * is about to be loaded.
+     */
+    public synchronized int getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Whether the stats service persisted new stats within the last
+     * {@link #FRESHNESS_MILLIS}, so forcing another update is pointless.
+     */
+    public synchronized boolean isFresh() {
+        return mLastUpdated >= 0
+                && SystemClock.elapsedRealtime() - mLastUpdated < FRESHNESS_MILLIS;
+    }
+
+    /**
+     * Must be called on the main thread.
+     */
+    public void registerListener(Listener listener) {
+        if (!mListeners.contains(listener)) {
+            mListeners.add(listener);
+        }
+    }
+
+    /**
+     * Must be called on the main thread.
+     */
+    public void unregisterListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Drops everything because the stats service has newer data, and lets
+     * listeners know.  May be called from any thread.
+     */
+    public void invalidate() {
+        synchronized (this) {
+            mGeneration++;
+            mLastUpdated = SystemClock.elapsedRealtime();
+        }
+        mChartData.evictAll();
+        mSummaries.evictAll();
+
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (int i=mListeners.size()-1; i>=0; i--) {
+                    mListeners.get(i).onStatsUpdated();
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.net;
+
+import static android.net.NetworkStats.SET_DEFAULT;
+import static android.net.NetworkStats.SET_FOREGROUND;
+import static android.net.NetworkStats.TAG_NONE;
+import static android.net.NetworkStatsHistory.FIELD_ALL;
+
+import android.net.INetworkStatsService;
+import android.net.INetworkStatsSession;
+import android.net.NetworkStats;
+import android.net.NetworkStatsHistory;
+import android.net.NetworkTemplate;
+import android.net.TrafficStats;
+import android.os.RemoteException;
+import android.util.Log;
+import android.util.SparseBooleanArray;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Writes the {@link NetworkStatsHistory} of a network, and of every UID
+ * that used it, to a file for offline analysis. Histories are fetched and
+ * written one at a time, so memory use doesn't grow with the number of UIDs.
+ * Must be run on a background thread.
+ *
+ * <p>The binary format starts with {@link #MAGIC}, {@link #VERSION} and the
+ * template's match rule, followed by one block per history and a zero byte.
+ * Each block holds its type ({@link #BLOCK_NETWORK} or {@link #BLOCK_UID}),
+ * UID, set, bucket duration and bucket count, then each column in turn:
+ * bucket starts as a first value and deltas, followed by rx bytes, rx
+ * packets, tx bytes, tx packets and operations. Everything after the block
+ * header is written as unsigned variable-length longs.
+ */
+public class NetworkStatsExporter {
+    private static final String TAG = "NetworkStatsExporter";
+
+    public static final int FORMAT_BINARY = 0;
+    public static final int FORMAT_CSV = 1;
+
+    private static final int MAGIC = 0x4e534858; // "NSHX"
+    private static final int VERSION = 2;
+
+    private static final int BLOCK_END = 0;
+    private static final int BLOCK_NETWORK = 1;
+    private static final int BLOCK_UID = 2;
+
+    private static final String CSV_HEADER = "type,uid,set,bucket_start,bucket_duration,"
+            + "rx_bytes,rx_packets,tx_bytes,tx_packets,operations\n";
+
+    private final INetworkStatsService mStatsService;
+    private final NetworkTemplate mTemplate;
+    private final int mFormat;
+
+    public NetworkStatsExporter(
+            INetworkStatsService statsService, NetworkTemplate template, int format) {
+        mStatsService = statsService;
+        mTemplate = template;
+        mFormat = format;
+    }
+
+    /**
+     * Export into the given file, replacing it.
+     *
+     * @return {@code true} when everything was written.
+     */
+    public boolean export(File file) {
+        INetworkStatsSession session = null;
+        OutputStream out = null;
+        boolean success = false;
+        try {
+            session = mStatsService.openSession();
+            out = new BufferedOutputStream(new FileOutputStream(file));
+            if (mFormat == FORMAT_CSV) {
+                final Writer writer = new OutputStreamWriter(out, "UTF-8");
+                writer.write(CSV_HEADER);
+                export(session, new CsvSink(writer));
+                writer.flush();
+            } else {
+                final DataOutputStream dataOut = new DataOutputStream(out);
+                dataOut.writeInt(MAGIC);
+                dataOut.writeInt(VERSION);
+                // Only the kind of network; the file ends up on shared
+                // storage, so nothing that identifies the subscriber.
+                dataOut.writeInt(mTemplate.getMatchRule());
+                export(session, new BinarySink(dataOut));
+                dataOut.writeByte(BLOCK_END);
+                dataOut.flush();
+            }
+            success = true;
+        } catch (RemoteException e) {
+            Log.w(TAG, "problem reading network stats", e);
+        } catch (IOException e) {
+            Log.w(TAG, "problem writing " + file, e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    success = false;
+                }
+            }
+            TrafficStats.closeQuietly(session);
+        }
+
+        if (!success) {
+            file.delete();
+        }
+        return success;
+    }
+
+    private void export(INetworkStatsSession session, Sink sink)
+            throws RemoteException, IOException {
+        sink.write(BLOCK_NETWORK, NetworkStats.UID_ALL, NetworkStats.SET_ALL,
+                session.getHistoryForNetwork(mTemplate, FIELD_ALL));
+
+        // only keep the set of UIDs around, not their stats
+        final SparseBooleanArray uids = new SparseBooleanArray();
+        final NetworkStats summary = session.getSummaryForAllUid(
+                mTemplate, Long.MIN_VALUE, Long.MAX_VALUE, false);
+        NetworkStats.Entry entry = null;
+        final int size = summary != null ? summary.size() : 0;
+        for (int i = 0; i < size; i++) {
+            entry = summary.getValues(i, entry);
+            uids.put(entry.uid, true);
+        }
+
+        for (int i = 0; i < uids.size(); i++) {
+            final int uid = uids.keyAt(i);
+            sink.write(BLOCK_UID, uid, SET_DEFAULT,
+                    session.getHistoryForUid(mTemplate, uid, SET_DEFAULT, TAG_NONE, FIELD_ALL));
+            sink.write(BLOCK_UID, uid, SET_FOREGROUND,
+                    session.getHistoryForUid(mTemplate, uid, SET_FOREGROUND, TAG_NONE, FIELD_ALL));
+        }
+    }
+
+    private interface Sink {
+        void write(int type, int uid, int set, NetworkStatsHistory history) throws IOException;
+    }
+
+    private static class BinarySink implements Sink {
+        private final DataOutputStream mOut;
+        private NetworkStatsHistory.Entry mEntry;
+
+        BinarySink(DataOutputStream out) {
+            mOut = out;
+        }
+
+        @Override
+        public void write(int type, int uid, int set, NetworkStatsHistory history)
+                throws IOException {
+            final int count = history.size();
+            mOut.writeByte(type);
+            mOut.writeInt(uid);
+            mOut.writeInt(set);
+            mOut.writeLong(history.getBucketDuration());
+            mOut.writeInt(count);
+
+            long lastStart = 0;
+            for (int i = 0; i < count; i++) {
+                mEntry = history.getValues(i, mEntry);
+                writeVarLong(mEntry.bucketStart - lastStart);
+                lastStart = mEntry.bucketStart;
+            }
+            for (int i = 0; i < count; i++) {
+                mEntry = history.getValues(i, mEntry);
+                writeVarLong(mEntry.rxBytes);
+            }
+            for (int i = 0; i < count; i++) {
+                mEntry = history.getValues(i, mEntry);
+                writeVarLong(mEntry.rxPackets);
+            }
+            for (int i = 0; i < count; i++) {
+                mEntry = history.getValues(i, mEntry);
+                writeVarLong(mEntry.txBytes);
+            }
+            for (int i = 0; i < count; i++) {
+                mEntry = history.getValues(i, mEntry);
+                writeVarLong(mEntry.txPackets);
+            }
+            for (int i = 0; i < count; i++) {
+                mEntry = history.getValues(i, mEntry);
+                writeVarLong(mEntry.operations);
+            }
+        }
+
+        private void writeVarLong(long value) throws IOException {
+            while ((value & ~0x7FL) != 0) {
+                mOut.writeByte(((int) value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            mOut.writeByte((int) value);
+        }
+    }
+
+    private static class CsvSink implements Sink {
+        private final Writer mWriter;
+        private final StringBuilder mLine = new StringBuilder();
+        private NetworkStatsHistory.Entry mEntry;
+
+        CsvSink(Writer writer) {
+            mWriter = writer;
+        }
+
+        @Override
+        public void write(int type, int uid, int set, NetworkStatsHistory history)
+                throws IOException {
+            final String typeName = type == BLOCK_NETWORK ? "network" : "uid";
+            final int count = history.size();
+            for (int i = 0; i < count; i++) {
+                mEntry = history.getValues(i, mEntry);
+                mLine.setLength(0);
+                mLine.append(typeName).append(',');
+                mLine.append(uid).append(',');
+                mLine.append(set).append(',');
+                mLine.append(mEntry.bucketStart).append(',');
+                mLine.append(mEntry.bucketDuration).append(',');
+                mLine.append(mEntry.rxBytes).append(',');
+                mLine.append(mEntry.rxPackets).append(',');
+                mLine.append(mEntry.txBytes).append(',');
+                mLine.append(mEntry.txPackets).append(',');
+                mLine.append(mEntry.operations).append('\n');
+                mWriter.append(mLine);
+            }
+        }
+    }
+}
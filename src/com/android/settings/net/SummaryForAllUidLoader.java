@@ -16,21 +16,30 @@
 
 package com.android.settings.net;
 
+import static android.net.NetworkPolicyManager.POLICY_REJECT_METERED_BACKGROUND;
+
+import android.app.ActivityManager;
 import android.content.AsyncTaskLoader;
 import android.content.Context;
 import android.net.INetworkStatsSession;
+import android.net.NetworkPolicyManager;
 import android.net.NetworkStats;
 import android.net.NetworkTemplate;
 import android.os.Bundle;
 import android.os.RemoteException;
 
-public class SummaryForAllUidLoader extends AsyncTaskLoader<NetworkStats> {
+/**
+ * Loader for per-app usage of a cycle, collapsed and sorted into an
+ * {@link AppUsageModel} ready for display.
+ */
+public class SummaryForAllUidLoader extends AsyncTaskLoader<AppUsageModel> {
     private static final String KEY_TEMPLATE = "template";
     private static final String KEY_START = "start";
     private static final String KEY_END = "end";
 
     private final INetworkStatsSession mSession;
     private final Bundle mArgs;
+    private final NetworkStatsCache mCache;
 
     public static Bundle buildArgs(NetworkTemplate template, long start, long end) {
         final Bundle args = new Bundle();
@@ -44,6 +53,7 @@ public class SummaryForAllUidLoader extends AsyncTaskLoader<NetworkStats> {
         super(context);
         mSession = session;
         mArgs = args;
+        mCache = NetworkStatsCache.getInstance(context);
     }
 
     @Override
@@ -53,16 +63,27 @@ public class SummaryForAllUidLoader extends AsyncTaskLoader<NetworkStats> {
     }
 
     @Override
-    public NetworkStats loadInBackground() {
+    public AppUsageModel loadInBackground() {
         final NetworkTemplate template = mArgs.getParcelable(KEY_TEMPLATE);
         final long start = mArgs.getLong(KEY_START);
         final long end = mArgs.getLong(KEY_END);
 
-        try {
-            return mSession.getSummaryForAllUid(template, start, end, false);
-        } catch (RemoteException e) {
-            return null;
+        // restricted state changes more often than the stats themselves, so
+        // only the raw summary comes from the cache.
+        NetworkStats stats = mCache.getSummary(template, start, end);
+        if (stats == null) {
+            try {
+                final int generation = mCache.getGeneration();
+                stats = mSession.getSummaryForAllUid(template, start, end, false);
+                mCache.putSummary(generation, template, start, end, stats);
+            } catch (RemoteException e) {
+                return AppUsageModel.EMPTY;
+            }
         }
+
+        final int[] restrictedUids = NetworkPolicyManager.from(getContext()).getUidsWithPolicy(
+                POLICY_REJECT_METERED_BACKGROUND);
+        return AppUsageModel.build(stats, restrictedUids, ActivityManager.getCurrentUser());
     }
 
     @Override
@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.net;
+
+import static com.android.internal.util.Preconditions.checkNotNull;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.SparseBooleanArray;
+import android.view.View;
+import android.widget.ImageView;
+import android.widget.TextView;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Loads {@link UidDetail} for list rows on a single background thread.
+ *
+ * <p>Each UID is loaded at most once however many rows ask for it, and a
+ * row that gets recycled for another UID before its detail arrived drops
+ * its request. Rows on screen are served before details that are only
+ * being prefetched.
+ */
+public class UidDetailLoader {
+    private static HandlerThread sThread;
+
+    private static synchronized Handler getWorkerHandler() {
+        if (sThread == null) {
+            sThread = new HandlerThread("UidDetailLoader", Process.THREAD_PRIORITY_BACKGROUND);
+            sThread.start();
+        }
+        return new Handler(sThread.getLooper());
+    }
+
+    private final UidDetailProvider mProvider;
+    private final Handler mMainHandler = new Handler();
+    private final Handler mWorkerHandler = getWorkerHandler();
+
+    // Rows waiting for a detail, and the UID each one wants.  Main thread only.
+    private final HashMap<View, Integer> mTargets = new HashMap<View, Integer>();
+
+    // All protected by mLock.
+    private final Object mLock = new Object();
+    private final ArrayDeque<Integer> mVisibleQueue = new ArrayDeque<Integer>();
+    private final ArrayDeque<Integer> mPrefetchQueue = new ArrayDeque<Integer>();
+    // UIDs queued or being loaded; true when a row on screen is waiting.
+    private final SparseBooleanArray mInFlight = new SparseBooleanArray();
+    private boolean mWorkerScheduled;
+
+    /**
+     * Must be created on the main thread.
+     */
+    public UidDetailLoader(UidDetailProvider provider) {
+        mProvider = checkNotNull(provider);
+    }
+
+    /**
+     * Bind the detail of the given UID to the icon and title of a row,
+     * loading it first if needed.
+     */
+    public void bindView(int uid, View target) {
+        final Integer previous = mTargets.remove(target);
+        if (previous != null && previous != uid) {
+            cancelIfUnwanted(previous);
+        }
+
+        final UidDetail cachedDetail = mProvider.getUidDetail(uid, false);
+        if (cachedDetail != null) {
+            bindView(cachedDetail, target);
+            return;
+        }
+
+        bindView(null, target);
+        mTargets.put(target, uid);
+        synchronized (mLock) {
+            final int index = mInFlight.indexOfKey(uid);
+            if (index >= 0) {
+                if (!mInFlight.valueAt(index)) {
+                    // someone is looking at it now; move it to the front lane
+                    mInFlight.put(uid, true);
+                    mPrefetchQueue.remove(uid);
+                    mVisibleQueue.addLast(uid);
+                }
+            } else {
+                mInFlight.put(uid, true);
+                mVisibleQueue.addLast(uid);
+            }
+            scheduleWorkerLocked();
+        }
+    }
+
+    /**
+     * Load details of the given UIDs behind any rows on screen, so that
+     * they're ready by the time the list scrolls to them. Replaces whatever
+     * was being prefetched before.
+     */
+    public void prefetch(int[] uids) {
+        synchronized (mLock) {
+            for (Integer uid : mPrefetchQueue) {
+                mInFlight.delete(uid);
+            }
+            mPrefetchQueue.clear();
+            for (int i = 0; i < uids.length; i++) {
+                final int uid = uids[i];
+                if (mInFlight.indexOfKey(uid) >= 0
+                        || mProvider.getUidDetail(uid, false) != null) {
+                    continue;
+                }
+                mInFlight.put(uid, false);
+                mPrefetchQueue.addLast(uid);
+            }
+            scheduleWorkerLocked();
+        }
+    }
+
+    /**
+     * Drop every pending request, e.g. because the list went away.
+     */
+    public void cancelAll() {
+        mTargets.clear();
+        synchronized (mLock) {
+            mVisibleQueue.clear();
+            mPrefetchQueue.clear();
+            mInFlight.clear();
+        }
+        mMainHandler.removeCallbacksAndMessages(null);
+    }
+
+    private void cancelIfUnwanted(int uid) {
+        if (mTargets.containsValue(uid)) {
+            return;
+        }
+        synchronized (mLock) {
+            if (mVisibleQueue.remove(uid)) {
+                mInFlight.delete(uid);
+            }
+        }
+    }
+
+    private void scheduleWorkerLocked() {
+        if (!mWorkerScheduled
+                && (!mVisibleQueue.isEmpty() || !mPrefetchQueue.isEmpty())) {
+            mWorkerScheduled = true;
+            mWorkerHandler.post(mWorker);
+        }
+    }
+
+    private final Runnable mWorker = new Runnable() {
+        @Override
+        public void run() {
+            while (true) {
+                final int uid;
+                synchronized (mLock) {
+                    if (!mVisibleQueue.isEmpty()) {
+                        uid = mVisibleQueue.removeFirst();
+                    } else if (!mPrefetchQueue.isEmpty()) {
+                        uid = mPrefetchQueue.removeFirst();
+                    } else {
+                        mWorkerScheduled = false;
+                        return;
+                    }
+                }
+
+                final UidDetail detail = mProvider.getUidDetail(uid, true);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        deliver(uid, detail);
+                    }
+                });
+            }
+        }
+    };
+
+    private void deliver(int uid, UidDetail detail) {
+        synchronized (mLock) {
+            mInFlight.delete(uid);
+        }
+        final Iterator<Map.Entry<View, Integer>> it = mTargets.entrySet().iterator();
+        while (it.hasNext()) {
+            final Map.Entry<View, Integer> entry = it.next();
+            if (entry.getValue() == uid) {
+                bindView(detail, entry.getKey());
+                it.remove();
+            }
+        }
+    }
+
+    private static void bindView(UidDetail detail, View target) {
+        final ImageView icon = (ImageView) target.findViewById(android.R.id.icon);
+        final TextView title = (TextView) target.findViewById(android.R.id.title);
+
+        if (detail != null) {
+            icon.setImageDrawable(detail.icon);
+            title.setText(detail.label);
+        } else {
+            icon.setImageDrawable(null);
+            title.setText(null);
+        }
+    }
+}
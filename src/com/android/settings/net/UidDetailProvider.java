@@ -17,10 +17,7 @@
 package com.android.settings.net;
 
 import android.content.Context;
-import android.content.pm.ApplicationInfo;
-import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
-import android.content.pm.PackageManager.NameNotFoundException;
 import android.content.pm.UserInfo;
 import android.content.res.Resources;
 import android.graphics.drawable.Drawable;
@@ -32,6 +29,7 @@ import android.util.SparseArray;
 
 import com.android.settings.R;
 import com.android.settings.Utils;
+import com.android.settings.applications.UidLabelResolver;
 import com.android.settings.users.UserUtils;
 
 /**
@@ -40,6 +38,7 @@ import com.android.settings.users.UserUtils;
  */
 public class UidDetailProvider {
     private final Context mContext;
+    private final UidLabelResolver mResolver;
     private final SparseArray<UidDetail> mUidDetailCache;
 
     public static int buildKeyForUser(int userHandle) {
@@ -48,6 +47,7 @@ public class UidDetailProvider {
 
     public UidDetailProvider(Context context) {
         mContext = context.getApplicationContext();
+        mResolver = UidLabelResolver.getInstance(mContext);
         mUidDetailCache = new SparseArray<UidDetail>();
     }
 
@@ -126,30 +126,18 @@ public class UidDetailProvider {
             }
         }
 
-        // otherwise fall back to using packagemanager labels
-        final String[] packageNames = pm.getPackagesForUid(uid);
-        final int length = packageNames != null ? packageNames.length : 0;
-        try {
-            if (length == 1) {
-                final ApplicationInfo info = pm.getApplicationInfo(packageNames[0], 0);
-                detail.label = info.loadLabel(pm).toString();
-                detail.icon = info.loadIcon(pm);
-            } else if (length > 1) {
-                detail.detailLabels = new CharSequence[length];
-                for (int i = 0; i < length; i++) {
-                    final String packageName = packageNames[i];
-                    final PackageInfo packageInfo = pm.getPackageInfo(packageName, 0);
-                    final ApplicationInfo appInfo = pm.getApplicationInfo(packageName, 0);
-
-                    detail.detailLabels[i] = appInfo.loadLabel(pm).toString();
-                    if (packageInfo.sharedUserLabel != 0) {
-                        detail.label = pm.getText(packageName, packageInfo.sharedUserLabel,
-                                packageInfo.applicationInfo).toString();
-                        detail.icon = appInfo.loadIcon(pm);
-                    }
-                }
+        // otherwise fall back to using packagemanager labels, which are
+        // shared with the other screens resolving the same uids
+        final UidLabelResolver.UidEntry entry = mResolver.resolve(uid);
+        if (entry.apps.length > 1) {
+            detail.detailLabels = entry.labels;
+        }
+        if (entry.label != null) {
+            detail.label = entry.label;
+            final Drawable icon = mResolver.getIcon(entry);
+            if (icon != null) {
+                detail.icon = icon;
             }
-        } catch (NameNotFoundException e) {
         }
 
         if (TextUtils.isEmpty(detail.label)) {
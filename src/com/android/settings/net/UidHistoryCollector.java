@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.net;
+
+import static android.net.NetworkStats.SET_FOREGROUND;
+import static android.net.NetworkStatsHistory.FIELD_RX_BYTES;
+import static android.net.NetworkStatsHistory.FIELD_TX_BYTES;
+import static android.text.format.DateUtils.HOUR_IN_MILLIS;
+
+import android.net.NetworkStats;
+import android.net.NetworkStatsHistory;
+
+/**
+ * Folds the per-UID, per-set histories of an app item into the default,
+ * foreground and combined histories of a {@link ChartData}.
+ *
+ * <p>All histories of an item come from the same session and share its
+ * bucket duration, so buckets line up. Instead of merging history into
+ * history, which looks up and possibly inserts a bucket for every bucket
+ * recorded, each incoming bucket is added once into flat per-set counters
+ * indexed by bucket. The three histories are written out in order at the
+ * end, each pre-sized for the buckets it will hold.
+ */
+class UidHistoryCollector {
+    static final int FIELDS = FIELD_RX_BYTES | FIELD_TX_BYTES;
+
+    private static final int DEFAULT = 0;
+    private static final int FOREGROUND = 1;
+
+    private long mBucketDuration = -1;
+    private long mStart;
+    private int mCount;
+
+    // Indexed by set, then by bucket from mStart.
+    private final long[][] mRxBytes = new long[2][];
+    private final long[][] mTxBytes = new long[2][];
+    private final boolean[][] mPresent = new boolean[2][];
+
+    // Histories whose buckets don't line up with the others, if ever.
+    private final NetworkStatsHistory[] mUnaligned = new NetworkStatsHistory[2];
+
+    private NetworkStatsHistory.Entry mEntry;
+
+    /**
+     * Records the history of one UID for the given set.
+     */
+    void add(NetworkStatsHistory history, int set) {
+        final int index = set == SET_FOREGROUND ? FOREGROUND : DEFAULT;
+        if (mBucketDuration < 0) {
+            mBucketDuration = history.getBucketDuration();
+        }
+
+        final int size = history.size();
+        if (size == 0) {
+            return;
+        }
+        final long start = history.getStart();
+        if (history.getBucketDuration() != mBucketDuration
+                || (mCount > 0 && (start - mStart) % mBucketDuration != 0)) {
+            if (mUnaligned[index] == null) {
+                mUnaligned[index] = new NetworkStatsHistory(mBucketDuration, size, FIELDS);
+            }
+            mUnaligned[index].recordEntireHistory(history);
+            return;
+        }
+        ensureRange(start, history.getEnd());
+
+        final long[] rx = mRxBytes[index];
+        final long[] tx = mTxBytes[index];
+        final boolean[] present = mPresent[index];
+        for (int i=0; i<size; i++) {
+            mEntry = history.getValues(i, mEntry);
+            final int bucket = (int) ((mEntry.bucketStart - mStart) / mBucketDuration);
+            rx[bucket] += mEntry.rxBytes;
+            tx[bucket] += mEntry.txBytes;
+            present[bucket] = true;
+        }
+    }
+
+    /**
+     * Makes the counters cover the buckets from start up to end, keeping
+     * what they hold.
+     */
+    private void ensureRange(long start, long end) {
+        if (mCount == 0) {
+            mStart = start;
+            mCount = (int) ((end - start) / mBucketDuration);
+            for (int s=0; s<2; s++) {
+                mRxBytes[s] = new long[mCount];
+                mTxBytes[s] = new long[mCount];
+                mPresent[s] = new boolean[mCount];
+            }
+            return;
+        }
+
+        final long newStart = Math.min(mStart, start);
+        final long newEnd = Math.max(mStart + mCount * mBucketDuration, end);
+        if (newStart == mStart && newEnd == mStart + mCount * mBucketDuration) {
+            return;
+        }
+        final int offset = (int) ((mStart - newStart) / mBucketDuration);
+        final int count = (int) ((newEnd - newStart) / mBucketDuration);
+        for (int s=0; s<2; s++) {
+            final long[] rx = new long[count];
+            final long[] tx = new long[count];
+            final boolean[] present = new boolean[count];
+            System.arraycopy(mRxBytes[s], 0, rx, offset, mCount);
+            System.arraycopy(mTxBytes[s], 0, tx, offset, mCount);
+            System.arraycopy(mPresent[s], 0, present, offset, mCount);
+            mRxBytes[s] = rx;
+            mTxBytes[s] = tx;
+            mPresent[s] = present;
+        }
+        mStart = newStart;
+        mCount = count;
+    }
+
+    /**
+     * Stores what was collected in the detail fields of the given data.
+     */
+    void finish(ChartData data) {
+        final long bucketDuration = mBucketDuration < 0 ? HOUR_IN_MILLIS : mBucketDuration;
+
+        int defaultSize = 0;
+        int foregroundSize = 0;
+        int totalSize = 0;
+        for (int i=0; i<mCount; i++) {
+            final boolean inDefault = mPresent[DEFAULT][i];
+            final boolean inForeground = mPresent[FOREGROUND][i];
+            if (inDefault) {
+                defaultSize++;
+            }
+            if (inForeground) {
+                foregroundSize++;
+            }
+            if (inDefault || inForeground) {
+                totalSize++;
+            }
+        }
+
+        final NetworkStatsHistory detailDefault = new NetworkStatsHistory(
+                bucketDuration, Math.max(defaultSize, 1), FIELDS);
+        final NetworkStatsHistory detailForeground = new NetworkStatsHistory(
+                bucketDuration, Math.max(foregroundSize, 1), FIELDS);
+        final NetworkStatsHistory total = new NetworkStatsHistory(
+                bucketDuration, Math.max(totalSize, 1), FIELDS);
+
+        // Buckets go in in order, so every record is an append.
+        final NetworkStats.Entry entry = new NetworkStats.Entry();
+        for (int i=0; i<mCount; i++) {
+            final boolean inDefault = mPresent[DEFAULT][i];
+            final boolean inForeground = mPresent[FOREGROUND][i];
+            if (!inDefault && !inForeground) {
+                continue;
+            }
+            final long start = mStart + i * bucketDuration;
+            final long end = start + bucketDuration;
+            if (inDefault) {
+                entry.rxBytes = mRxBytes[DEFAULT][i];
+                entry.txBytes = mTxBytes[DEFAULT][i];
+                detailDefault.recordData(start, end, entry);
+            }
+            if (inForeground) {
+                entry.rxBytes = mRxBytes[FOREGROUND][i];
+                entry.txBytes = mTxBytes[FOREGROUND][i];
+                detailForeground.recordData(start, end, entry);
+            }
+            entry.rxBytes = mRxBytes[DEFAULT][i] + mRxBytes[FOREGROUND][i];
+            entry.txBytes = mTxBytes[DEFAULT][i] + mTxBytes[FOREGROUND][i];
+            total.recordData(start, end, entry);
+        }
+
+        if (mUnaligned[DEFAULT] != null) {
+            detailDefault.recordEntireHistory(mUnaligned[DEFAULT]);
+            total.recordEntireHistory(mUnaligned[DEFAULT]);
+        }
+        if (mUnaligned[FOREGROUND] != null) {
+            detailForeground.recordEntireHistory(mUnaligned[FOREGROUND]);
+            total.recordEntireHistory(mUnaligned[FOREGROUND]);
+        }
+
+        data.detailDefault = detailDefault;
+        data.detailForeground = detailForeground;
+        data.detail = total;
+    }
+}
@@ -40,7 +40,6 @@ import android.content.pm.PackageManager;
 import android.content.pm.PackageManager.NameNotFoundException;
 import android.content.pm.ResolveInfo;
 import android.content.res.Resources;
-import android.graphics.drawable.Drawable;
 import android.os.Bundle;
 import android.os.Handler;
 import android.preference.CheckBoxPreference;
@@ -66,6 +65,7 @@ import android.widget.Toast;
 
 import com.android.settings.R;
 import com.android.settings.SettingsPreferenceFragment;
+import com.android.settings.applications.AppIconCache;
 
 public class NotificationLightSettings extends SettingsPreferenceFragment implements
         Preference.OnPreferenceChangeListener, View.OnLongClickListener {
@@ -233,7 +233,7 @@ public class NotificationLightSettings extends SettingsPreferenceFragment implem
 
                     pref.setKey(i.name);
                     pref.setTitle(label);
-                    pref.setIcon(info.applicationInfo.loadIcon(pm));
+                    pref.setIcon(AppIconCache.getInstance(context).getIcon(info.applicationInfo));
                     // Does not fit on low res devices, we need it so we hide the view in the preference
                     pref.setSummary(i.name);
                     pref.setPersistent(false);
@@ -531,7 +531,7 @@ public class NotificationLightSettings extends SettingsPreferenceFragment implem
     class AppItem implements Comparable<AppItem> {
         CharSequence title;
         String packageName;
-        Drawable icon;
+        ResolveInfo info;
 
         @Override
         public int compareTo(AppItem another) {
@@ -557,7 +557,7 @@ public class NotificationLightSettings extends SettingsPreferenceFragment implem
                         for (ResolveInfo info : mInstalledAppInfo) {
                             final AppItem item = new AppItem();
                             item.title = info.loadLabel(mPackageManager);
-                            item.icon = info.loadIcon(mPackageManager);
+                            item.info = info;
                             item.packageName = info.activityInfo.packageName;
                             handler.post(new Runnable() {
 
@@ -623,8 +623,7 @@ public class NotificationLightSettings extends SettingsPreferenceFragment implem
                 holder.summary.setVisibility(View.GONE);
             }
             if (holder.icon != null) {
-                Drawable loadIcon = applicationInfo.icon;
-                holder.icon.setImageDrawable(loadIcon);
+                AppIconCache.getInstance(getActivity()).bindIcon(holder.icon, applicationInfo.info);
             }
             return convertView;
         }
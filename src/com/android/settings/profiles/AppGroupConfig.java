@@ -30,7 +30,6 @@ import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.PackageManager.NameNotFoundException;
-import android.graphics.drawable.Drawable;
 import android.os.Bundle;
 import android.os.Handler;
 import android.preference.Preference;
@@ -56,6 +55,7 @@ import android.widget.Toast;
 
 import com.android.settings.R;
 import com.android.settings.SettingsPreferenceFragment;
+import com.android.settings.applications.AppIconCache;
 
 public class AppGroupConfig extends SettingsPreferenceFragment
     implements Preference.OnPreferenceChangeListener {
@@ -164,8 +164,8 @@ public class AppGroupConfig extends SettingsPreferenceFragment
                     PackageInfo group = mPackageManager.getPackageInfo(pkg, 0);
                     pref.setKey(group.packageName);
                     pref.setTitle(group.applicationInfo.loadLabel(mPackageManager));
-                    Drawable icon = group.applicationInfo.loadIcon(mPackageManager);
-                    pref.setIcon(icon);
+                    pref.setIcon(AppIconCache.getInstance(getActivity())
+                            .getIcon(group.applicationInfo));
                     pref.setSelectable(true);
                     pref.setPersistent(false);
                     applicationsList.addPreference(pref);
@@ -327,7 +327,7 @@ public class AppGroupConfig extends SettingsPreferenceFragment
 
         String packageName;
 
-        Drawable icon;
+        ApplicationInfo info;
 
         @Override
         public int compareTo(PackageItem another) {
@@ -353,7 +353,7 @@ public class AppGroupConfig extends SettingsPreferenceFragment
                             final PackageItem item = new PackageItem();
                             ApplicationInfo applicationInfo = info.applicationInfo;
                             item.title = applicationInfo.loadLabel(mPackageManager);
-                            item.icon = applicationInfo.loadIcon(mPackageManager);
+                            item.info = applicationInfo;
                             item.packageName = applicationInfo.packageName;
                             handler.post(new Runnable() {
 
@@ -420,8 +420,7 @@ public class AppGroupConfig extends SettingsPreferenceFragment
                 holder.summary.setVisibility(View.GONE);
             }
             if (holder.icon != null) {
-                Drawable loadIcon = applicationInfo.icon;
-                holder.icon.setImageDrawable(loadIcon);
+                AppIconCache.getInstance(getActivity()).bindIcon(holder.icon, applicationInfo.info);
             }
             return convertView;
         }
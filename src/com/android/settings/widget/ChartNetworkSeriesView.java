@@ -56,6 +56,16 @@ public class ChartNetworkSeriesView extends View {
 
     private NetworkStatsHistory mStats;
 
+    /**
+     * Bucket start times of {@link #mStats}, along with the running total of
+     * bytes up to and including each bucket, so that the path can be
+     * re-projected without walking history entries again.
+     */
+    private long[] mBucketStart;
+    private long[] mCumulative;
+    private int mBucketCount;
+    private boolean mCumulativeValid = false;
+
     private Path mPathStroke;
     private Path mPathFill;
     private Path mPathEstimate;
@@ -136,6 +146,7 @@ public class ChartNetworkSeriesView extends View {
 
     public void bindNetworkStats(NetworkStatsHistory stats) {
         mStats = stats;
+        mCumulativeValid = false;
         invalidatePath();
         invalidate();
     }
@@ -161,9 +172,32 @@ public class ChartNetworkSeriesView extends View {
         invalidate();
     }
 
+    /**
+     * Rebuild {@link #mBucketStart} and {@link #mCumulative} from the
+     * currently bound {@link NetworkStatsHistory}.
+     */
+    private void generateCumulative() {
+        mCumulativeValid = true;
+        mBucketCount = mStats != null ? mStats.size() : 0;
+        if (mBucketStart == null || mBucketStart.length < mBucketCount) {
+            mBucketStart = new long[mBucketCount];
+            mCumulative = new long[mBucketCount];
+        }
+
+        long totalData = 0;
+        NetworkStatsHistory.Entry entry = null;
+        for (int i = 0; i < mBucketCount; i++) {
+            entry = mStats.getValues(i, entry);
+            totalData += entry.rxBytes + entry.txBytes;
+            mBucketStart[i] = entry.bucketStart;
+            mCumulative[i] = totalData;
+        }
+    }
+
     /**
      * Erase any existing {@link Path} and generate series outline based on
-     * currently bound {@link NetworkStatsHistory} data.
+     * currently bound {@link NetworkStatsHistory} data. Buckets ending in the
+     * same pixel column are merged into a single vertex.
      */
     private void generatePath() {
         if (LOGD) Log.d(TAG, "generatePath()");
@@ -179,10 +213,14 @@ public class ChartNetworkSeriesView extends View {
             return;
         }
 
+        if (!mCumulativeValid) {
+            generateCumulative();
+        }
+
         final int width = getWidth();
         final int height = getHeight();
+        final long bucketDuration = mStats.getBucketDuration();
 
-        boolean started = false;
         float lastX = 0;
         float lastY = height;
         long lastTime = mHoriz.convertToValue(lastX);
@@ -195,44 +233,69 @@ public class ChartNetworkSeriesView extends View {
         // currently it only accepts first full bucket.
 
         long totalData = 0;
+        long baseData = -1;
 
-        NetworkStatsHistory.Entry entry = null;
+        // vertex waiting for its pixel column to be complete
+        boolean pending = false;
+        int pendingColumn = 0;
+        float pendingX = 0;
+        float pendingY = 0;
 
         final int start = mStats.getIndexBefore(mStart);
-        final int end = mStats.getIndexAfter(mEnd);
-        for (int i = start; i <= end; i++) {
-            entry = mStats.getValues(i, entry);
+        final int end = Math.min(mStats.getIndexAfter(mEnd), mBucketCount - 1);
+        for (int i = Math.max(start, 0); i <= end; i++) {
+            final long startTime = mBucketStart[i];
+            final long endTime = startTime + bucketDuration;
 
-            final long startTime = entry.bucketStart;
-            final long endTime = startTime + entry.bucketDuration;
-
-            final float startX = mHoriz.convertToPoint(startTime);
             final float endX = mHoriz.convertToPoint(endTime);
 
             // skip until we find first stats on screen
             if (endX < 0) continue;
 
-            // increment by current bucket total
-            totalData += entry.rxBytes + entry.txBytes;
+            // count from the first bucket on screen
+            if (baseData < 0) {
+                baseData = i > 0 ? mCumulative[i - 1] : 0;
+            }
+            totalData = mCumulative[i] - baseData;
 
-            final float startY = lastY;
             final float endY = mVert.convertToPoint(totalData);
 
             if (lastTime != startTime) {
-                // gap in buckets; line to start of current bucket
-                mPathStroke.lineTo(startX, startY);
-                mPathFill.lineTo(startX, startY);
+                // gap in buckets; line to start of current bucket, unless it
+                // starts in the column we're still collecting
+                final float startX = mHoriz.convertToPoint(startTime);
+                if (!pending || (int) startX != pendingColumn) {
+                    if (pending) {
+                        mPathStroke.lineTo(pendingX, pendingY);
+                        mPathFill.lineTo(pendingX, pendingY);
+                        pending = false;
+                    }
+                    mPathStroke.lineTo(startX, lastY);
+                    mPathFill.lineTo(startX, lastY);
+                }
             }
 
-            // always draw to end of current bucket
-            mPathStroke.lineTo(endX, endY);
-            mPathFill.lineTo(endX, endY);
+            // always draw to end of current bucket, once its column is done
+            final int column = (int) endX;
+            if (pending && column != pendingColumn) {
+                mPathStroke.lineTo(pendingX, pendingY);
+                mPathFill.lineTo(pendingX, pendingY);
+            }
+            pending = true;
+            pendingColumn = column;
+            pendingX = endX;
+            pendingY = endY;
 
             lastX = endX;
             lastY = endY;
             lastTime = endTime;
         }
 
+        if (pending) {
+            mPathStroke.lineTo(pendingX, pendingY);
+            mPathFill.lineTo(pendingX, pendingY);
+        }
+
         // when data falls short, extend to requested end time
         if (lastTime < mEndTime) {
             lastX = mHoriz.convertToPoint(mEndTime);
@@ -259,7 +322,7 @@ public class ChartNetworkSeriesView extends View {
             mPathEstimate.moveTo(lastX, lastY);
 
             final long now = System.currentTimeMillis();
-            final long bucketDuration = mStats.getBucketDuration();
+            NetworkStatsHistory.Entry entry = null;
 
             // long window is average over two weeks
             entry = mStats.getValues(lastTime - WEEK_IN_MILLIS * 2, lastTime, now, entry);
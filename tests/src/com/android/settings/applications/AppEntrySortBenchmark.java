@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import android.content.pm.ApplicationInfo;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import com.android.settings.applications.ApplicationsState.AppEntry;
+
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Random;
+
+/**
+ * Compares sorting app entries through the collator against sorting them
+ * by their precomputed collation keys.
+ */
+@LargeTest
+public class AppEntrySortBenchmark extends AndroidTestCase {
+    private static final String TAG = "AppEntrySortBenchmark";
+
+    private static final int NUM_ENTRIES = 1000;
+    private static final int NUM_ROUNDS = 10;
+
+    private static final String[] WORDS = {
+        "Settings", "Calendar", "\u00c9l\u00e9ments", "\u00dcbersicht", "\u00c5rhus",
+        "Caf\u00e9", "Na\u00efve", "Se\u00f1or", "\u0141\u00f3d\u017a",
+        "\u5730\u56fe", "\u97f3\u4e50", "\u76f8\u673a", "\u65e5\u5386",
+        "\u30ab\u30e1\u30e9", "\u30e1\u30fc\u30eb", "\uc9c0\ub3c4", "\uc74c\uc545",
+        "\u041a\u0430\u0440\u0442\u044b", "\u041f\u043e\u0447\u0442\u0430",
+    };
+
+    // What ALPHA_COMPARATOR used to do.
+    private static final Comparator<AppEntry> RAW_COLLATOR_COMPARATOR
+            = new Comparator<AppEntry>() {
+        private final Collator sCollator = Collator.getInstance();
+        @Override
+        public int compare(AppEntry object1, AppEntry object2) {
+            return sCollator.compare(object1.label, object2.label);
+        }
+    };
+
+    private ArrayList<AppEntry> makeEntries() {
+        final Random random = new Random(0);
+        final ArrayList<AppEntry> entries = new ArrayList<AppEntry>(NUM_ENTRIES);
+        for (int i = 0; i < NUM_ENTRIES; i++) {
+            ApplicationInfo info = new ApplicationInfo();
+            // The apk doesn't exist, so the entry is labeled with its package name.
+            info.packageName = WORDS[random.nextInt(WORDS.length)] + " "
+                    + WORDS[random.nextInt(WORDS.length)] + " " + i;
+            info.sourceDir = "/nonexistent/" + i + ".apk";
+            info.enabled = true;
+            info.flags = ApplicationInfo.FLAG_INSTALLED;
+            entries.add(new AppEntry(getContext(), info, i, null));
+        }
+        return entries;
+    }
+
+    private long timeSort(ArrayList<AppEntry> entries, Comparator<AppEntry> comparator) {
+        long total = 0;
+        for (int i = 0; i < NUM_ROUNDS; i++) {
+            ArrayList<AppEntry> list = new ArrayList<AppEntry>(entries);
+            Collections.shuffle(list, new Random(i));
+            final long start = SystemClock.elapsedRealtimeNanos();
+            Collections.sort(list, comparator);
+            total += SystemClock.elapsedRealtimeNanos() - start;
+        }
+        return total / NUM_ROUNDS;
+    }
+
+    public void testSortByCollationKey() {
+        final ArrayList<AppEntry> entries = makeEntries();
+
+        // Warm up both paths before measuring.
+        timeSort(entries, RAW_COLLATOR_COMPARATOR);
+        timeSort(entries, ApplicationsState.ALPHA_COMPARATOR);
+
+        final long rawNanos = timeSort(entries, RAW_COLLATOR_COMPARATOR);
+        final long keyNanos = timeSort(entries, ApplicationsState.ALPHA_COMPARATOR);
+        Log.i(TAG, "Sorting " + NUM_ENTRIES + " entries: collator " + (rawNanos / 1000)
+                + "us, collation keys " + (keyNanos / 1000) + "us");
+
+        // Both approaches must agree on the order.
+        ArrayList<AppEntry> byCollator = new ArrayList<AppEntry>(entries);
+        ArrayList<AppEntry> byKey = new ArrayList<AppEntry>(entries);
+        Collections.sort(byCollator, RAW_COLLATOR_COMPARATOR);
+        Collections.sort(byKey, ApplicationsState.ALPHA_COMPARATOR);
+        for (int i = 0; i < NUM_ENTRIES; i++) {
+            assertEquals(0, RAW_COLLATOR_COMPARATOR.compare(byCollator.get(i), byKey.get(i)));
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.deviceinfo;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.settings.deviceinfo.StorageMeasurement.FileInfo;
+
+import java.util.Random;
+
+@SmallTest
+public class LargestFilesListTest extends AndroidTestCase {
+    private static final int HEAD_SIZE = 10;
+
+    private static void assertDescending(LargestFilesList list, int from, int to) {
+        for (int i = from + 1; i < to; i++) {
+            assertTrue("out of order at " + i, list.get(i - 1).mSize >= list.get(i).mSize);
+        }
+    }
+
+    public void testHeadHoldsLargestWhileListing() {
+        final LargestFilesList list = new LargestFilesList(HEAD_SIZE);
+        final Random random = new Random(0);
+        long largest = 0;
+        for (int i = 0; i < 500; i++) {
+            final long size = random.nextInt(1000000);
+            largest = Math.max(largest, size);
+            list.add(new FileInfo("/file" + i, size, i));
+        }
+        assertEquals(500, list.size());
+        assertEquals(largest, list.get(0).mSize);
+        assertDescending(list, 0, HEAD_SIZE);
+        // Nothing left behind in the tail may be bigger than the head.
+        for (int i = HEAD_SIZE; i < list.size(); i++) {
+            assertTrue(list.get(i).mSize <= list.get(HEAD_SIZE - 1).mSize);
+        }
+
+        list.finish();
+        assertDescending(list, 0, list.size());
+    }
+
+    public void testRemoveAndAddAfterFinish() {
+        final LargestFilesList list = new LargestFilesList(HEAD_SIZE);
+        for (int i = 0; i < 50; i++) {
+            list.add(new FileInfo("/file" + i, i * 10, i));
+        }
+        list.finish();
+
+        final FileInfo top = list.get(0);
+        assertTrue(list.remove(top));
+        assertFalse(list.remove(top));
+        assertNull(list.getById(top.mId));
+        assertEquals(49, list.size());
+
+        list.add(new FileInfo("/big", 100000, 100));
+        list.add(new FileInfo("/small", 5, 101));
+        assertEquals("/big", list.get(0).mFileName);
+        assertDescending(list, 0, list.size());
+
+        long total = 0;
+        for (int i = 0; i < list.size(); i++) {
+            total += list.get(i).mSize;
+        }
+        assertEquals(total, list.getTotalSize());
+    }
+}
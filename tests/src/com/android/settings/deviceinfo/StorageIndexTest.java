@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.deviceinfo;
+
+import static android.text.format.DateUtils.MINUTE_IN_MILLIS;
+
+import android.os.FileUtils;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+@SmallTest
+public class StorageIndexTest extends AndroidTestCase {
+    private File mRoot;
+    private File mIndexDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mRoot = new File(getContext().getCacheDir(), "StorageIndexTest");
+        mIndexDir = new File(getContext().getCacheDir(), "StorageIndexTest-index");
+        FileUtils.deleteContents(mRoot);
+        FileUtils.deleteContents(mIndexDir);
+        mRoot.mkdirs();
+        mIndexDir.mkdirs();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        FileUtils.deleteContents(mRoot);
+        FileUtils.deleteContents(mIndexDir);
+        super.tearDown();
+    }
+
+    private static void writeFile(File file, int length) throws IOException {
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[length]);
+        } finally {
+            out.close();
+        }
+    }
+
+    // Directories written just now aren't trusted by the index yet, so
+    // pretend everything was last changed a while ago.
+    private static void age(File dir, long when) {
+        dir.setLastModified(when);
+        final File[] children = dir.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                if (child.isDirectory()) {
+                    age(child, when);
+                }
+            }
+        }
+    }
+
+    public void testMeasureTree() throws Exception {
+        final File a = new File(mRoot, "a");
+        final File b = new File(a, "b");
+        b.mkdirs();
+        writeFile(new File(mRoot, "1"), 100);
+        writeFile(new File(a, "2"), 200);
+        writeFile(new File(b, "3"), 300);
+
+        final StorageIndex index = new StorageIndex(mIndexDir);
+        assertEquals(600, index.measure(mRoot));
+    }
+
+    public void testNoticesChangeBelowUnchangedDirectory() throws Exception {
+        final File a = new File(mRoot, "a");
+        final File b = new File(a, "b");
+        b.mkdirs();
+        writeFile(new File(b, "3"), 300);
+        age(mRoot, System.currentTimeMillis() - 10 * MINUTE_IN_MILLIS);
+
+        final StorageIndex index = new StorageIndex(mIndexDir);
+        assertEquals(300, index.measure(mRoot));
+
+        // Only b's time moves; the index has to find it through a and the root.
+        writeFile(new File(b, "4"), 400);
+        b.setLastModified(System.currentTimeMillis() - 5 * MINUTE_IN_MILLIS);
+        assertEquals(700, index.measure(mRoot));
+
+        FileUtils.deleteContents(a);
+        a.delete();
+        assertEquals(0, index.measure(mRoot));
+    }
+
+    public void testSaveAndLoad() throws Exception {
+        final File a = new File(mRoot, "a");
+        a.mkdirs();
+        writeFile(new File(a, "1"), 100);
+        age(mRoot, System.currentTimeMillis() - 10 * MINUTE_IN_MILLIS);
+
+        final StorageIndex index = new StorageIndex(mIndexDir);
+        assertEquals(100, index.measure(mRoot));
+        index.save();
+
+        final StorageIndex loaded = new StorageIndex(mIndexDir);
+        assertEquals(100, loaded.measure(mRoot));
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.net;
+
+import static android.net.NetworkStats.SET_DEFAULT;
+import static android.net.NetworkStats.SET_FOREGROUND;
+import static android.text.format.DateUtils.DAY_IN_MILLIS;
+import static android.text.format.DateUtils.HOUR_IN_MILLIS;
+
+import android.net.NetworkStats;
+import android.net.NetworkStatsHistory;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import java.util.Random;
+
+/**
+ * Checks {@link UidHistoryCollector} against the merging ChartDataLoader
+ * did before it, on synthetic histories shaped like the collapsed
+ * "Android OS" item.
+ */
+@LargeTest
+public class UidHistoryCollectorBenchmark extends AndroidTestCase {
+    private static final String TAG = "UidHistoryCollectorBenchmark";
+
+    private static final int NUM_UIDS = 40;
+    private static final long BUCKET_DURATION = 2 * HOUR_IN_MILLIS;
+    private static final long HISTORY_DURATION = 90 * DAY_IN_MILLIS;
+    private static final int NUM_ROUNDS = 15;
+
+    /**
+     * Histories as the stats session would return them for one item, in
+     * default/foreground pairs per UID. Both ways of merging take over the
+     * histories they're given, so every run gets its own.
+     */
+    private static NetworkStatsHistory[] makeHistories(long seed) {
+        final Random random = new Random(seed);
+        final NetworkStats.Entry entry = new NetworkStats.Entry();
+        final int buckets = (int) (HISTORY_DURATION / BUCKET_DURATION);
+        final NetworkStatsHistory[] histories = new NetworkStatsHistory[NUM_UIDS * 2];
+        for (int i = 0; i < histories.length; i++) {
+            final NetworkStatsHistory history = new NetworkStatsHistory(
+                    BUCKET_DURATION, buckets, UidHistoryCollector.FIELDS);
+            for (int j = 0; j < buckets; j++) {
+                // leave some holes, like a real app that wasn't always running
+                if (random.nextInt(4) == 0) continue;
+                entry.rxBytes = random.nextInt(1024 * 1024);
+                entry.txBytes = random.nextInt(1024 * 1024);
+                final long start = j * BUCKET_DURATION;
+                history.recordData(start, start + BUCKET_DURATION, entry);
+            }
+            histories[i] = history;
+        }
+        return histories;
+    }
+
+    /**
+     * Exactly what ChartDataLoader did before, through collectHistoryForUid().
+     */
+    private static ChartData mergeBySet(NetworkStatsHistory[] histories) {
+        final ChartData data = new ChartData();
+        for (int i = 0; i < histories.length; i += 2) {
+            data.detailDefault = collectHistoryForUid(histories[i], data.detailDefault);
+            data.detailForeground = collectHistoryForUid(histories[i + 1],
+                    data.detailForeground);
+        }
+        data.detail = new NetworkStatsHistory(data.detailForeground.getBucketDuration());
+        data.detail.recordEntireHistory(data.detailDefault);
+        data.detail.recordEntireHistory(data.detailForeground);
+        return data;
+    }
+
+    private static NetworkStatsHistory collectHistoryForUid(
+            NetworkStatsHistory history, NetworkStatsHistory existing) {
+        if (existing != null) {
+            existing.recordEntireHistory(history);
+            return existing;
+        } else {
+            return history;
+        }
+    }
+
+    private static ChartData collect(NetworkStatsHistory[] histories) {
+        final ChartData data = new ChartData();
+        final UidHistoryCollector collector = new UidHistoryCollector();
+        for (int i = 0; i < histories.length; i += 2) {
+            collector.add(histories[i], SET_DEFAULT);
+            collector.add(histories[i + 1], SET_FOREGROUND);
+        }
+        collector.finish(data);
+        return data;
+    }
+
+    private static void assertSameHistory(NetworkStatsHistory expected,
+            NetworkStatsHistory actual) {
+        assertEquals(expected.getBucketDuration(), actual.getBucketDuration());
+        assertEquals(expected.size(), actual.size());
+        NetworkStatsHistory.Entry expectedEntry = null;
+        NetworkStatsHistory.Entry actualEntry = null;
+        for (int i = 0; i < expected.size(); i++) {
+            expectedEntry = expected.getValues(i, expectedEntry);
+            actualEntry = actual.getValues(i, actualEntry);
+            assertEquals(expectedEntry.bucketStart, actualEntry.bucketStart);
+            assertEquals(expectedEntry.rxBytes, actualEntry.rxBytes);
+            assertEquals(expectedEntry.txBytes, actualEntry.txBytes);
+        }
+    }
+
+    public void testMatchesMergeBySet() {
+        final ChartData expected = mergeBySet(makeHistories(0));
+        final ChartData actual = collect(makeHistories(0));
+        assertSameHistory(expected.detailDefault, actual.detailDefault);
+        assertSameHistory(expected.detailForeground, actual.detailForeground);
+        assertSameHistory(expected.detail, actual.detail);
+    }
+
+    /**
+     * Reports how long both take; timings vary too much between devices
+     * and runs to assert on, so this only logs them.
+     */
+    public void testLogTimings() {
+        // Best of several runs each, alternating, to keep GC and JIT noise
+        // out of the numbers.
+        long bestBySet = Long.MAX_VALUE;
+        long bestCollector = Long.MAX_VALUE;
+        for (int i = 0; i < NUM_ROUNDS; i++) {
+            NetworkStatsHistory[] histories = makeHistories(i);
+            long start = SystemClock.elapsedRealtimeNanos();
+            mergeBySet(histories);
+            bestBySet = Math.min(bestBySet, SystemClock.elapsedRealtimeNanos() - start);
+
+            histories = makeHistories(i);
+            start = SystemClock.elapsedRealtimeNanos();
+            collect(histories);
+            bestCollector = Math.min(bestCollector, SystemClock.elapsedRealtimeNanos() - start);
+        }
+        Log.i(TAG, "merging by set: " + bestBySet / 1000 + "us, collector: "
+                + bestCollector / 1000 + "us, speedup "
+                + ((float) bestBySet / Math.max(bestCollector, 1)) + "x");
+    }
+
+    public void testEmptyItem() {
+        final ChartData data = new ChartData();
+        new UidHistoryCollector().finish(data);
+        assertEquals(0, data.detail.size());
+        assertEquals(0, data.detailDefault.size());
+        assertEquals(0, data.detailForeground.size());
+    }
+}